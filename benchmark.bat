@@ -0,0 +1,5 @@
+cd rsc-client
+mkdir bench-bin
+javac -sourcepath src;bench -cp libs/joml-1.9.19.jar;libs/xpp3.jar;libs/xstream.jar -d bench-bin bench/client/bench/BenchmarkRunner.java
+robocopy res bench-bin/res /mir
+java -cp libs/joml-1.9.19.jar;libs/xpp3.jar;libs/xstream.jar;bench-bin client.bench.BenchmarkRunner %*
@@ -0,0 +1,48 @@
+package client.bench;
+
+/**
+ * A single operation to be timed by the {@link BenchmarkRunner}.
+ *
+ * @author Dan Bryce
+ */
+public abstract class Benchmark {
+
+    private String name;
+
+    public Benchmark(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Prepares the benchmark.
+     *
+     * <p>This is called once, before any operations are timed.
+     */
+    public void setup() {}
+
+    /**
+     * Performs one operation.
+     *
+     * @return Any value derived from the result of the operation, so that the
+     *          work cannot be optimised away.
+     */
+    public abstract int run();
+
+    /**
+     * Determines whether this benchmark should run without allocating any
+     * memory, once warmed up.
+     *
+     * <p>The {@link BenchmarkRunner} reports any such benchmark that
+     * allocates.
+     *
+     * @return
+     */
+    public boolean isAllocationFree() {
+        return false;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+}
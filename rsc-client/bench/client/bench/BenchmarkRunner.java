@@ -0,0 +1,321 @@
+package client.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs the benchmarks of the rendering and world-loading stages.
+ *
+ * <p>Each benchmark is warmed up, then timed over a number of measurement
+ * iterations, in the style of JMH. Results are reported as the average time
+ * per operation, and can be exported as JSON in the same format as JMH, so
+ * that they can be compared over time using the same tools.
+ *
+ * <p>Memory allocated per operation is also reported, like JMH's GC profiler.
+ * Benchmarks that are expected not to allocate are listed at the end if they
+ * allocate in every measurement iteration, and the runner exits with an
+ * error.
+ *
+ * <p>Usage:
+ *
+ * <pre>
+ * BenchmarkRunner [-wi n] [-i n] [-t ms] [-filter regex] [-json file]
+ * </pre>
+ *
+ * @author Dan Bryce
+ */
+public class BenchmarkRunner {
+
+    private static final int DEFAULT_WARMUP_ITERATIONS = 5;
+    private static final int DEFAULT_MEASUREMENT_ITERATIONS = 10;
+    private static final int DEFAULT_ITERATION_TIME = 1000;
+
+    /**
+     * Student's t-value for a 99.9% confidence interval, as used by JMH,
+     * for a reasonable number of iterations.
+     */
+    private static final double CONFIDENCE_T_VALUE = 3.25;
+
+    /**
+     * Memory allocated per operation, in bytes, below which a benchmark still
+     * counts as not allocating.
+     *
+     * <p>This is the size of the smallest object, so anything less cannot be
+     * allocated by every operation; it comes from elsewhere, such as the JIT
+     * compiler warming up during short iterations.
+     */
+    private static final double ALLOCATION_TOLERANCE = 16;
+
+    private int warmupIterations = DEFAULT_WARMUP_ITERATIONS;
+    private int measurementIterations = DEFAULT_MEASUREMENT_ITERATIONS;
+    private int iterationTime = DEFAULT_ITERATION_TIME;
+    private String filter = ".*";
+    private String jsonFilename;
+
+    /**
+     * Sink for benchmark results, so that the work cannot be optimised away.
+     */
+    private int sink;
+
+    /**
+     * Results of the last call to {@link #runIteration}.
+     */
+    private int iterationOps;
+    private long iterationAllocatedBytes;
+
+    private com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static class Result {
+        private String benchmark;
+        private double[] iterationScores;
+        private double score;
+        private double scoreError;
+        private double allocatedBytes;
+
+        /**
+         * Memory allocated per operation in the iteration that allocated the
+         * least.
+         */
+        private double minAllocatedBytes;
+
+        private boolean allocationFree;
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+
+        BenchmarkRunner runner = new BenchmarkRunner();
+        runner.parseArgs(args);
+        runner.run();
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+            case "-wi":
+                warmupIterations = Integer.parseInt(args[++i]);
+                break;
+            case "-i":
+                measurementIterations = Integer.parseInt(args[++i]);
+                break;
+            case "-t":
+                iterationTime = Integer.parseInt(args[++i]);
+                break;
+            case "-filter":
+                filter = args[++i];
+                break;
+            case "-json":
+                jsonFilename = args[++i];
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+    }
+
+    private List<Benchmark> createBenchmarks() {
+        BenchmarkScene scene = new BenchmarkScene();
+
+        List<Benchmark> benchmarks = new ArrayList<>();
+        for (int pose = 0; pose < BenchmarkScene.getNumPoses(); pose++) {
+            benchmarks.add(new RenderBenchmark(scene, pose, false));
+            benchmarks.add(new RenderBenchmark(scene, pose, true));
+        }
+        benchmarks.add(new RenderBenchmark(scene, 0, false, true));
+        for (ScanlineBenchmark.Routine routine : ScanlineBenchmark.Routine.values()) {
+            benchmarks.add(new ScanlineBenchmark(routine));
+        }
+        benchmarks.add(new ScanlineBenchmark(ScanlineBenchmark.Routine.LARGE_TEXTURE, 3));
+        benchmarks.add(new ScanlineBenchmark(ScanlineBenchmark.Routine.LARGE_TEXTURE, 5));
+        for (int pose = 0; pose < BenchmarkScene.getNumPoses(); pose++) {
+            benchmarks.add(new ProjectBenchmark(scene, pose));
+        }
+        benchmarks.add(new RelightBenchmark(scene));
+        benchmarks.add(new LoadSectorBenchmark());
+        return benchmarks;
+    }
+
+    private void run() throws IOException {
+
+        // The game logs as it loads, which would drown out the results
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {}
+        }));
+
+        List<Result> results = new ArrayList<>();
+        try {
+            for (Benchmark benchmark : createBenchmarks()) {
+                if (!benchmark.getName().matches(filter)) {
+                    continue;
+                }
+                out.println("# Benchmark: " + benchmark.getName());
+                Result result = runBenchmark(benchmark, out);
+                out.println(formatResult(result));
+                out.println();
+                results.add(result);
+            }
+        } finally {
+            System.setOut(out);
+        }
+
+        System.out.println("Summary:");
+        for (Result result : results) {
+            System.out.println(formatResult(result));
+        }
+
+        if (jsonFilename != null) {
+            writeJson(results);
+            System.out.println("Results written to " + jsonFilename);
+        }
+
+        // Prevent the sink from being optimised away
+        if (sink == 42) {
+            System.out.println();
+        }
+
+        boolean allocationFree = true;
+        for (Result result : results) {
+            if (result.allocationFree && result.minAllocatedBytes >= ALLOCATION_TOLERANCE) {
+                System.out.println("Unexpected allocation: " + result.benchmark);
+                allocationFree = false;
+            }
+        }
+        if (!allocationFree) {
+            System.exit(1);
+        }
+    }
+
+    private static String formatResult(Result result) {
+        return String.format(Locale.ROOT, "%-40s %10.3f +- %8.3f ms/op %12.1f B/op",
+                result.benchmark, result.score, result.scoreError, result.allocatedBytes);
+    }
+
+    private Result runBenchmark(Benchmark benchmark, PrintStream out) {
+        benchmark.setup();
+
+        for (int i = 0; i < warmupIterations; i++) {
+            double score = runIteration(benchmark);
+            out.println(String.format(Locale.ROOT, "Warmup %d: %.3f ms/op", i + 1, score));
+        }
+
+        Result result = new Result();
+        result.benchmark = benchmark.getName();
+        result.allocationFree = benchmark.isAllocationFree();
+        result.iterationScores = new double[measurementIterations];
+        long totalOps = 0;
+        long totalAllocatedBytes = 0;
+        result.minAllocatedBytes = Double.MAX_VALUE;
+        for (int i = 0; i < measurementIterations; i++) {
+            double score = runIteration(benchmark);
+            result.iterationScores[i] = score;
+            totalOps += iterationOps;
+            totalAllocatedBytes += iterationAllocatedBytes;
+            result.minAllocatedBytes = Math.min(result.minAllocatedBytes,
+                    (double) iterationAllocatedBytes / iterationOps);
+            out.println(String.format(Locale.ROOT, "Iteration %d: %.3f ms/op", i + 1, score));
+        }
+        result.allocatedBytes = (double) totalAllocatedBytes / totalOps;
+
+        // Mean and confidence interval
+        double total = 0;
+        for (double score : result.iterationScores) {
+            total += score;
+        }
+        result.score = total / measurementIterations;
+        double variance = 0;
+        for (double score : result.iterationScores) {
+            variance += (score - result.score) * (score - result.score);
+        }
+        if (measurementIterations > 1) {
+            variance /= measurementIterations - 1;
+            result.scoreError = CONFIDENCE_T_VALUE * Math.sqrt(variance / measurementIterations);
+        }
+
+        return result;
+    }
+
+    /**
+     * Runs a benchmark repeatedly for the duration of one iteration.
+     *
+     * <p>The number of operations and the memory allocated are left in
+     * {@link #iterationOps} and {@link #iterationAllocatedBytes}.
+     *
+     * @param benchmark
+     * @return Average time per operation, in milliseconds.
+     */
+    private double runIteration(Benchmark benchmark) {
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long end = start + iterationTime * 1000000L;
+        long now;
+        int ops = 0;
+        do {
+            sink += benchmark.run();
+            ops++;
+            now = System.nanoTime();
+        } while (now < end);
+        iterationAllocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        iterationOps = ops;
+        return (now - start) / 1000000.0 / ops;
+    }
+
+    /**
+     * Writes the results in the JSON format used by JMH.
+     *
+     * @param results
+     * @throws IOException
+     */
+    private void writeJson(List<Result> results) throws IOException {
+        try (PrintWriter writer = new PrintWriter(jsonFilename, "UTF-8")) {
+            writer.println("[");
+            for (int r = 0; r < results.size(); r++) {
+                Result result = results.get(r);
+                writer.println("    {");
+                writer.println("        \"benchmark\" : \"client.bench." + result.benchmark + "\",");
+                writer.println("        \"mode\" : \"avgt\",");
+                writer.println("        \"threads\" : 1,");
+                writer.println("        \"forks\" : 1,");
+                writer.println("        \"warmupIterations\" : " + warmupIterations + ",");
+                writer.println("        \"warmupTime\" : \"" + iterationTime + " ms\",");
+                writer.println("        \"measurementIterations\" : " + measurementIterations + ",");
+                writer.println("        \"measurementTime\" : \"" + iterationTime + " ms\",");
+                writer.println("        \"primaryMetric\" : {");
+                writer.println("            \"score\" : " + toJson(result.score) + ",");
+                writer.println("            \"scoreError\" : " + toJson(result.scoreError) + ",");
+                writer.println("            \"scoreUnit\" : \"ms/op\",");
+                writer.print("            \"rawData\" : [ [ ");
+                for (int i = 0; i < result.iterationScores.length; i++) {
+                    if (i > 0) {
+                        writer.print(", ");
+                    }
+                    writer.print(toJson(result.iterationScores[i]));
+                }
+                writer.println(" ] ]");
+                writer.println("        },");
+                writer.println("        \"secondaryMetrics\" : {");
+                writer.println("            \"gc.alloc.rate.norm\" : {");
+                writer.println("                \"score\" : " + toJson(result.allocatedBytes) + ",");
+                writer.println("                \"scoreUnit\" : \"B/op\"");
+                writer.println("            }");
+                writer.println("        }");
+                writer.println(r < results.size() - 1 ? "    }," : "    }");
+            }
+            writer.println("]");
+        }
+    }
+
+    private static String toJson(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+}
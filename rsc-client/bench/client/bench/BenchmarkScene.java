@@ -0,0 +1,137 @@
+package client.bench;
+
+import java.awt.image.BufferedImage;
+
+import client.Canvas;
+import client.game.render.SceneBuilder;
+import client.game.render.SoftwareRenderer;
+import client.game.scene.Camera;
+import client.game.scene.Scene;
+import client.game.world.World;
+import client.game.world.WorldLoader;
+import client.loading.LoadingScreen;
+
+/**
+ * Fixed scene shared by the benchmarks.
+ *
+ * <p>This loads the real game assets and a fixed Sector, built with a fixed
+ * random seed, so that every run measures the same work.
+ *
+ * @author Dan Bryce
+ */
+public class BenchmarkScene {
+
+    /**
+     * Lumbridge.
+     */
+    public static final int SECTOR_X = 51;
+    public static final int SECTOR_Z = 51;
+
+    public static final int WIDTH = 1280;
+    public static final int HEIGHT = 720;
+
+    /**
+     * Camera poses, as tile x, tile z and rotation.
+     */
+    private static final int[][] POSES = {
+        { 72, 72, 128 },
+        { 60, 80, 0 },
+        { 84, 64, 200 },
+    };
+
+    private static boolean resourcesLoaded;
+
+    private Scene scene;
+    private World world;
+    private WorldLoader worldLoader;
+    private SoftwareRenderer renderer;
+    private Canvas canvas;
+
+    public BenchmarkScene() {
+        loadResources();
+
+        scene = new Scene();
+        world = new World(scene);
+        worldLoader = createWorldLoader(world);
+        worldLoader.loadSector(SECTOR_X, SECTOR_Z);
+        new SceneBuilder(scene, world).build();
+
+        renderer = new SoftwareRenderer(scene, WIDTH, HEIGHT);
+        canvas = new Canvas(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB));
+        setPose(0);
+    }
+
+    /**
+     * Loads all game assets needed to build the world, if not already loaded.
+     */
+    public static void loadResources() {
+        if (resourcesLoaded) {
+            return;
+        }
+
+        // The final step of the loading screen moves on to the login screen,
+        // which is not needed
+        LoadingScreen loadingScreen = new LoadingScreen(null);
+        while (loadingScreen.getProgress() < 90) {
+            loadingScreen.continueLoading();
+        }
+        resourcesLoaded = true;
+    }
+
+    /**
+     * Creates a WorldLoader that builds the world identically every time.
+     *
+     * @param world
+     * @return
+     */
+    public static WorldLoader createWorldLoader(World world) {
+        WorldLoader worldLoader = new WorldLoader(world);
+        worldLoader.setExportMode(false);
+        worldLoader.setRandomSeed(0);
+        return worldLoader;
+    }
+
+    /**
+     * Moves the camera to one of the fixed poses.
+     *
+     * @param pose
+     */
+    public void setPose(int pose) {
+        int x = POSES[pose][0] * World.TILE_WIDTH;
+        int z = POSES[pose][1] * World.TILE_DEPTH;
+        int y = -world.getAveragedElevation(x, z);
+        scene.getCamera().set(x, y, z,
+                Camera.DEFAULT_PITCH, POSES[pose][2] * 4, 0, Camera.DEFAULT_HEIGHT * 2);
+        scene.fogZDistance = Camera.DEFAULT_FOG_DISTANCE + Camera.DEFAULT_HEIGHT * 2;
+    }
+
+    /**
+     * Marks the camera as moved, without actually moving it, so that the
+     * next frame cannot reuse the projection of the last one.
+     */
+    public void touchCamera() {
+        Camera camera = scene.getCamera();
+        camera.setX(camera.getX());
+    }
+
+    public static int getNumPoses() {
+        return POSES.length;
+    }
+
+    public Scene getScene() {
+        return scene;
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    public SoftwareRenderer getRenderer() {
+        return renderer;
+    }
+
+    public Canvas getCanvas() {
+        return canvas;
+    }
+
+}
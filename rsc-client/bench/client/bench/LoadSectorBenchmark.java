@@ -0,0 +1,27 @@
+package client.bench;
+
+import client.game.scene.Scene;
+import client.game.world.World;
+import client.game.world.WorldLoader;
+
+/**
+ * Benchmark of building a Sector from scratch.
+ *
+ * @author Dan Bryce
+ */
+public class LoadSectorBenchmark extends Benchmark {
+
+    public LoadSectorBenchmark() {
+        super("loadSector");
+    }
+
+    @Override
+    public int run() {
+        // Use a new World each time, so nothing can be reused
+        World world = new World(new Scene());
+        WorldLoader worldLoader = BenchmarkScene.createWorldLoader(world);
+        worldLoader.loadSector(BenchmarkScene.SECTOR_X, BenchmarkScene.SECTOR_Z);
+        return world.getLandscapeModel(0).numFaces;
+    }
+
+}
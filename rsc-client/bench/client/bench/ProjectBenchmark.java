@@ -0,0 +1,57 @@
+package client.bench;
+
+import client.game.scene.Camera;
+import client.game.scene.Model;
+import client.game.scene.Scene;
+
+/**
+ * Benchmark of projecting every model in the scene.
+ *
+ * @author Dan Bryce
+ */
+public class ProjectBenchmark extends Benchmark {
+
+    /**
+     * These match the values used by the SoftwareRenderer.
+     */
+    private static final int VIEW_DISTANCE = 9;
+    private static final int CLIP_NEAR = 5;
+
+    private BenchmarkScene scene;
+    private int pose;
+
+    public ProjectBenchmark(BenchmarkScene scene, int pose) {
+        super("project[pose=" + pose + "]");
+        this.scene = scene;
+        this.pose = pose;
+    }
+
+    @Override
+    public void setup() {
+        // Rendering once prepares the camera for this pose
+        scene.setPose(pose);
+        scene.getRenderer().render(scene.getCanvas());
+    }
+
+    @Override
+    public int run() {
+        Scene s = scene.getScene();
+        Camera camera = s.getCamera();
+        scene.touchCamera();
+        int numVisible = 0;
+        for (int i = 0; i < s.getNumModels(); i++) {
+            Model model = s.getModels()[i];
+            model.project(camera, VIEW_DISTANCE, CLIP_NEAR);
+            if (model.visible) {
+                numVisible++;
+            }
+        }
+        return numVisible;
+    }
+
+    @Override
+    public boolean isAllocationFree() {
+        return true;
+    }
+
+}
@@ -0,0 +1,57 @@
+package client.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import client.game.scene.Model;
+import client.game.world.World;
+
+/**
+ * Benchmark of relighting the walls and roofs of the loaded area.
+ *
+ * <p>The pieces held by the World are unlit, so lit copies are relit
+ * instead.
+ *
+ * @author Dan Bryce
+ */
+public class RelightBenchmark extends Benchmark {
+
+    private BenchmarkScene scene;
+    private List<Model> models = new ArrayList<>();
+
+    public RelightBenchmark(BenchmarkScene scene) {
+        super("relight");
+        this.scene = scene;
+    }
+
+    @Override
+    public void setup() {
+        World world = scene.getWorld();
+        for (int i = 0; i < World.NUM_PIECES; i++) {
+            addLitCopy(world.getWallModel(World.LAYER_GROUND, i));
+            addLitCopy(world.getRoofModel(World.LAYER_GROUND, i));
+        }
+    }
+
+    private void addLitCopy(Model model) {
+        if (model != null) {
+            models.add(model.copy(true, false, false, false));
+        }
+    }
+
+    @Override
+    public int run() {
+        int numFaces = 0;
+        for (Model model : models) {
+            model.relight();
+            numFaces += model.numFaces;
+        }
+        return numFaces;
+    }
+
+    @Override
+    public boolean isAllocationFree() {
+        return true;
+    }
+
+}
@@ -0,0 +1,58 @@
+package client.bench;
+
+import client.Canvas;
+import client.game.render.SoftwareRenderer;
+
+/**
+ * Benchmark of a whole frame rendered by the SoftwareRenderer.
+ *
+ * <p>Normally every frame is rendered as if the camera had moved. A still
+ * benchmark measures frames where nothing has moved, so the projection of
+ * the previous frame can be reused.
+ *
+ * @author Dan Bryce
+ */
+public class RenderBenchmark extends Benchmark {
+
+    private BenchmarkScene scene;
+    private int pose;
+    private boolean depthBuffered;
+    private boolean still;
+
+    public RenderBenchmark(BenchmarkScene scene, int pose, boolean depthBuffered) {
+        this(scene, pose, depthBuffered, false);
+    }
+
+    public RenderBenchmark(BenchmarkScene scene, int pose, boolean depthBuffered, boolean still) {
+        super("render." + (depthBuffered ? "depthBuffered" : "sorted")
+                + (still ? ".still" : "") + "[pose=" + pose + "]");
+        this.scene = scene;
+        this.pose = pose;
+        this.depthBuffered = depthBuffered;
+        this.still = still;
+    }
+
+    @Override
+    public void setup() {
+        scene.setPose(pose);
+        scene.getRenderer().setDepthBuffered(depthBuffered);
+    }
+
+    @Override
+    public int run() {
+        Canvas canvas = scene.getCanvas();
+        SoftwareRenderer renderer = scene.getRenderer();
+        if (!still) {
+            scene.touchCamera();
+        }
+        canvas.clear();
+        renderer.render(canvas);
+        return canvas.getPixels()[canvas.getPixels().length / 2];
+    }
+
+    @Override
+    public boolean isAllocationFree() {
+        return true;
+    }
+
+}
@@ -0,0 +1,133 @@
+package client.bench;
+
+import java.awt.image.BufferedImage;
+
+import client.Canvas;
+import client.res.Resources;
+import client.res.Texture;
+
+/**
+ * Benchmark of filling the screen using one of the Canvas scanline routines.
+ *
+ * @author Dan Bryce
+ */
+public class ScanlineBenchmark extends Benchmark {
+
+    public enum Routine {
+        GRADIENT,
+        LARGE_TEXTURE,
+        SMALL_TEXTURE
+    }
+
+    /**
+     * Perspective divisor used for textures; any constant value gives an
+     * affine mapping.
+     */
+    private static final int TEXTURE_W = 1 << 12;
+
+    /**
+     * Subdivision used for textures unless specified; this matches the
+     * renderer's default.
+     */
+    private static final int DEFAULT_SUBDIVISION_SHIFT = 4;
+
+    private Routine routine;
+    private int subdivisionShift;
+    private Canvas canvas;
+    private int gradient[] = new int[256];
+    private int texturePixels[];
+
+    public ScanlineBenchmark(Routine routine) {
+        super("scanline." + routine.name().toLowerCase());
+        this.routine = routine;
+        subdivisionShift = DEFAULT_SUBDIVISION_SHIFT;
+    }
+
+    /**
+     * Creates a benchmark of a texture routine with a non-default
+     * subdivision.
+     *
+     * @param routine
+     * @param subdivisionShift log2 of the number of pixels between
+     *            perspective divides.
+     */
+    public ScanlineBenchmark(Routine routine, int subdivisionShift) {
+        super("scanline." + routine.name().toLowerCase() + ".sub" + (1 << subdivisionShift));
+        this.routine = routine;
+        this.subdivisionShift = subdivisionShift;
+    }
+
+    @Override
+    public void setup() {
+        BenchmarkScene.loadResources();
+
+        canvas = new Canvas(new BufferedImage(
+                BenchmarkScene.WIDTH, BenchmarkScene.HEIGHT, BufferedImage.TYPE_INT_RGB));
+
+        for (int i = 0; i < gradient.length; i++) {
+            gradient[i] = i * 0x010101;
+        }
+
+        if (routine != Routine.GRADIENT) {
+            texturePixels = findTexture(routine == Routine.LARGE_TEXTURE).pixels;
+        }
+    }
+
+    /**
+     * Finds an opaque texture of the given size.
+     *
+     * @param large
+     * @return
+     */
+    private static Texture findTexture(boolean large) {
+        for (int i = 0; i < Resources.textures.length; i++) {
+            Resources.prepareTexture(i);
+            Texture tex = Resources.textures[i];
+            if (tex.isLarge() == large && !tex.hasTransparency()) {
+                return tex;
+            }
+        }
+        throw new IllegalStateException("No suitable texture found");
+    }
+
+    @Override
+    public int run() {
+        int width = canvas.getWidth();
+        int height = canvas.getHeight();
+
+        // Stretch the texture across each scanline
+        int textureSize = routine == Routine.LARGE_TEXTURE ? 128 : 64;
+        int texelStep = 16 * TEXTURE_W * textureSize / width;
+
+        for (int y = 0; y < height; y++) {
+            int pxOffset = y * width;
+            switch (routine) {
+            case GRADIENT:
+                canvas.renderScanline_Gradient(width, pxOffset, gradient, 0, 256 * 4);
+                break;
+            case LARGE_TEXTURE:
+                canvas.renderScanline_Texture(texturePixels,
+                        Canvas.LARGE_TEXTURE_SHIFT, 0, Canvas.TEXTURE_OPAQUE,
+                        0, y * TEXTURE_W * textureSize / height, TEXTURE_W,
+                        texelStep, 0, 0,
+                        width, pxOffset, 0, 0, subdivisionShift);
+                break;
+            case SMALL_TEXTURE:
+                canvas.renderScanline_Texture(texturePixels,
+                        Canvas.SMALL_TEXTURE_SHIFT, 0, Canvas.TEXTURE_OPAQUE,
+                        0, y * TEXTURE_W * textureSize / height, TEXTURE_W,
+                        texelStep, 0, 0,
+                        width, pxOffset, 0, 0, subdivisionShift);
+                break;
+            }
+        }
+
+        return canvas.getPixels()[canvas.getPixels().length / 2];
+    }
+
+    @Override
+    public boolean isAllocationFree() {
+        return true;
+    }
+
+}
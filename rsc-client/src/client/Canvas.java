@@ -2,6 +2,7 @@ package client;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
+import java.util.Arrays;
 
 import client.res.Resources;
 import client.res.Sprite;
@@ -17,6 +18,19 @@ public class Canvas {
 
     private static final int COLOUR_BLACK = 0;
 
+    /**
+     * Blend modes for textured scanlines.
+     */
+    public static final int TEXTURE_OPAQUE = 0;
+    public static final int TEXTURE_TRANSLUCENT = 1;
+    public static final int TEXTURE_TRANSPARENT = 2;
+
+    /**
+     * log2 of the width of large (128x128) and small (64x64) textures.
+     */
+    public static final int LARGE_TEXTURE_SHIFT = 7;
+    public static final int SMALL_TEXTURE_SHIFT = 6;
+
     private BufferedImage image;
 
     private int width;
@@ -25,6 +39,15 @@ public class Canvas {
 
     private int[] pixels;
 
+    /**
+     * Depth of each pixel, for depth-buffered rendering.
+     *
+     * <p>Values are proportional to 1/z, so larger values are nearer to the
+     * camera, and 0 is infinitely far away. This is only allocated once it is
+     * first needed.
+     */
+    private int[] depthBuffer;
+
     /**
      * Creates a Canvas that wraps a BufferedImage.
      *
@@ -40,12 +63,41 @@ public class Canvas {
         pixels = buffer.getData();
     }
 
+    /**
+     * Gets the index of the last pixel in the same row as the given pixel.
+     *
+     * <p>Translucent scanlines blend with the pixel to their right, but must
+     * not read past the end of the row, since the next row may belong to
+     * another raster band that is being drawn at the same time.
+     *
+     * @param pxIndex
+     * @return
+     */
+    private int getRowEnd(int pxIndex) {
+        return pxIndex - pxIndex % width + width - 1;
+    }
+
     public void clear() {
         for (int i = 0; i < pixels.length; i++) {
             pixels[i] = COLOUR_BLACK;
         }
     }
 
+    /**
+     * Resets the depth of every pixel to be infinitely far away.
+     */
+    public void clearDepth() {
+        if (depthBuffer == null) {
+            depthBuffer = new int[pixels.length];
+        } else {
+            Arrays.fill(depthBuffer, 0);
+        }
+    }
+
+    public int[] getDepthBuffer() {
+        return depthBuffer;
+    }
+
     public BufferedImage getImage() {
         return image;
     }
@@ -174,6 +226,44 @@ public class Canvas {
     }
 
     public void spriteClip(int x, int y, int width, int height, int id) {
+        spriteClip(x, y, width, height, id, 0, this.height);
+    }
+
+    /**
+     * Draws a scaled sprite, only touching rows within the given range.
+     *
+     * <p>This allows different horizontal strips of the Canvas to be drawn
+     * independently.
+     *
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     * @param id
+     * @param clipTop First row that may be drawn to.
+     * @param clipBottom Row after the last row that may be drawn to.
+     */
+    public void spriteClip(int x, int y, int width, int height, int id,
+            int clipTop, int clipBottom) {
+        spriteClip(x, y, width, height, id, clipTop, clipBottom, 0);
+    }
+
+    /**
+     * Draws a scaled sprite, only touching rows within the given range, and
+     * only touching pixels that are not nearer than the sprite.
+     *
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     * @param id
+     * @param clipTop First row that may be drawn to.
+     * @param clipBottom Row after the last row that may be drawn to.
+     * @param depth Depth of the sprite, as stored in the depth buffer, or 0 to
+     *          ignore the depth buffer.
+     */
+    public void spriteClip(int x, int y, int width, int height, int id,
+            int clipTop, int clipBottom, int depth) {
 
         Sprite sprite = Resources.getSprite(id);
         int j1 = sprite.getWidth();
@@ -223,8 +313,25 @@ public class Canvas {
             width -= j4;
             k3 += j4;
         }
+        if (y < clipTop) {
+            int rowsSkipped = clipTop - y;
+            height -= rowsSkipped;
+            y = clipTop;
+            i3 += rowsSkipped * this.width;
+            i2 += k2 * rowsSkipped;
+        }
+        if (y + height > clipBottom) {
+            height = clipBottom - y;
+        }
+        if (width <= 0 || height <= 0) {
+            return;
+        }
         byte byte0 = 1;
-        plotSale(sprite.getPixels(), 0, l1, i2, i3, k3, width, height, j2, k2, j1, byte0);
+        if (depth > 0) {
+            plotScaleDepthTested(sprite.getPixels(), l1, i2, i3, k3, width, height, j2, k2, j1, depth);
+        } else {
+            plotSale(sprite.getPixels(), 0, l1, i2, i3, k3, width, height, j2, k2, j1, byte0);
+        }
     }
 
     private void plotSale(int texturePixels[], int i, int j, int k, int l, int i1, int j1, int k1, int l1, int i2,
@@ -249,29 +356,67 @@ public class Canvas {
         }
     }
 
+    private void plotScaleDepthTested(int texturePixels[], int j, int k, int l, int i1, int j1, int k1, int l1,
+            int i2, int j2, int depth) {
+
+        int l2 = j;
+        for (int i3 = -k1; i3 < 0; i3++) {
+            int j3 = (k >> 16) * j2;
+            for (int k3 = -j1; k3 < 0; k3++) {
+                int i = texturePixels[(j >> 16) + j3];
+                if (i != 0 && depth >= depthBuffer[l]) {
+                    pixels[l] = i;
+                }
+                l++;
+                j += l1;
+            }
+
+            k += i2;
+            j = l2;
+            l += i1;
+        }
+    }
+
     /**
-     * Draws a textured scanline.
+     * Draws a perspective-correct textured scanline.
+     *
+     * <p>Texture co-ordinates are found with a perspective divide at the end
+     * of each subdivision of the scanline, and interpolated linearly in
+     * between. Shorter subdivisions look better but cost more divides.
+     *
+     * <p>Shading is applied in bands of 4 pixels, by switching between the
+     * darkened copies of the texture that follow the original in
+     * <code>texturePixels</code>.
      *
-     * Used for walls and roofs.
+     * <p>If a mip level is given, <code>texturePixels</code> should contain
+     * that level, but all other parameters are the same as for the full size
+     * texture.
+     *
+     * <p>Used for walls, roofs and textured models.
      *
      * @param texturePixels
-     * @param i
-     * @param j
+     * @param textureShift {@link #LARGE_TEXTURE_SHIFT} or
+     *            {@link #SMALL_TEXTURE_SHIFT}.
+     * @param mipLevel
+     * @param blend One of the TEXTURE_* blend modes.
      * @param paramA
      * @param paramB
      * @param paramC
-     * @param paramAModifier
-     * @param paramBModifier
-     * @param paramCModifier
+     * @param paramAModifier Change to paramA over 16 pixels.
+     * @param paramBModifier Change to paramB over 16 pixels.
+     * @param paramCModifier Change to paramC over 16 pixels.
      * @param length
-     * @param pxOffset
-     * @param paramD
-     * @param paramDModifier
+     * @param pxIndex
+     * @param shade
+     * @param shadeModifier Change to the shade per pixel.
+     * @param subdivisionShift log2 of the length of each subdivision; 4 for
+     *            16 pixels.
      */
-    public void renderScanline_LargeTexture(
+    public void renderScanline_Texture(
             int texturePixels[],
-            int i,
-            int j,
+            int textureShift,
+            int mipLevel,
+            int blend,
             int paramA,
             int paramB,
             int paramC,
@@ -279,943 +424,191 @@ public class Canvas {
             int paramBModifier,
             int paramCModifier,
             int length,
-            int pxOffset,
-            int paramD,
-            int paramDModifier) {
+            int pxIndex,
+            int shade,
+            int shadeModifier,
+            int subdivisionShift) {
 
         if (length <= 0) {
             return;
         }
 
-        int i3 = 0;
-        int j3 = 0;
-        int colorShift = 0;
+        // Texture layout
+        int textureSize = 1 << textureShift;
+        int maxU = (textureSize - 1) << textureShift;
+        int uMask = (textureSize << textureShift) - 1;
 
-        if (paramC != 0) {
-            i = paramA / paramC << 7;
-            j = paramB / paramC << 7;
-        }
+        // Co-ordinates are kept in terms of the full size texture, and only
+        // scaled down to fit the mip level when looking up a texel
+        int levelShift = textureShift - mipLevel;
+        int vMask = ((1 << levelShift) - 1) << levelShift;
+        int uLevelShift = textureShift + mipLevel;
+        int vLevelShift = mipLevel * 2;
+
+        int shadeShift = textureShift * 3 + 2;
+        int shadeMask = 3 << shadeShift - 2;
 
-        // Bounds checking
-        if (i < 0) {
-            i = 0;
-        } else if (i > 16256) {
-            i = 16256;
+        // Scale the modifiers to the length of a subdivision
+        int subdivision = 1 << subdivisionShift;
+        if (subdivisionShift > 4) {
+            paramAModifier <<= subdivisionShift - 4;
+            paramBModifier <<= subdivisionShift - 4;
+            paramCModifier <<= subdivisionShift - 4;
+        } else {
+            paramAModifier >>= 4 - subdivisionShift;
+            paramBModifier >>= 4 - subdivisionShift;
+            paramCModifier >>= 4 - subdivisionShift;
         }
+        shadeModifier <<= 2;
 
-        paramA += paramAModifier;
-        paramB += paramBModifier;
-        paramC += paramCModifier;
+        int rowEnd = getRowEnd(pxIndex);
 
+        int nextU = 0;
+        int nextV = 0;
         if (paramC != 0) {
-            i3 = paramA / paramC << 7;
-            j3 = paramB / paramC << 7;
+            nextU = paramA / paramC << textureShift;
+            nextV = paramB / paramC << textureShift;
         }
-
-        // Bounds checking
-        if (i3 < 0) {
-            i3 = 0;
-        } else if (i3 > 16256) {
-            i3 = 16256;
+        if (nextU < 0) {
+            nextU = 0;
+        } else if (nextU > maxU) {
+            nextU = maxU;
         }
 
-        int k3 = i3 - i >> 4;
-        int l3 = j3 - j >> 4;
-
-        // Draw 16 pixels with each loop iteration
-        for (int j4 = 0; j4 < length >> 4; j4++) {
-
-            // These next sections could be rolled up into 2 nested for-loops
-
-            i += paramD & 0x600000;
-            colorShift = paramD >> 23;
-            paramD += paramDModifier;
-            pixels[pxOffset++] = texturePixels[(j & 0x3f80) + (i >> 7)] >>> colorShift;
-            i += k3;
-            j += l3;
-            pixels[pxOffset++] = texturePixels[(j & 0x3f80) + (i >> 7)] >>> colorShift;
-            i += k3;
-            j += l3;
-            pixels[pxOffset++] = texturePixels[(j & 0x3f80) + (i >> 7)] >>> colorShift;
-            i += k3;
-            j += l3;
-            pixels[pxOffset++] = texturePixels[(j & 0x3f80) + (i >> 7)] >>> colorShift;
-
-            i += k3;
-            j += l3;
-            i = (i & 0x3fff) + (paramD & 0x600000);
-            colorShift = paramD >> 23;
-            paramD += paramDModifier;
-            pixels[pxOffset++] = texturePixels[(j & 0x3f80) + (i >> 7)] >>> colorShift;
-            i += k3;
-            j += l3;
-            pixels[pxOffset++] = texturePixels[(j & 0x3f80) + (i >> 7)] >>> colorShift;
-            i += k3;
-            j += l3;
-            pixels[pxOffset++] = texturePixels[(j & 0x3f80) + (i >> 7)] >>> colorShift;
-            i += k3;
-            j += l3;
-            pixels[pxOffset++] = texturePixels[(j & 0x3f80) + (i >> 7)] >>> colorShift;
-
-            i += k3;
-            j += l3;
-            i = (i & 0x3fff) + (paramD & 0x600000);
-            colorShift = paramD >> 23;
-            paramD += paramDModifier;
-            pixels[pxOffset++] = texturePixels[(j & 0x3f80) + (i >> 7)] >>> colorShift;
-            i += k3;
-            j += l3;
-            pixels[pxOffset++] = texturePixels[(j & 0x3f80) + (i >> 7)] >>> colorShift;
-            i += k3;
-            j += l3;
-            pixels[pxOffset++] = texturePixels[(j & 0x3f80) + (i >> 7)] >>> colorShift;
-            i += k3;
-            j += l3;
-            pixels[pxOffset++] = texturePixels[(j & 0x3f80) + (i >> 7)] >>> colorShift;
-
-            i += k3;
-            j += l3;
-            i = (i & 0x3fff) + (paramD & 0x600000);
-            colorShift = paramD >> 23;
-            paramD += paramDModifier;
-            pixels[pxOffset++] = texturePixels[(j & 0x3f80) + (i >> 7)] >>> colorShift;
-            i += k3;
-            j += l3;
-            pixels[pxOffset++] = texturePixels[(j & 0x3f80) + (i >> 7)] >>> colorShift;
-            i += k3;
-            j += l3;
-            pixels[pxOffset++] = texturePixels[(j & 0x3f80) + (i >> 7)] >>> colorShift;
-            i += k3;
-            j += l3;
-            pixels[pxOffset++] = texturePixels[(j & 0x3f80) + (i >> 7)] >>> colorShift;
-
-            i = i3;
-            j = j3;
+        for (int remaining = length; remaining > 0; remaining -= subdivision) {
+            int u = nextU;
+            int v = nextV;
             paramA += paramAModifier;
             paramB += paramBModifier;
             paramC += paramCModifier;
-
             if (paramC != 0) {
-                i3 = paramA / paramC << 7;
-                j3 = paramB / paramC << 7;
-            }
-
-            // Bounds checking
-            if (i3 < 0) {
-                i3 = 0;
-            } else if (i3 > 16256) {
-                i3 = 16256;
-            }
-
-            k3 = i3 - i >> 4;
-            l3 = j3 - j >> 4;
-        }
-
-        // Render the last part of the scanline
-        for (int k4 = 0; k4 < (length & 0xf); k4++) {
-            if ((k4 & 3) == 0) {
-                i = (i & 0x3fff) + (paramD & 0x600000);
-                colorShift = paramD >> 23;
-                paramD += paramDModifier;
-            }
-            pixels[pxOffset++] = texturePixels[(j & 0x3f80) + (i >> 7)] >>> colorShift;
-            i += k3;
-            j += l3;
-        }
-    }
-
-    public void renderScanline_LargeTranslucentTexture(
-            int texturePixels[],
-            int texOffset,
-            int texStart,
-            int k,
-            int l,
-            int i1,
-            int j1,
-            int k1,
-            int l1,
-            int length,
-            int pxIndex,
-            int k2,
-            int l2) {
-
-        if (length <= 0) {
-            return;
-        }
-
-        int i3 = 0;
-        int j3 = 0;
-        int colorShift = 0;
-
-        if (i1 != 0) {
-            texOffset = k / i1 << 7;
-            texStart = l / i1 << 7;
-        }
-
-        if (texOffset < 0) {
-            texOffset = 0;
-        } else if (texOffset > 16256) {
-            texOffset = 16256;
-        }
-
-        k += j1;
-        l += k1;
-        i1 += l1;
-
-        if (i1 != 0) {
-            i3 = k / i1 << 7;
-            j3 = l / i1 << 7;
-        }
-
-        if (i3 < 0) {
-            i3 = 0;
-        } else if (i3 > 16256) {
-            i3 = 16256;
-        }
-
-        int texOffsetStride = i3 - texOffset >> 4;
-        int texStartStride = j3 - texStart >> 4;
-
-        for (int j4 = length >> 4; j4 > 0; j4--) {
-
-            texOffset += k2 & 0x600000;
-            colorShift = k2 >> 23;
-            k2 += l2;
-            pixels[pxIndex++] = (texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            texOffset += texOffsetStride;
-            texStart += texStartStride;
-            pixels[pxIndex++] = (texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            texOffset += texOffsetStride;
-            texStart += texStartStride;
-            pixels[pxIndex++] = (texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            texOffset += texOffsetStride;
-            texStart += texStartStride;
-            pixels[pxIndex++] = (texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            texOffset += texOffsetStride;
-            texStart += texStartStride;
-
-            texOffset = (texOffset & 0x3fff) + (k2 & 0x600000);
-            colorShift = k2 >> 23;
-            k2 += l2;
-            pixels[pxIndex++] = (texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            texOffset += texOffsetStride;
-            texStart += texStartStride;
-            pixels[pxIndex++] = (texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            texOffset += texOffsetStride;
-            texStart += texStartStride;
-            pixels[pxIndex++] = (texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            texOffset += texOffsetStride;
-            texStart += texStartStride;
-            pixels[pxIndex++] = (texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            texOffset += texOffsetStride;
-            texStart += texStartStride;
-
-            texOffset = (texOffset & 0x3fff) + (k2 & 0x600000);
-            colorShift = k2 >> 23;
-            k2 += l2;
-            pixels[pxIndex++] = (texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            texOffset += texOffsetStride;
-            texStart += texStartStride;
-            pixels[pxIndex++] = (texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            texOffset += texOffsetStride;
-            texStart += texStartStride;
-            pixels[pxIndex++] = (texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            texOffset += texOffsetStride;
-            texStart += texStartStride;
-            pixels[pxIndex++] = (texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            texOffset += texOffsetStride;
-            texStart += texStartStride;
-
-            texOffset = (texOffset & 0x3fff) + (k2 & 0x600000);
-            colorShift = k2 >> 23;
-            k2 += l2;
-            pixels[pxIndex++] = (texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            texOffset += texOffsetStride;
-            texStart += texStartStride;
-            pixels[pxIndex++] = (texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            texOffset += texOffsetStride;
-            texStart += texStartStride;
-            pixels[pxIndex++] = (texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            texOffset += texOffsetStride;
-            texStart += texStartStride;
-            pixels[pxIndex++] = (texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            texOffset = i3;
-            texStart = j3;
-
-            k += j1;
-            l += k1;
-            i1 += l1;
-
-            if (i1 != 0) {
-                i3 = k / i1 << 7;
-                j3 = l / i1 << 7;
-            }
-
-            if (i3 < 0) {
-                i3 = 0;
-            } else if (i3 > 16256) {
-                i3 = 16256;
-            }
-
-            texOffsetStride = i3 - texOffset >> 4;
-            texStartStride = j3 - texStart >> 4;
-        }
-
-        // Render the last part of the scanline
-        for (int k4 = 0; k4 < (length & 0xf); k4++) {
-            if ((k4 & 3) == 0) {
-                texOffset = (texOffset & 0x3fff) + (k2 & 0x600000);
-                colorShift = k2 >> 23;
-                k2 += l2;
-            }
-            pixels[pxIndex++] = (texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            texOffset += texOffsetStride;
-            texStart += texStartStride;
-        }
-    }
-
-    public void renderScanline_LargeTextureWithTransparency(
-            int i,
-            int texOffset,
-            int texStart,
-            int texturePixels[],
-            int l,
-            int i1,
-            int j1,
-            int k1,
-            int l1,
-            int i2,
-            int length,
-            int pxIndex,
-            int l2,
-            int i3) {
-
-        if (length <= 0) {
-            return;
-        }
-
-        int j3 = 0;
-        int k3 = 0;
-        i3 <<= 2;
-
-        if (j1 != 0) {
-            j3 = l / j1 << 7;
-            k3 = i1 / j1 << 7;
-        }
-
-        if (j3 < 0) {
-            j3 = 0;
-        } else if (j3 > 16256) {
-            j3 = 16256;
-        }
-
-        for (int j4 = length; j4 > 0; j4 -= 16) {
-
-            l += k1;
-            i1 += l1;
-            j1 += i2;
-            texOffset = j3;
-            texStart = k3;
-
-            if (j1 != 0) {
-                j3 = l / j1 << 7;
-                k3 = i1 / j1 << 7;
+                nextU = paramA / paramC << textureShift;
+                nextV = paramB / paramC << textureShift;
             }
-
-            if (j3 < 0) {
-                j3 = 0;
-            } else if (j3 > 16256) {
-                j3 = 16256;
+            if (nextU < 0) {
+                nextU = 0;
+            } else if (nextU > maxU) {
+                nextU = maxU;
             }
-
-            int texOffsetStride = j3 - texOffset >> 4;
-            int texStartStride = k3 - texStart >> 4;
-            int colorShift = l2 >> 23;
-
-            texOffset += l2 & 0x600000;
-            l2 += i3;
-
-            if (j4 < 16) {
-
-                // Render fewer than 16 pixels
-
-                for (int l4 = 0; l4 < j4; l4++) {
-
-                    if ((i = texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) != 0) {
-                        pixels[pxIndex] = i;
+            int uStride = nextU - u >> subdivisionShift;
+            int vStride = nextV - v >> subdivisionShift;
+
+            int spanEnd = pxIndex + Math.min(remaining, subdivision);
+            int colourShift = 0;
+
+            // Shading is applied in bands of 4 pixels
+            switch (blend) {
+            case TEXTURE_OPAQUE:
+                for (int i = 0; pxIndex < spanEnd; i++) {
+                    if ((i & 3) == 0) {
+                        u = (u & uMask) + ((shade & shadeMask) >> mipLevel);
+                        colourShift = shade >> shadeShift;
+                        shade += shadeModifier;
                     }
-
+                    pixels[pxIndex++] = texturePixels[(v >> vLevelShift & vMask) + (u >> uLevelShift)] >>> colourShift;
+                    u += uStride;
+                    v += vStride;
+                }
+                break;
+            case TEXTURE_TRANSLUCENT:
+                for (int i = 0; pxIndex < spanEnd; i++) {
+                    if ((i & 3) == 0) {
+                        u = (u & uMask) + ((shade & shadeMask) >> mipLevel);
+                        colourShift = shade >> shadeShift;
+                        shade += shadeModifier;
+                    }
+                    // This blends with the pixel to the right, as it always has
+                    pixels[pxIndex] = (texturePixels[(v >> vLevelShift & vMask) + (u >> uLevelShift)] >>> colourShift)
+                            + (pixels[Math.min(pxIndex + 1, rowEnd)] >> 1 & 0x7f7f7f);
                     pxIndex++;
-                    texOffset += texOffsetStride;
-                    texStart += texStartStride;
-
-                    if ((l4 & 3) == 3) {
-                        texOffset = (texOffset & 0x3fff) + (l2 & 0x600000);
-                        colorShift = l2 >> 23;
-                        l2 += i3;
+                    u += uStride;
+                    v += vStride;
+                }
+                break;
+            default:
+                for (int i = 0; pxIndex < spanEnd; i++) {
+                    if ((i & 3) == 0) {
+                        u = (u & uMask) + ((shade & shadeMask) >> mipLevel);
+                        colourShift = shade >> shadeShift;
+                        shade += shadeModifier;
                     }
+                    int colour = texturePixels[(v >> vLevelShift & vMask) + (u >> uLevelShift)] >>> colourShift;
+                    if (colour != 0) {
+                        pixels[pxIndex] = colour;
+                    }
+                    pxIndex++;
+                    u += uStride;
+                    v += vStride;
                 }
-
-            } else {
-
-                // Render 16 pixels
-
-                if ((i = texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-
-                if ((i = texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-
-                if ((i = texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-
-                if ((i = texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-
-                texOffset = (texOffset & 0x3fff) + (l2 & 0x600000);
-                colorShift = l2 >> 23;
-                l2 += i3;
-
-                if ((i = texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-
-                if ((i = texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-
-                if ((i = texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-
-                if ((i = texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-
-                texOffset = (texOffset & 0x3fff) + (l2 & 0x600000);
-                colorShift = l2 >> 23;
-                l2 += i3;
-
-                if ((i = texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-
-                if ((i = texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-
-                if ((i = texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-
-                if ((i = texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-
-                texOffset = (texOffset & 0x3fff) + (l2 & 0x600000);
-                colorShift = l2 >> 23;
-                l2 += i3;
-
-                if ((i = texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-
-                if ((i = texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-
-                if ((i = texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-
-                if ((i = texturePixels[(texStart & 0x3f80) + (texOffset >> 7)] >>> colorShift) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
+                break;
             }
         }
     }
 
     /*
-     * Used for wooden floors!
+     * No idea what this is used for.
      */
-    public void renderScanline_SmallTexture(
-            int texturePixels[],
-            int texOffset,
-            int texStart,
-            int k,
-            int l,
-            int i1,
-            int j1,
-            int k1,
-            int l1,
-            int length,
-            int pxIndex,
-            int k2,
-            int l2) {
+    public void renderScanline_TranslucentGradient(int length, int pxIndex, int gradient[], int gradientIndex, int stride) {
 
-        if (length <= 0) {
+        if (length < 0) {
             return;
         }
 
-        int i3 = 0;
-        int j3 = 0;
-        l2 <<= 2;
-        if (i1 != 0) {
-            i3 = k / i1 << 6;
-            j3 = l / i1 << 6;
-        }
-        if (i3 < 0) {
-            i3 = 0;
-        } else if (i3 > 4032) {
-            i3 = 4032;
-        }
-        for (int i4 = length; i4 > 0; i4 -= 16) {
-            k += j1;
-            l += k1;
-            i1 += l1;
-            texOffset = i3;
-            texStart = j3;
-            if (i1 != 0) {
-                i3 = k / i1 << 6;
-                j3 = l / i1 << 6;
-            }
-            if (i3 < 0) {
-                i3 = 0;
-            } else if (i3 > 4032) {
-                i3 = 4032;
-            }
-            int texOffsetStride = i3 - texOffset >> 4;
-            int texStartStride = j3 - texStart >> 4;
-            int colorShift = k2 >> 20;
-            texOffset += k2 & 0xc0000;
-            k2 += l2;
-            if (i4 < 16) {
-                for (int k4 = 0; k4 < i4; k4++) {
-                    pixels[pxIndex++] = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift;
-                    texOffset += texOffsetStride;
-                    texStart += texStartStride;
-                    if ((k4 & 3) == 3) {
-                        texOffset = (texOffset & 0xfff) + (k2 & 0xc0000);
-                        colorShift = k2 >> 20;
-                        k2 += l2;
-                    }
-                }
-
-            } else {
-                pixels[pxIndex++] = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                texOffset = (texOffset & 0xfff) + (k2 & 0xc0000);
-                colorShift = k2 >> 20;
-                k2 += l2;
-                pixels[pxIndex++] = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                texOffset = (texOffset & 0xfff) + (k2 & 0xc0000);
-                colorShift = k2 >> 20;
-                k2 += l2;
-                pixels[pxIndex++] = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                texOffset = (texOffset & 0xfff) + (k2 & 0xc0000);
-                colorShift = k2 >> 20;
-                k2 += l2;
-                pixels[pxIndex++] = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift;
-            }
-        }
-
-    }
-
-    public void renderScanline_SmallTranslucentTexture(
-            int texturePixels[],
-            int texOffset,
-            int texStart,
-            int k,
-            int l,
-            int i1,
-            int j1,
-            int k1,
-            int l1,
-            int length,
-            int pxIndex,
-            int k2,
-            int l2) {
+        int color = 0;
+        int rowEnd = getRowEnd(pxIndex);
 
-        if (length <= 0) {
-            return;
-        }
+        for (int i = 0; i < length; i++) {
 
-        int i3 = 0;
-        int j3 = 0;
-        l2 <<= 2;
-        if (i1 != 0) {
-            i3 = k / i1 << 6;
-            j3 = l / i1 << 6;
-        }
-        if (i3 < 0) {
-            i3 = 0;
-        } else if (i3 > 4032) {
-            i3 = 4032;
-        }
-        for (int i4 = length; i4 > 0; i4 -= 16) {
-            k += j1;
-            l += k1;
-            i1 += l1;
-            texOffset = i3;
-            texStart = j3;
-            if (i1 != 0) {
-                i3 = k / i1 << 6;
-                j3 = l / i1 << 6;
-            }
-            if (i3 < 0) {
-                i3 = 0;
-            } else if (i3 > 4032) {
-                i3 = 4032;
+            // Colour changes every 4 pixels
+            if (i % 4 == 0) {
+                color = gradient[gradientIndex >> 8 & 0xff];
+                gradientIndex += stride;
             }
-            int texOffsetStride = i3 - texOffset >> 4;
-            int texStartStride = j3 - texStart >> 4;
-            int colorShift = k2 >> 20;
-            texOffset += k2 & 0xc0000;
-            k2 += l2;
-            if (i4 < 16) {
-                for (int k4 = 0; k4 < i4; k4++) {
-                    pixels[pxIndex++] = (texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-                    texOffset += texOffsetStride;
-                    texStart += texStartStride;
-                    if ((k4 & 3) == 3) {
-                        texOffset = (texOffset & 0xfff) + (k2 & 0xc0000);
-                        colorShift = k2 >> 20;
-                        k2 += l2;
-                    }
-                }
 
-            } else {
-                pixels[pxIndex++] = (texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = (texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = (texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = (texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                texOffset = (texOffset & 0xfff) + (k2 & 0xc0000);
-                colorShift = k2 >> 20;
-                k2 += l2;
-                pixels[pxIndex++] = (texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = (texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = (texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = (texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                texOffset = (texOffset & 0xfff) + (k2 & 0xc0000);
-                colorShift = k2 >> 20;
-                k2 += l2;
-                pixels[pxIndex++] = (texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = (texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = (texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = (texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                texOffset = (texOffset & 0xfff) + (k2 & 0xc0000);
-                colorShift = k2 >> 20;
-                k2 += l2;
-                pixels[pxIndex++] = (texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = (texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = (texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                pixels[pxIndex++] = (texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> colorShift) + (pixels[pxIndex] >> 1 & 0x7f7f7f);
-            }
+            // This blends with the pixel to the right, as it always has
+            pixels[pxIndex] = color + (pixels[Math.min(pxIndex + 1, rowEnd)] >> 1 & 0x7f7f7f);
+            pxIndex++;
         }
-
     }
 
-    public void renderScanline_SmallTextureWithTransparency(
-            int texturePixels[],
-            int l,
-            int i1,
-            int j1,
-            int k1,
-            int l1,
-            int i2,
-            int length,
-            int pxIndex,
-            int l2,
-            int i3) {
+    /*
+     * Used for terrain!
+     */
+    public void renderScanline_Gradient(int length, int pxIndex, int gradient[], int gradientIndex, int stride) {
 
-        if (length <= 0) {
+        if (length < 0) {
             return;
         }
 
-        int i = 0;
-        int texOffset = 0;
-        int texStart = 0;
-        int j3 = 0;
-        int k3 = 0;
-        i3 <<= 2;
-        if (j1 != 0) {
-            j3 = l / j1 << 6;
-            k3 = i1 / j1 << 6;
-        }
-        if (j3 < 0) {
-            j3 = 0;
-        } else if (j3 > 4032) {
-            j3 = 4032;
-        }
-        for (int j4 = length; j4 > 0; j4 -= 16) {
-            l += k1;
-            i1 += l1;
-            j1 += i2;
-            texOffset = j3;
-            texStart = k3;
-            if (j1 != 0) {
-                j3 = l / j1 << 6;
-                k3 = i1 / j1 << 6;
-            }
-            if (j3 < 0) {
-                j3 = 0;
-            } else if (j3 > 4032) {
-                j3 = 4032;
-            }
-            int texOffsetStride = j3 - texOffset >> 4;
-            int texStartStride = k3 - texStart >> 4;
-            int k4 = l2 >> 20;
-            texOffset += l2 & 0xc0000;
-            l2 += i3;
-            if (j4 < 16) {
-                for (int l4 = 0; l4 < j4; l4++) {
-                    if ((i = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> k4) != 0) {
-                        pixels[pxIndex] = i;
-                    }
-                    pxIndex++;
-                    texOffset += texOffsetStride;
-                    texStart += texStartStride;
-                    if ((l4 & 3) == 3) {
-                        texOffset = (texOffset & 0xfff) + (l2 & 0xc0000);
-                        k4 = l2 >> 20;
-                        l2 += i3;
-                    }
-                }
+        int color = 0;
 
-            } else {
-                if ((i = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> k4) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                if ((i = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> k4) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                if ((i = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> k4) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                if ((i = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> k4) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                texOffset = (texOffset & 0xfff) + (l2 & 0xc0000);
-                k4 = l2 >> 20;
-                l2 += i3;
-                if ((i = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> k4) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                if ((i = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> k4) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                if ((i = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> k4) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                if ((i = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> k4) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                texOffset = (texOffset & 0xfff) + (l2 & 0xc0000);
-                k4 = l2 >> 20;
-                l2 += i3;
-                if ((i = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> k4) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                if ((i = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> k4) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                if ((i = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> k4) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                if ((i = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> k4) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                texOffset = (texOffset & 0xfff) + (l2 & 0xc0000);
-                k4 = l2 >> 20;
-                l2 += i3;
-                if ((i = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> k4) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                if ((i = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> k4) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                if ((i = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> k4) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
-                texOffset += texOffsetStride;
-                texStart += texStartStride;
-                if ((i = texturePixels[(texStart & 0xfc0) + (texOffset >> 6)] >>> k4) != 0) {
-                    pixels[pxIndex] = i;
-                }
-                pxIndex++;
+        for (int i = 0; i < length; i++) {
+
+            // Colour changes every 4 pixels
+            if (i % 4 == 0) {
+                color = gradient[gradientIndex >> 8 & 0xff];
+                gradientIndex += stride;
             }
-        }
 
+            pixels[pxIndex++] = color;
+        }
     }
 
-    /*
-     * No idea what this is used for.
+    /**
+     * Equivalent to {@link #renderScanline_Gradient}, but only draws pixels
+     * that are not hidden by nearer pixels, and records the depth of each
+     * pixel drawn.
+     *
+     * @param length
+     * @param pxIndex
+     * @param gradient
+     * @param gradientIndex
+     * @param stride
+     * @param depth Depth of the first pixel.
+     * @param depthStride Change in depth from one pixel to the next.
      */
-    public void renderScanline_TranslucentGradient(int length, int pxIndex, int gradient[], int gradientIndex, int stride) {
+    public void renderScanline_DepthTestedGradient(int length, int pxIndex, int gradient[], int gradientIndex,
+            int stride, int depth, int depthStride) {
 
         if (length < 0) {
             return;
@@ -1231,20 +624,39 @@ public class Canvas {
                 gradientIndex += stride;
             }
 
-            pixels[pxIndex++] = color + (pixels[pxIndex] >> 1 & 0x7f7f7f);
+            if (depth >= depthBuffer[pxIndex]) {
+                pixels[pxIndex] = color;
+                depthBuffer[pxIndex] = depth;
+            }
+            pxIndex++;
+            depth += depthStride;
         }
     }
 
-    /*
-     * Used for terrain!
+    /**
+     * Equivalent to {@link #renderScanline_TranslucentGradient}, but only
+     * draws pixels that are not hidden by nearer pixels.
+     *
+     * <p>Translucent pixels never hide anything, so the depth buffer is not
+     * modified.
+     *
+     * @param length
+     * @param pxIndex
+     * @param gradient
+     * @param gradientIndex
+     * @param stride
+     * @param depth Depth of the first pixel.
+     * @param depthStride Change in depth from one pixel to the next.
      */
-    public void renderScanline_Gradient(int length, int pxIndex, int gradient[], int gradientIndex, int stride) {
+    public void renderScanline_DepthTestedTranslucentGradient(int length, int pxIndex, int gradient[],
+            int gradientIndex, int stride, int depth, int depthStride) {
 
         if (length < 0) {
             return;
         }
 
         int color = 0;
+        int rowEnd = getRowEnd(pxIndex);
 
         for (int i = 0; i < length; i++) {
 
@@ -1254,7 +666,77 @@ public class Canvas {
                 gradientIndex += stride;
             }
 
-            pixels[pxIndex++] = color;
+            if (depth >= depthBuffer[pxIndex]) {
+                // Blend with the pixel to the right, like the painter's path
+                pixels[pxIndex] = color + (pixels[Math.min(pxIndex + 1, rowEnd)] >> 1 & 0x7f7f7f);
+            }
+            pxIndex++;
+            depth += depthStride;
+        }
+    }
+
+    /**
+     * Prepares to draw a scanline using one of the regular scanline routines,
+     * such that it can later be depth-tested by
+     * {@link #endDepthTestedScanline}.
+     *
+     * <p>The existing contents of the scanline are saved, so that any pixels
+     * that turn out to be hidden can be restored afterwards.
+     *
+     * @param length
+     * @param pxIndex
+     * @param depth Depth of the first pixel.
+     * @param depthStride Change in depth from one pixel to the next.
+     * @param savedPixels Buffer to hold the existing contents of the scanline.
+     * @return False if the whole scanline is hidden, in which case it should
+     *          not be drawn at all.
+     */
+    public boolean beginDepthTestedScanline(int length, int pxIndex, int depth, int depthStride,
+            int savedPixels[]) {
+
+        if (length <= 0) {
+            return false;
+        }
+
+        // Skip the scanline entirely if nothing would be visible
+        int i = 0;
+        for (; i < length; i++) {
+            if (depth >= depthBuffer[pxIndex + i]) {
+                break;
+            }
+            depth += depthStride;
+        }
+        if (i == length) {
+            return false;
+        }
+
+        System.arraycopy(pixels, pxIndex, savedPixels, 0, length);
+        return true;
+    }
+
+    /**
+     * Finishes drawing a depth-tested scanline, restoring any pixels that are
+     * hidden by nearer pixels.
+     *
+     * @param length
+     * @param pxIndex
+     * @param depth Depth of the first pixel.
+     * @param depthStride Change in depth from one pixel to the next.
+     * @param savedPixels Buffer passed to {@link #beginDepthTestedScanline}.
+     * @param writeDepth Whether to record the depth of the pixels drawn;
+     *          this should only be used for opaque scanlines.
+     */
+    public void endDepthTestedScanline(int length, int pxIndex, int depth, int depthStride,
+            int savedPixels[], boolean writeDepth) {
+
+        for (int i = 0; i < length; i++) {
+            if (depth < depthBuffer[pxIndex]) {
+                pixels[pxIndex] = savedPixels[i];
+            } else if (writeDepth) {
+                depthBuffer[pxIndex] = depth;
+            }
+            pxIndex++;
+            depth += depthStride;
         }
     }
 
@@ -1283,4 +765,61 @@ public class Canvas {
         }
     }
 
+    /**
+     * Draws a smaller Canvas over the whole of this one, scaled up to fit.
+     *
+     * <p>Each source pixel becomes a square block of pixels.
+     *
+     * @param source
+     * @param scaleShift Number of times the source is doubled in size.
+     */
+    public void drawUpscaled(Canvas source, int scaleShift) {
+
+        int scale = 1 << scaleShift;
+        int[] sourcePixels = source.pixels;
+        int rows = Math.min(height, source.height << scaleShift);
+        int cols = Math.min(width, source.width << scaleShift);
+
+        for (int y = 0; y < rows; y += scale) {
+
+            // Stretch one row of the source
+            int srcIndex = (y >> scaleShift) * source.width;
+            int rowStart = y * width;
+            for (int x = 0; x < cols; x++) {
+                pixels[rowStart + x] = sourcePixels[srcIndex + (x >> scaleShift)];
+            }
+
+            // Repeat it for the remaining rows of the block
+            for (int i = 1; i < scale && y + i < rows; i++) {
+                System.arraycopy(pixels, rowStart, pixels, rowStart + i * width, cols);
+            }
+        }
+    }
+
+    /**
+     * Halves the brightness of every pixel within a rectangle.
+     *
+     * <p>This is useful as a background for text drawn over the game world.
+     *
+     * @param x
+     * @param y
+     * @param w
+     * @param h
+     */
+    public void darkenRect(int x, int y, int w, int h) {
+
+        int startX = Math.max(x, 0);
+        int startY = Math.max(y, 0);
+        int endX = Math.min(x + w, width);
+        int endY = Math.min(y + h, height);
+
+        for (int py = startY; py < endY; py++) {
+            int pxIndex = startX + py * width;
+            for (int px = startX; px < endX; px++) {
+                pixels[pxIndex] = pixels[pxIndex] >> 1 & 0x7f7f7f;
+                pxIndex++;
+            }
+        }
+    }
+
 }
@@ -0,0 +1,140 @@
+package client;
+
+import java.awt.Graphics;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+
+/**
+ * Class responsible for copying finished frames to the screen.
+ *
+ * <p>Frames are presented on a separate thread, so that the next frame can be
+ * rendered in the meantime. Only one frame may be in flight at a time: a new
+ * frame is not accepted until the previous one has been fully presented. This
+ * means that with two Canvases, the Canvas being rendered to is never the one
+ * being read.
+ *
+ * @author Dan Bryce
+ */
+public class FramePresenter implements Runnable {
+
+    /**
+     * Number of buffers used by the BufferStrategy.
+     */
+    private static final int NUM_BUFFERS = 2;
+
+    private java.awt.Canvas display;
+    private BufferStrategy bufferStrategy;
+    private Thread thread;
+
+    /**
+     * Frame waiting to be presented, or currently being presented.
+     */
+    private Canvas frame;
+
+    private boolean running;
+
+    public FramePresenter(java.awt.Canvas display) {
+        this.display = display;
+    }
+
+    /**
+     * Starts the presentation thread.
+     *
+     * <p>The display must already be visible at this point.
+     */
+    public void start() {
+        display.createBufferStrategy(NUM_BUFFERS);
+        bufferStrategy = display.getBufferStrategy();
+
+        running = true;
+        thread = new Thread(this, "FramePresenter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the presentation thread, once any outstanding frame has been
+     * presented.
+     */
+    public synchronized void stop() {
+        running = false;
+        notifyAll();
+    }
+
+    /**
+     * Queues a Canvas to be presented.
+     *
+     * <p>This blocks until the previous frame has been presented, after which
+     * that frame's Canvas is safe to render to again.
+     *
+     * @param canvas
+     */
+    public synchronized void present(Canvas canvas) {
+        waitForPresentation();
+        frame = canvas;
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+
+            Canvas canvas;
+            synchronized (this) {
+                while (running && frame == null) {
+                    waitUninterruptibly();
+                }
+                if (frame == null) {
+                    return;
+                }
+                canvas = frame;
+            }
+
+            draw(canvas);
+
+            synchronized (this) {
+                frame = null;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Draws a Canvas to the display.
+     *
+     * <p>The contents of the BufferStrategy can be lost at any time (for
+     * example, if the display mode changes), in which case the frame is
+     * simply drawn again.
+     *
+     * @param canvas
+     */
+    private void draw(Canvas canvas) {
+        do {
+            do {
+                Graphics g = bufferStrategy.getDrawGraphics();
+                g.drawImage(canvas.getImage(), 0, 0, null);
+                g.dispose();
+            } while (bufferStrategy.contentsRestored());
+
+            bufferStrategy.show();
+        } while (bufferStrategy.contentsLost());
+
+        // Some platforms buffer graphics operations
+        Toolkit.getDefaultToolkit().sync();
+    }
+
+    private void waitForPresentation() {
+        while (frame != null && thread.isAlive()) {
+            waitUninterruptibly();
+        }
+    }
+
+    private void waitUninterruptibly() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
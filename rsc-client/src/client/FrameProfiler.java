@@ -0,0 +1,226 @@
+package client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Class responsible for measuring how long each stage of a frame takes.
+ *
+ * <p>Timings for the most recent frames are kept in a ring buffer, along with
+ * a histogram of each stage, so that percentiles can be found cheaply every
+ * frame.
+ *
+ * <p>Frames are expected to be timed from a single thread, but timings may be
+ * written out from any thread.
+ *
+ * @author Dan Bryce
+ */
+public class FrameProfiler {
+
+    /**
+     * The stages that make up a frame.
+     */
+    public enum Stage {
+        INPUT,
+        TICK,
+        SCENE,
+        PROJECTION,
+        CULLING,
+        SORTING,
+        RASTERIZATION,
+        UI,
+        PRESENT,
+
+        /**
+         * Total time spent on the frame, excluding any time spent sleeping.
+         */
+        FRAME
+    }
+
+    private static final int NUM_STAGES = Stage.values().length;
+
+    /**
+     * Number of frames for which timings are kept.
+     */
+    private static final int HISTORY_SIZE = 256;
+
+    /**
+     * Width of each histogram bucket, in nanoseconds.
+     */
+    private static final long BUCKET_WIDTH = 100000;
+
+    /**
+     * Number of histogram buckets; the last bucket also holds anything
+     * slower.
+     */
+    private static final int NUM_BUCKETS = 1000;
+
+    /**
+     * Time taken by each stage, in nanoseconds, for each recent frame.
+     */
+    private long samples[][] = new long[NUM_STAGES][HISTORY_SIZE];
+
+    /**
+     * Number of recent frames that fall into each bucket, for each stage.
+     */
+    private int histograms[][] = new int[NUM_STAGES][NUM_BUCKETS];
+
+    /**
+     * Time at which each recent frame started.
+     */
+    private long frameStartTimes[] = new long[HISTORY_SIZE];
+
+    /**
+     * Position in the ring buffer of the current frame.
+     */
+    private int position;
+
+    /**
+     * Number of frames completed so far.
+     */
+    private long numFrames;
+
+    /**
+     * Starts timing a new frame.
+     */
+    public synchronized void beginFrame() {
+        position = (int) (numFrames % HISTORY_SIZE);
+
+        // Forget the frame we are about to overwrite
+        for (int stage = 0; stage < NUM_STAGES; stage++) {
+            if (numFrames >= HISTORY_SIZE) {
+                histograms[stage][getBucket(samples[stage][position])]--;
+            }
+            samples[stage][position] = 0;
+        }
+
+        frameStartTimes[position] = System.nanoTime();
+    }
+
+    /**
+     * Records time spent on a stage of the current frame.
+     *
+     * <p>If a stage is recorded more than once in a frame, the times are
+     * added together.
+     *
+     * @param stage
+     * @param nanos
+     */
+    public void record(Stage stage, long nanos) {
+        samples[stage.ordinal()][position] += nanos;
+    }
+
+    /**
+     * Records time spent on a stage of the current frame, up until now.
+     *
+     * @param stage
+     * @param startTime Value of {@link System#nanoTime} when the stage began.
+     */
+    public void recordSince(Stage stage, long startTime) {
+        record(stage, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Finishes timing the current frame.
+     */
+    public synchronized void endFrame() {
+        recordSince(Stage.FRAME, frameStartTimes[position]);
+
+        for (int stage = 0; stage < NUM_STAGES; stage++) {
+            histograms[stage][getBucket(samples[stage][position])]++;
+        }
+
+        numFrames++;
+    }
+
+    private static int getBucket(long nanos) {
+        return (int) Math.min(nanos / BUCKET_WIDTH, NUM_BUCKETS - 1);
+    }
+
+    /**
+     * Gets the number of recent frames for which timings are available.
+     *
+     * @return
+     */
+    public int getNumSamples() {
+        return (int) Math.min(numFrames, HISTORY_SIZE);
+    }
+
+    /**
+     * Gets the time taken by a stage in a given percentage of recent frames.
+     *
+     * <p>This is only as accurate as the width of a histogram bucket.
+     *
+     * @param stage
+     * @param percentile
+     * @return Time, in nanoseconds.
+     */
+    public long getPercentile(Stage stage, int percentile) {
+        int numSamples = getNumSamples();
+        if (numSamples == 0) {
+            return 0;
+        }
+
+        int[] histogram = histograms[stage.ordinal()];
+        int target = (numSamples * percentile + 99) / 100;
+        int count = 0;
+        for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+            count += histogram[bucket];
+            if (count >= target) {
+                return (bucket + 1) * BUCKET_WIDTH;
+            }
+        }
+        return NUM_BUCKETS * BUCKET_WIDTH;
+    }
+
+    /**
+     * Gets the number of frames per second, based on recent frames.
+     *
+     * @return
+     */
+    public double getFps() {
+        int numSamples = getNumSamples();
+        if (numSamples < 2) {
+            return 0;
+        }
+
+        int newest = (int) ((numFrames - 1) % HISTORY_SIZE);
+        int oldest = (int) ((numFrames - numSamples) % HISTORY_SIZE);
+        long elapsed = frameStartTimes[newest] - frameStartTimes[oldest];
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return (numSamples - 1) * 1000000000.0 / elapsed;
+    }
+
+    /**
+     * Writes the timings of all recent frames to a CSV file, oldest first.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public synchronized void writeCsv(File file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(file)) {
+
+            StringBuilder header = new StringBuilder("frame");
+            for (Stage stage : Stage.values()) {
+                header.append(',').append(stage.name().toLowerCase()).append("_ms");
+            }
+            writer.println(header);
+
+            int numSamples = getNumSamples();
+            for (long frame = numFrames - numSamples; frame < numFrames; frame++) {
+                int i = (int) (frame % HISTORY_SIZE);
+                StringBuilder line = new StringBuilder(Long.toString(frame));
+                for (int stage = 0; stage < NUM_STAGES; stage++) {
+                    line.append(',').append(String.format(Locale.ROOT, "%.3f",
+                            samples[stage][i] / 1000000.0));
+                }
+                writer.println(line);
+            }
+        }
+    }
+
+}
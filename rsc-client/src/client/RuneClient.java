@@ -7,12 +7,15 @@ import java.awt.Point;
 import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
 import javax.imageio.ImageIO;
 import javax.swing.JFrame;
-import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
 
+import client.FrameProfiler.Stage;
 import client.loading.LoadingScreen;
 
 /**
@@ -28,7 +31,24 @@ public class RuneClient {
     private static final int WINDOW_HEIGHT = 720;
     private static final String WINDOW_TITLE = "RSC Remastered";
 
-    private static final int MS_PER_FRAME = 16; // 60fps
+    private static final int TICKS_PER_SECOND = 60;
+    public static final long NANOS_PER_TICK = 1000000000L / TICKS_PER_SECOND;
+
+    /**
+     * Maximum number of ticks that can be run back-to-back to catch up after
+     * a stall. Any time beyond this is dropped, rather than trying to catch
+     * up forever.
+     */
+    private static final int MAX_CATCH_UP_TICKS = 5;
+
+    /**
+     * Maximum rate at which frames are rendered.
+     *
+     * <p>Frames beyond this would add little, since the game state only
+     * changes once per tick, but would keep the CPU busy.
+     */
+    private static final int MAX_FRAMES_PER_SECOND = 120;
+    private static final long NANOS_PER_FRAME = 1000000000L / MAX_FRAMES_PER_SECOND;
 
     /**
      * Flag used to tell the game to exit.
@@ -36,28 +56,50 @@ public class RuneClient {
      * The original RSC used an exit timer instead, to give the game time to
      * finish any outstanding operations before exiting.
      */
-    private boolean exiting;
+    private volatile boolean exiting;
+
+    /**
+     * Time spent on input and ticks since the last frame was rendered.
+     */
+    private AtomicLong inputTime = new AtomicLong();
+    private AtomicLong tickTime = new AtomicLong();
 
     private JFrame frame;
-    private JPanel gamePanel;
-    private Canvas canvas;
-    private BufferedImage screenBuffer;
+    private java.awt.Canvas display;
+    private FramePresenter presenter;
 
-    private State state;
+    /**
+     * Canvases that are rendered to in turn; one can be rendered to while the
+     * other is being presented.
+     */
+    private Canvas[] canvases = new Canvas[2];
+    private int canvasIndex;
+
+    private volatile State state;
+
+    private FrameProfiler profiler = new FrameProfiler();
 
     public RuneClient() {
         createFrame(WINDOW_WIDTH, WINDOW_HEIGHT, WINDOW_TITLE);
 
-        screenBuffer = new BufferedImage(
-                WINDOW_WIDTH, WINDOW_HEIGHT, BufferedImage.TYPE_INT_RGB);
-        canvas = new Canvas(screenBuffer);
+        for (int i = 0; i < canvases.length; i++) {
+            canvases[i] = new Canvas(new BufferedImage(
+                    WINDOW_WIDTH, WINDOW_HEIGHT, BufferedImage.TYPE_INT_RGB));
+        }
+
+        presenter = new FramePresenter(display);
+        presenter.start();
     }
 
     private void createFrame(int width, int height, String title) {
 
-        // Create the content pane
-        gamePanel = new JPanel();
-        gamePanel.setPreferredSize(new Dimension(width, height));
+        // Create the drawing surface. This must be a heavyweight component
+        // to support a BufferStrategy. It never takes focus, so that key
+        // events still reach the frame.
+        display = new java.awt.Canvas();
+        display.setPreferredSize(new Dimension(width, height));
+        display.setFocusable(false);
+        display.setIgnoreRepaint(true);
 
         // Create the frame itself
         frame = new JFrame(title);
@@ -67,7 +109,8 @@ public class RuneClient {
         Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
         frame.setUndecorated(width == screenSize.width &&
                 height == screenSize.height);
-        frame.setContentPane(gamePanel);
+        frame.setIgnoreRepaint(true);
+        frame.getContentPane().add(display);
         frame.pack();
 
         // Load the frame icon image.
@@ -104,32 +147,84 @@ public class RuneClient {
         }
     }
 
+    /**
+     * Runs the game until it exits.
+     *
+     * <p>Game logic runs on this thread at a fixed rate, regardless of how
+     * long frames take to render. Frames are rendered on a separate thread,
+     * up to {@link #MAX_FRAMES_PER_SECOND}, interpolating between the last
+     * two ticks. Each frame is rendered from a snapshot taken at the end of
+     * a tick, so the two threads only wait for each other when the state
+     * hands over a snapshot, or when a tick must change something that a
+     * frame is still using.
+     */
     public void run() {
+
+        Thread renderThread = new Thread(this::renderLoop, "Render");
+        renderThread.start();
+
+        long nextTickTime = System.nanoTime();
+
         while (!exiting) {
-            long before = System.currentTimeMillis();
 
-            pollInput();
-            tick();
-            render();
+            long now = System.nanoTime();
+            if (now - nextTickTime > NANOS_PER_TICK * MAX_CATCH_UP_TICKS) {
+                // Too far behind; give up on the lost time
+                nextTickTime = now - NANOS_PER_TICK * MAX_CATCH_UP_TICKS;
+            }
 
-            int elapsed = (int) (System.currentTimeMillis() - before);
-            int sleepTime = MS_PER_FRAME - elapsed;
+            // Run any ticks that are due
+            while (now - nextTickTime >= 0) {
+                long stageStart = System.nanoTime();
+                pollInput();
+                inputTime.addAndGet(System.nanoTime() - stageStart);
 
-            if (sleepTime < 1) {
-                sleepTime = 1;
+                stageStart = System.nanoTime();
+                tick();
+                tickTime.addAndGet(System.nanoTime() - stageStart);
+
+                // Hand the new state over to the render thread
+                state.getRenderer().snapshot(nextTickTime);
+                nextTickTime += NANOS_PER_TICK;
             }
 
-            try {
-                Thread.sleep(sleepTime);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+            // Wait for the next tick
+            LockSupport.parkNanos(nextTickTime - System.nanoTime());
+        }
+
+        try {
+            renderThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        presenter.stop();
+    }
+
+    private void renderLoop() {
+
+        long nextFrameTime = System.nanoTime();
+
+        while (!exiting) {
+            profiler.beginFrame();
+            profiler.record(Stage.INPUT, inputTime.getAndSet(0));
+            profiler.record(Stage.TICK, tickTime.getAndSet(0));
+            render();
+            profiler.endFrame();
+
+            // Wait for the next frame, unless we are already late for it
+            nextFrameTime += NANOS_PER_FRAME;
+            long now = System.nanoTime();
+            if (now - nextFrameTime > 0) {
+                nextFrameTime = now;
+            } else {
+                LockSupport.parkNanos(nextFrameTime - now);
             }
         }
     }
 
     private void pollInput() {
         Point mouseLoc = MouseInfo.getPointerInfo().getLocation();
-        SwingUtilities.convertPointFromScreen(mouseLoc, gamePanel);
+        SwingUtilities.convertPointFromScreen(mouseLoc, display);
         Input input = state.getInput();
         input.setMousePos(mouseLoc.x, mouseLoc.y);
 
@@ -145,14 +240,21 @@ public class RuneClient {
 
     private void render() {
 
+        Canvas canvas = canvases[canvasIndex];
+
         // Clear the Canvas
         canvas.clear();
 
         // Render the state onto our Canvas
-        state.getRenderer().render(canvas);
-
-        // Render this Canvas to the screen
-        gamePanel.getGraphics().drawImage(canvas.getImage(), 0, 0, null);
+        state.getRenderer().render(canvas, System.nanoTime());
+
+        // Hand this Canvas over to be drawn to the screen, and render the
+        // next frame to the other one. This waits for the previous frame to
+        // finish presenting, so that it can be safely reused.
+        long before = System.nanoTime();
+        presenter.present(canvas);
+        canvasIndex = (canvasIndex + 1) % canvases.length;
+        profiler.recordSince(Stage.PRESENT, before);
     }
 
     public void changeState(State newState) {
@@ -161,7 +263,7 @@ public class RuneClient {
 
             // Remove listeners from previous state
             Input input = state.getInput();
-            gamePanel.removeMouseListener(input);
+            display.removeMouseListener(input);
             frame.removeKeyListener(input);
 
             // Reset previous state
@@ -174,7 +276,7 @@ public class RuneClient {
 
         // Add listeners to new state
         Input input = state.getInput();
-        gamePanel.addMouseListener(input);
+        display.addMouseListener(input);
         frame.addKeyListener(input);
     }
 
@@ -182,6 +284,10 @@ public class RuneClient {
         return state;
     }
 
+    public FrameProfiler getProfiler() {
+        return profiler;
+    }
+
     public int getWidth() {
         return WINDOW_WIDTH;
     }
@@ -4,4 +4,28 @@ public abstract class StateRenderer {
 
     public abstract void render(Canvas canvas);
 
+    /**
+     * Copies whatever frames need from the state.
+     *
+     * <p>This is called on the game thread at the end of each tick. Frames
+     * are rendered on another thread while the next tick runs, so renderers
+     * that read state changed by ticks should copy it here.
+     *
+     * @param tickTime Scheduled time of the tick, from
+     *            {@link System#nanoTime}.
+     */
+    public void snapshot(long tickTime) {}
+
+    /**
+     * Renders a frame that may fall some way between the last two ticks.
+     *
+     * <p>Renderers that do not interpolate can ignore the time.
+     *
+     * @param canvas
+     * @param time Time of the frame, from {@link System#nanoTime}.
+     */
+    public void render(Canvas canvas, long time) {
+        render(canvas);
+    }
+
 }
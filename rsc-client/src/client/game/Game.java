@@ -1,6 +1,8 @@
 package client.game;
 
 import java.awt.event.KeyEvent;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -11,6 +13,7 @@ import client.State;
 import client.StateRenderer;
 import client.game.model.Mob;
 import client.game.model.Sector;
+import client.game.render.CameraPose;
 import client.game.render.GameRenderer;
 import client.game.render.MousePicker;
 import client.game.scene.Camera;
@@ -23,6 +26,7 @@ import client.game.ui.MapMenu;
 import client.game.ui.Menu;
 import client.game.ui.SettingsMenu;
 import client.game.ui.StatsMenu;
+import client.game.world.SectorStreamer;
 import client.game.world.World;
 import client.game.world.WorldLoader;
 import client.net.Connection;
@@ -43,12 +47,19 @@ public class Game extends State implements PacketContext {
     public static final int SPAWN_SECTOR_X = 50;
     public static final int SPAWN_SECTOR_Z = 51;
 
+    /**
+     * Player spawn position, in tiles, relative to the start of the World.
+     */
+    private static final int SPAWN_TILE_X = 114;
+    private static final int SPAWN_TILE_Z = 656;
+
     private ExecutorService executor;
     private Connection connection;
 
     private List<Menu> menus;
 
     private WorldLoader worldLoader;
+    private SectorStreamer sectorStreamer;
     private World world;
     private Scene scene;
     private Mob player;
@@ -64,6 +75,19 @@ public class Game extends State implements PacketContext {
     private int cameraPositionZ;
     private int cameraHeight = Camera.DEFAULT_HEIGHT;
 
+    /**
+     * Camera pose at the last two ticks, so that frames rendered in between
+     * can interpolate between them.
+     */
+    private CameraPose cameraPose = new CameraPose();
+    private CameraPose previousCameraPose = new CameraPose();
+
+    /**
+     * Flag set when the camera should jump straight to its next position,
+     * instead of being interpolated.
+     */
+    private boolean cameraSnapped = true;
+
     public Game(RuneClient client, Connection connection) {
         super(client);
 
@@ -86,6 +110,7 @@ public class Game extends State implements PacketContext {
     @Override
     public void start() {
         executor = Executors.newCachedThreadPool();
+        sectorStreamer = new SectorStreamer(worldLoader, executor);
         //executor.execute(connection.getPacketReaderThread());
     }
 
@@ -117,34 +142,64 @@ public class Game extends State implements PacketContext {
 
         // Change levels
         if (input.wasKeyReleased(KeyEvent.VK_PAGE_UP)) {
+            sectorStreamer.clear();
+            renderer.waitForFrame();
             worldLoader.ascend();
             loadSectors();
         } else if (input.wasKeyReleased(KeyEvent.VK_PAGE_DOWN)) {
+            sectorStreamer.clear();
+            renderer.waitForFrame();
             worldLoader.descend();
             loadSectors();
         }
+
+        // Performance overlay
+        if (input.wasKeyReleased(KeyEvent.VK_F3)) {
+            renderer.togglePerformanceHud();
+        } else if (input.wasKeyReleased(KeyEvent.VK_F4)) {
+            dumpFrameTimes();
+        }
+
+        // Dynamic resolution
+        if (input.wasKeyReleased(KeyEvent.VK_F5)) {
+            renderer.toggleDynamicResolution();
+        }
+    }
+
+    private void dumpFrameTimes() {
+        File file = new File("frame_times_" + System.currentTimeMillis() + ".csv");
+        try {
+            client.getProfiler().writeCsv(file);
+            System.out.println("Frame times written to " + file.getAbsolutePath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     private void handleMouse() {
 
         // Get mouse-picked models / faces from the rendered scene
         MousePicker mousePicker = renderer.getMousePicker();
-        int mousePickedCount = mousePicker.getMousePickedCount();
-        Model mousePickedModels[] = mousePicker.getMousePickedModels();
-        int mousePickedFaces[] = mousePicker.getMousePickedFaces();
 
         int selectedGroundFaceId = -1;
 
-        for (int i = 0; i < mousePickedCount; i++) {
-            int faceId = mousePickedFaces[i];
-            Model gameModel = mousePickedModels[i];
+        // The render thread replaces these at the end of each frame
+        synchronized (mousePicker) {
+            int mousePickedCount = mousePicker.getMousePickedCount();
+            Model mousePickedModels[] = mousePicker.getMousePickedModels();
+            int mousePickedFaces[] = mousePicker.getMousePickedFaces();
 
-            if (faceId >= 0) {
-                faceId = gameModel.faceTag[faceId] - 200000;
-            }
+            for (int i = 0; i < mousePickedCount; i++) {
+                int faceId = mousePickedFaces[i];
+                Model gameModel = mousePickedModels[i];
 
-            if (faceId >= 0) {
-                selectedGroundFaceId = faceId;
+                if (faceId >= 0) {
+                    faceId = gameModel.faceTag[faceId] - World.TERRAIN_FACE_TAG;
+                }
+
+                if (faceId >= 0) {
+                    selectedGroundFaceId = faceId;
+                }
             }
         }
 
@@ -173,7 +228,15 @@ public class Game extends State implements PacketContext {
             return;
         }
 
+        // Finish any sector loads that were waiting on the background
+        loadSectors();
+
         updateCamera();
+
+        // Build nearby sectors in the background
+        sectorStreamer.update(
+                player.x / World.TILE_WIDTH,
+                player.z / World.TILE_DEPTH);
     }
 
     private void handlePackets() {
@@ -192,36 +255,82 @@ public class Game extends State implements PacketContext {
         int x = player.x + cameraPositionX;
         int z = player.z + cameraPositionZ;
         int y = -world.getAveragedElevation(x, z);
-
-        int pitch = Camera.DEFAULT_PITCH;
-        int yaw = cameraRotation * 4;
-        int roll = 0;
+        int yaw = (cameraRotation * 4) & 0x3ff;
         int height = cameraHeight * 2;
 
-        scene.getCamera().set(x, y, z, pitch, yaw, roll, height);
+        if (cameraSnapped) {
+            previousCameraPose.set(x, y, z, yaw, height);
+            cameraSnapped = false;
+        } else {
+            previousCameraPose.set(cameraPose);
+        }
+
+        cameraPose.set(x, y, z, yaw, height);
 
         // Update fog distance based on camera height
         scene.fogZDistance = Camera.DEFAULT_FOG_DISTANCE + (cameraHeight * 2);
     }
 
-    private void loadSectors() {
+    /**
+     * Gets the camera pose at the last tick.
+     *
+     * @return
+     */
+    public CameraPose getCameraPose() {
+        return cameraPose;
+    }
 
-        if (player.x < 16 * World.TILE_WIDTH) {
-            worldLoader.loadSector(world.getSectorX() - 1, world.getSectorZ());
-            player.x += Sector.WIDTH * World.TILE_WIDTH;
+    /**
+     * Gets the camera pose at the tick before last.
+     *
+     * @return
+     */
+    public CameraPose getPreviousCameraPose() {
+        return previousCameraPose;
+    }
 
-        } else if (player.x > 80 * World.TILE_WIDTH) {
-            worldLoader.loadSector(world.getSectorX() + 1, world.getSectorZ());
-            player.x -= Sector.WIDTH * World.TILE_WIDTH;
-        }
+    /**
+     * Determines whether the camera has been positioned yet.
+     *
+     * @return
+     */
+    public boolean isCameraPositioned() {
+        return !cameraSnapped;
+    }
+
+    /**
+     * Loads a new sector if the player has moved too close to the edge of the
+     * loaded area.
+     *
+     * <p>Moving to a new sector shifts the origin of the World, so the camera
+     * is not interpolated across the jump.
+     *
+     * <p>If a sector is still being built in the background, the player
+     * stays where they are until it is ready; this is retried every tick.
+     *
+     * <p>Loading changes the models that frames are rendered from, so any
+     * frame in progress is allowed to finish first.
+     */
+    private void loadSectors() {
 
-        if (player.z < 16 * World.TILE_DEPTH) {
-            worldLoader.loadSector(world.getSectorX(), world.getSectorZ() - 1);
-            player.z += Sector.DEPTH * World.TILE_DEPTH;
+        int dx = World.getSectorShift(player.x, World.NUM_TILES_X,
+                Sector.WIDTH, World.TILE_WIDTH);
+        if (dx != 0 && sectorStreamer.isReady(
+                world.getSectorX() + dx, world.getSectorZ())) {
+            renderer.waitForFrame();
+            sectorStreamer.loadSector(world.getSectorX() + dx, world.getSectorZ());
+            player.x -= dx * Sector.WIDTH * World.TILE_WIDTH;
+            cameraSnapped = true;
+        }
 
-        } else if (player.z > 80 * World.TILE_DEPTH) {
-            worldLoader.loadSector(world.getSectorX(), world.getSectorZ() + 1);
-            player.z -= Sector.DEPTH * World.TILE_DEPTH;
+        int dz = World.getSectorShift(player.z, World.NUM_TILES_Z,
+                Sector.DEPTH, World.TILE_DEPTH);
+        if (dz != 0 && sectorStreamer.isReady(
+                world.getSectorX(), world.getSectorZ() + dz)) {
+            renderer.waitForFrame();
+            sectorStreamer.loadSector(world.getSectorX(), world.getSectorZ() + dz);
+            player.z -= dz * Sector.DEPTH * World.TILE_DEPTH;
+            cameraSnapped = true;
         }
     }
 
@@ -229,9 +338,10 @@ public class Game extends State implements PacketContext {
     public void loggedIn() {
         // Player position is relative to the World origin
         player = new Mob();
-        player.x = 66 * World.TILE_WIDTH;
-        player.z = 32 * World.TILE_DEPTH;
+        renderer.waitForFrame();
         worldLoader.loadSector(SPAWN_SECTOR_X, SPAWN_SECTOR_Z);
+        player.x = (SPAWN_TILE_X - world.getOriginX()) * World.TILE_WIDTH;
+        player.z = (SPAWN_TILE_Z - world.getOriginZ()) * World.TILE_DEPTH;
     }
 
     public Scene getScene() {
@@ -242,6 +352,10 @@ public class Game extends State implements PacketContext {
         return world;
     }
 
+    public WorldLoader getWorldLoader() {
+        return worldLoader;
+    }
+
     public Mob getCurrentPlayer() {
         return player;
     }
@@ -0,0 +1,57 @@
+package client.game.render;
+
+import client.game.scene.Camera;
+
+/**
+ * Position and orientation of the camera at a single tick.
+ *
+ * @author Dan Bryce
+ */
+public class CameraPose {
+
+    public int x;
+    public int y;
+    public int z;
+    public int yaw;
+    public int height;
+
+    public void set(int x, int y, int z, int yaw, int height) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.yaw = yaw;
+        this.height = height;
+    }
+
+    public void set(CameraPose other) {
+        set(other.x, other.y, other.z, other.yaw, other.height);
+    }
+
+    /**
+     * Positions a Camera part-way between two poses.
+     *
+     * <p>Yaw is interpolated the shorter way round.
+     *
+     * @param camera
+     * @param from
+     * @param to
+     * @param interpolation Fraction of the way from one pose to the other,
+     *            from 0 to 1.
+     */
+    public static void interpolate(Camera camera,
+            CameraPose from, CameraPose to, float interpolation) {
+
+        int x = from.x + (int) ((to.x - from.x) * interpolation);
+        int y = from.y + (int) ((to.y - from.y) * interpolation);
+        int z = from.z + (int) ((to.z - from.z) * interpolation);
+
+        // Take the shortest way round
+        int yawDelta = ((to.yaw - from.yaw + 512) & 0x3ff) - 512;
+        int yaw = from.yaw + (int) (yawDelta * interpolation);
+
+        int height = from.height + (int) ((to.height - from.height) * interpolation);
+
+        camera.set(x, y, z, Camera.DEFAULT_PITCH, yaw, 0, height);
+    }
+
+}
@@ -1,7 +1,12 @@
 package client.game.render;
 
+import java.awt.image.BufferedImage;
+
 import client.Canvas;
+import client.FrameProfiler;
+import client.FrameProfiler.Stage;
 import client.Input;
+import client.RuneClient;
 import client.StateRenderer;
 import client.game.Game;
 import client.game.scene.Scene;
@@ -18,64 +23,286 @@ import client.game.world.World;
  *  <li>Draw the UI on top</li>
  * </ul>
  *
+ * <p>The scene is built at the end of each tick, when a snapshot is taken of
+ * the models and camera poses that frames need. Frames are then rendered
+ * from the latest snapshot on the render thread, while the next tick runs.
+ *
  * @author Dan Bryce
  */
 public class GameRenderer extends StateRenderer {
 
+    private Game game;
     private World world;
     private SceneBuilder sceneBuilder;
     private Scene scene;
 
+    /**
+     * Models and camera poses copied from the game at the last snapshot,
+     * waiting to be picked up by the next frame.
+     */
+    private Scene snapshotScene = new Scene();
+    private CameraPose snapshotPreviousPose = new CameraPose();
+    private CameraPose snapshotPose = new CameraPose();
+    private boolean snapshotReady;
+    private long snapshotTickTime;
+
+    /**
+     * Whether the snapshot is up to date with the game's models.
+     *
+     * <p>This is cleared while the models are being changed, so that no frame
+     * starts until the next snapshot.
+     */
+    private boolean snapshotTaken;
+
+    /**
+     * Time spent taking snapshots since the last frame.
+     */
+    private long snapshotTime;
+
+    /**
+     * Models and camera poses that the current frame is rendered from.
+     */
+    private Scene frameScene = new Scene();
+    private CameraPose framePreviousPose = new CameraPose();
+    private CameraPose framePose = new CameraPose();
+    private long frameTickTime;
+    private boolean frameInProgress;
+
+    /**
+     * Faces under the mouse at the end of the last frame, for the game to
+     * read while the next frame is being rendered.
+     */
+    private MousePicker mousePicks = new MousePicker(0);
+
     private SoftwareRenderer softwareRenderer;
-    private MousePicker mousePicker;
     private Input input;
 
+    /**
+     * Canvas to which the world is rendered when running below full
+     * resolution; null at full resolution.
+     */
+    private Canvas scaledCanvas;
+    private ResolutionController resolutionController = new ResolutionController();
+    private volatile boolean dynamicResolution = true;
+    private int scaleShift;
+
     private MenuBarRenderer menuRenderer;
 
+    private FrameProfiler profiler;
+    private PerformanceHudRenderer performanceHudRenderer;
+    private volatile boolean performanceHudVisible;
+
     public GameRenderer(Game game) {
 
+        this.game = game;
         world = game.getWorld();
         scene = game.getScene();
 
         sceneBuilder = new SceneBuilder(scene, world);
-        softwareRenderer = new SoftwareRenderer(scene,
+        softwareRenderer = new SoftwareRenderer(frameScene,
                 game.getClient().getWidth(),
                 game.getClient().getHeight());
-        mousePicker = softwareRenderer.getMousePicker();
         input = game.getInput();
 
         menuRenderer = new MenuBarRenderer(game);
+
+        profiler = game.getClient().getProfiler();
+        performanceHudRenderer = new PerformanceHudRenderer(profiler, softwareRenderer,
+                game.getWorldLoader().getSectorCache());
     }
 
     @Override
     public void render(Canvas canvas) {
-        renderWorld(canvas);
+        render(canvas, System.nanoTime());
+    }
+
+    /**
+     * Builds the scene and copies what frames need from it.
+     *
+     * <p>This is called on the game thread at the end of each tick.
+     */
+    @Override
+    public void snapshot(long tickTime) {
+        long before = System.nanoTime();
+
+        boolean ready = world.isLoaded() && game.isCameraPositioned();
+        if (ready) {
+            sceneBuilder.build();
+        }
+
+        synchronized (this) {
+            if (ready) {
+                snapshotScene.copyModels(scene);
+                snapshotPreviousPose.set(game.getPreviousCameraPose());
+                snapshotPose.set(game.getCameraPose());
+            }
+            snapshotReady = ready;
+            snapshotTickTime = tickTime;
+            snapshotTaken = true;
+            snapshotTime += System.nanoTime() - before;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits for any frame in progress to finish, and stops new frames from
+     * starting until the next snapshot.
+     *
+     * <p>This must be called by the game thread before changing any models
+     * that may be in the scene.
+     */
+    public synchronized void waitForFrame() {
+        snapshotTaken = false;
+        while (frameInProgress) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Picks up the latest snapshot for the next frame.
+     *
+     * @return True if the snapshot contains a world to render.
+     */
+    private synchronized boolean beginFrame() {
+        while (!snapshotTaken) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        if (snapshotReady) {
+            frameScene.copyModels(snapshotScene);
+            framePreviousPose.set(snapshotPreviousPose);
+            framePose.set(snapshotPose);
+            frameTickTime = snapshotTickTime;
+        }
+        profiler.record(Stage.SCENE, snapshotTime);
+        snapshotTime = 0;
+        frameInProgress = true;
+        return snapshotReady;
+    }
+
+    private synchronized void endFrame() {
+        frameInProgress = false;
+        notifyAll();
+    }
+
+    @Override
+    public void render(Canvas canvas, long time) {
+        boolean ready = beginFrame();
+        try {
+            if (ready) {
+                float interpolation = (float) (time - frameTickTime) / RuneClient.NANOS_PER_TICK;
+                interpolation = Math.max(0, Math.min(interpolation, 1));
+                CameraPose.interpolate(frameScene.getCamera(),
+                        framePreviousPose, framePose, interpolation);
+                renderWorld(canvas);
+            }
+        } finally {
+            endFrame();
+        }
+
+        long before = System.nanoTime();
         renderUi(canvas);
+        if (performanceHudVisible) {
+            performanceHudRenderer.render(canvas);
+        }
+        profiler.recordSince(Stage.UI, before);
     }
 
     private void renderWorld(Canvas canvas) {
 
-        // Don't render until the world is loaded
-        if (!world.isLoaded()) {
-            return;
+        // Choose the resolution
+        int newScaleShift = dynamicResolution ? resolutionController.getScaleShift() : 0;
+        if (newScaleShift != scaleShift) {
+            setScaleShift(newScaleShift);
         }
 
-        // Build the scene
-        sceneBuilder.build();
-
         // Prepare for mouse picking
-        mousePicker.setMousePos(input.getMouseX(), input.getMouseY());
+        softwareRenderer.getMousePicker().setMousePos(
+                input.getMouseX() >> scaleShift,
+                input.getMouseY() >> scaleShift);
+
+        // Render the scene, scaling it up if necessary
+        long before = System.nanoTime();
+        if (scaledCanvas != null) {
+            scaledCanvas.clear();
+            softwareRenderer.render(scaledCanvas);
+            canvas.drawUpscaled(scaledCanvas, scaleShift);
+        } else {
+            softwareRenderer.render(canvas);
+        }
+        resolutionController.addFrameTime(System.nanoTime() - before);
 
-        // Render the scene
-        softwareRenderer.render(canvas);
+        synchronized (mousePicks) {
+            mousePicks.copyPicks(softwareRenderer.getMousePicker());
+        }
+
+        profiler.record(Stage.PROJECTION, softwareRenderer.getProjectionTime());
+        profiler.record(Stage.CULLING, softwareRenderer.getCullingTime());
+        profiler.record(Stage.SORTING, softwareRenderer.getSortingTime());
+        profiler.record(Stage.RASTERIZATION, softwareRenderer.getRasterizationTime());
     }
 
+    /**
+     * Changes the resolution at which the world is rendered.
+     *
+     * @param scaleShift Number of times the full width and height are halved.
+     */
+    private void setScaleShift(int scaleShift) {
+        this.scaleShift = scaleShift;
+
+        int width = game.getClient().getWidth();
+        int height = game.getClient().getHeight();
+        softwareRenderer.setResolution(width, height, scaleShift);
+
+        if (scaleShift == 0) {
+            scaledCanvas = null;
+        } else {
+            scaledCanvas = new Canvas(new BufferedImage(
+                    width >> scaleShift, height >> scaleShift,
+                    BufferedImage.TYPE_INT_RGB));
+        }
+    }
+
+    /**
+     * Gets the faces that were under the mouse at the end of the last frame.
+     *
+     * <p>The render thread replaces these after each frame, so callers should
+     * synchronize on the MousePicker while reading them.
+     *
+     * @return
+     */
     public MousePicker getMousePicker() {
-        return mousePicker;
+        return mousePicks;
     }
 
     private void renderUi(Canvas canvas) {
         menuRenderer.render(canvas);
     }
 
+    /**
+     * Shows or hides the performance overlay.
+     */
+    public void togglePerformanceHud() {
+        performanceHudVisible = !performanceHudVisible;
+    }
+
+    /**
+     * Enables or disables dynamic resolution.
+     *
+     * <p>When enabled, the world is rendered at a lower resolution and scaled
+     * up whenever frames are taking too long.
+     */
+    public void toggleDynamicResolution() {
+        dynamicResolution = !dynamicResolution;
+    }
+
 }
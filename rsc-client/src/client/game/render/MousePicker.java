@@ -25,6 +25,17 @@ public class MousePicker {
         mousePickedCount++;
     }
 
+    /**
+     * Replaces the picks of this MousePicker with those of another.
+     *
+     * @param other
+     */
+    public void copyPicks(MousePicker other) {
+        mousePickedCount = other.mousePickedCount;
+        System.arraycopy(other.mousePickedModels, 0, mousePickedModels, 0, mousePickedCount);
+        System.arraycopy(other.mousePickedFaces, 0, mousePickedFaces, 0, mousePickedCount);
+    }
+
     public int getMousePickedCount() {
         return mousePickedCount;
     }
@@ -0,0 +1,80 @@
+package client.game.render;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.util.Locale;
+
+import client.Canvas;
+import client.FrameProfiler;
+import client.FrameProfiler.Stage;
+import client.game.world.SectorCache;
+
+/**
+ * Class responsible for rendering frame timings over the top of the game.
+ *
+ * @author Dan Bryce
+ */
+public class PerformanceHudRenderer {
+
+    private static final Font HUD_FONT = new Font("Monospaced", Font.PLAIN, 12);
+    private static final int HUD_X = 4;
+    private static final int HUD_Y = 4;
+    private static final int HUD_WIDTH = 220;
+    private static final int LINE_HEIGHT = 14;
+    private static final int PADDING = 4;
+
+    private FrameProfiler profiler;
+    private SoftwareRenderer softwareRenderer;
+    private SectorCache sectorCache;
+
+    public PerformanceHudRenderer(FrameProfiler profiler,
+            SoftwareRenderer softwareRenderer, SectorCache sectorCache) {
+        this.profiler = profiler;
+        this.softwareRenderer = softwareRenderer;
+        this.sectorCache = sectorCache;
+    }
+
+    public void render(Canvas canvas) {
+
+        Stage[] stages = Stage.values();
+        int numLines = 6 + stages.length;
+        canvas.darkenRect(HUD_X, HUD_Y, HUD_WIDTH, numLines * LINE_HEIGHT + PADDING * 2);
+
+        Graphics g = canvas.getImage().createGraphics();
+        g.setFont(HUD_FONT);
+        g.setColor(Color.WHITE);
+
+        int x = HUD_X + PADDING;
+        int y = HUD_Y + PADDING + LINE_HEIGHT - 3;
+
+        g.drawString(String.format(Locale.ROOT, "FPS: %.1f", profiler.getFps()), x, y);
+        y += LINE_HEIGHT;
+        g.drawString("Polygons: " + softwareRenderer.getVisiblePolygonCount(), x, y);
+        y += LINE_HEIGHT;
+        g.drawString("Models culled: " + softwareRenderer.getNumModelsCulled()
+                + " / " + (softwareRenderer.getNumModelsProjected()
+                        + softwareRenderer.getNumModelsCulled()), x, y);
+        y += LINE_HEIGHT;
+        g.drawString(String.format(Locale.ROOT, "Sectors cached: %d (%dk)",
+                sectorCache.getNumSectors(), sectorCache.getSize() / 1000), x, y);
+        y += LINE_HEIGHT;
+        g.drawString("Cache hits: " + sectorCache.getHits()
+                + " / " + (sectorCache.getHits() + sectorCache.getMisses()), x, y);
+        y += LINE_HEIGHT;
+
+        // Percentiles of each stage
+        g.drawString(String.format(Locale.ROOT, "%-13s %6s %6s", "ms", "p50", "p99"), x, y);
+        y += LINE_HEIGHT;
+        for (Stage stage : stages) {
+            g.drawString(String.format(Locale.ROOT, "%-13s %6.1f %6.1f",
+                    stage.name().toLowerCase(),
+                    profiler.getPercentile(stage, 50) / 1000000.0,
+                    profiler.getPercentile(stage, 99) / 1000000.0), x, y);
+            y += LINE_HEIGHT;
+        }
+
+        g.dispose();
+    }
+
+}
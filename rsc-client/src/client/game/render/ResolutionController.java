@@ -0,0 +1,77 @@
+package client.game.render;
+
+/**
+ * Class responsible for choosing the resolution at which to render the world,
+ * based on how long recent frames have taken.
+ *
+ * <p>The resolution is given as a scale shift, where each step halves the
+ * width and height. The projection's focal length is a power of 2, so only
+ * power-of-2 scales are possible.
+ *
+ * @author Dan Bryce
+ */
+public class ResolutionController {
+
+    /**
+     * Time allowed for rendering the world each frame, leaving the rest of a
+     * 60fps frame for the UI and presentation.
+     */
+    private static final long FRAME_BUDGET = 12000000;
+
+    /**
+     * Fraction of the budget that frames must fall below before the
+     * resolution is increased. A step up roughly quadruples the number of
+     * pixels drawn, so this leaves plenty of headroom to avoid flickering
+     * between resolutions.
+     */
+    private static final double UPSCALE_THRESHOLD = 0.4;
+
+    /**
+     * Number of frames averaged before making a decision.
+     */
+    private static final int NUM_SAMPLES = 30;
+
+    /**
+     * Largest scale shift that may be chosen.
+     */
+    private static final int MAX_SCALE_SHIFT = 1;
+
+    private long totalFrameTime;
+    private int numSamples;
+    private int scaleShift;
+
+    /**
+     * Records the time taken to render the world for one frame, and adjusts
+     * the scale if enough frames have been recorded.
+     *
+     * @param frameTime Time, in nanoseconds.
+     */
+    public void addFrameTime(long frameTime) {
+        totalFrameTime += frameTime;
+        numSamples++;
+
+        if (numSamples < NUM_SAMPLES) {
+            return;
+        }
+
+        long averageFrameTime = totalFrameTime / numSamples;
+        totalFrameTime = 0;
+        numSamples = 0;
+
+        if (averageFrameTime > FRAME_BUDGET && scaleShift < MAX_SCALE_SHIFT) {
+            scaleShift++;
+        } else if (averageFrameTime < FRAME_BUDGET * UPSCALE_THRESHOLD && scaleShift > 0) {
+            scaleShift--;
+        }
+    }
+
+    /**
+     * Gets the chosen scale shift.
+     *
+     * @return 0 for full resolution, 1 for half resolution, etc.
+     */
+    public int getScaleShift() {
+        return scaleShift;
+    }
+
+}
@@ -6,7 +6,7 @@ import client.game.world.World;
 
 public class SceneBuilder {
 
-    private static final int MAX_BUILDINGS = 64;
+    private static final int MAX_BUILDINGS = World.NUM_PIECES;
 
     private Scene scene;
 
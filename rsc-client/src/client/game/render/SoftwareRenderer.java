@@ -1,5 +1,9 @@
 package client.game.render;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 import client.Canvas;
 import client.game.scene.Camera;
 import client.game.scene.Model;
@@ -26,31 +30,139 @@ public class SoftwareRenderer {
 
     private static final int VIEW_DISTANCE = 9;
 
+    /**
+     * log2 of the default number of pixels between perspective divides when
+     * drawing textured scanlines.
+     */
+    private static final int DEFAULT_TEXTURE_SUBDIVISION_SHIFT = 4;
+
+    /**
+     * Number of bits of depth sorted in each pass of the radix sort.
+     */
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX_SIZE = 1 << RADIX_BITS;
+    private static final int RADIX_MASK = RADIX_SIZE - 1;
+
+    /**
+     * Number of screen tiles in each direction used to find polygons that may
+     * overlap; 8x8 tiles fit in the bits of a long.
+     */
+    private static final int TILE_GRID_SIZE = 8;
+
+    /**
+     * Initial capacity of the polygon outline buffers; these grow if a face
+     * has more vertices than this.
+     */
+    private static final int MAX_OUTLINE_VERTICES = 40;
+
+    /**
+     * Minimum number of models before projection is split across threads.
+     */
+    private static final int PARALLEL_PROJECTION_THRESHOLD = 64;
+
+    /**
+     * Number of models projected by a single task, once a range has been
+     * split far enough.
+     */
+    private static final int PROJECTION_BATCH_SIZE = 16;
+
     private Scene scene;
     private Camera camera;
     private int visiblePolygonCount;
+
+    /**
+     * Number of models projected during the last frame, and the number
+     * skipped for lying outside the view frustum.
+     */
+    private int numModelsProjected;
+    private int numModelsCulled;
+
+    /**
+     * Time spent on each stage of the last frame, in nanoseconds.
+     */
+    private long projectionTime;
+    private long cullingTime;
+    private long sortingTime;
+    private long rasterizationTime;
     private Polygon visiblePolygons[] = new Polygon[MAX_POLYGONS];
 
+    /**
+     * Scratch buffers used when sorting polygons by depth.
+     */
+    private int sortKeys[] = new int[MAX_POLYGONS];
+    private int sortIndices[] = new int[MAX_POLYGONS];
+    private int sortKeysTmp[] = new int[MAX_POLYGONS];
+    private int sortIndicesTmp[] = new int[MAX_POLYGONS];
+    private int radixCounts[] = new int[RADIX_SIZE];
+    private Polygon sortedPolygons[] = new Polygon[MAX_POLYGONS];
+
+    /**
+     * Screen tiles touched by each visible polygon, kept in the same order as
+     * the polygons during the intersect sort.
+     */
+    private long tileMasks[] = new long[MAX_POLYGONS];
+
+    /**
+     * Polygons found for the scene's models (excluding sprites) during the
+     * last frame they were rebuilt, followed by the rest of the Polygon pool.
+     *
+     * <p>If no model has been re-projected since, the same faces are still
+     * visible, so these are restored instead of testing every face again.
+     * The whole pool is kept because sorting shuffles it.
+     */
+    private Polygon cachedPolygons[] = new Polygon[MAX_POLYGONS];
+    private int numCachedPolygons;
+    private boolean polygonCacheValid;
+
+    /**
+     * Number of positions at the start of the Polygon pool that may have been
+     * shuffled since it was last the same as {@link #cachedPolygons}.
+     *
+     * <p>Only these need copying to bring the two back in line.
+     */
+    private int numShuffledPolygons;
+
+    /**
+     * Flag set when the visible polygons are still in the order they were
+     * sorted into for the last frame.
+     *
+     * <p>If nothing has moved since, they can be drawn again as they are.
+     */
+    private boolean sortedPolygonsValid;
+
+    /**
+     * Models in the scene when the cached polygons were found.
+     */
+    private Model cachedModels[] = new Model[0];
+    private int numCachedModels;
+
+    /**
+     * Sprites in the scene, and their sizes, when the polygons were last
+     * sorted.
+     */
+    private SpriteEntity cachedSpriteEntities[] = new SpriteEntity[0];
+    private int cachedSpriteWidths[] = new int[0];
+    private int cachedSpriteHeights[] = new int[0];
+    private int numCachedSprites;
+
+    /**
+     * Screen-space outlines of the two polygons being tested by
+     * {@link #arePolygonsSeparate}. These are reused to avoid allocating
+     * arrays for every pair of polygons.
+     */
+    private int outlineX1[] = new int[MAX_OUTLINE_VERTICES];
+    private int outlineY1[] = new int[MAX_OUTLINE_VERTICES];
+    private int outlineX2[] = new int[MAX_OUTLINE_VERTICES];
+    private int outlineY2[] = new int[MAX_OUTLINE_VERTICES];
+
     private MousePicker mousePicker;
 
     private int rampCount = 50;
-    private int gradientBase[] = new int[rampCount];
-    private int gradientRamps[][] = new int[rampCount][256];
-    private int currentGradientRamps[];
     private int width;
     private int baseX;
     private int baseY;
     private int viewDistance = 9;
     private int normalMagnitude = 4;
-    private Scanline scanlines[];
-    private int minY;
-    private int maxY;
-    private int planeX[] = new int[40];
-    private int planeY[] = new int[40];
-    private int vertexShade[] = new int[40];
-    private int vertexX[] = new int[40];
-    private int vertexY[] = new int[40];
-    private int vertexZ[] = new int[40];
     private int newStart;
     private int newEnd;
 
@@ -72,6 +184,48 @@ public class SoftwareRenderer {
      */
     private int clipFar2d = 2400 + (Camera.DEFAULT_HEIGHT * 2);
 
+    /**
+     * Band covering the whole screen, used when rasterizing on one thread.
+     */
+    private RasterBand screenBand;
+
+    /**
+     * Horizontal strips of the screen, used when rasterizing in parallel.
+     */
+    private RasterBand rasterBands[];
+
+    private int numRasterBands = Runtime.getRuntime().availableProcessors();
+
+    private boolean parallelRaster;
+
+    private boolean parallelProjection;
+
+    private ForkJoinPool workerPool = ForkJoinPool.commonPool();
+
+    private boolean depthBuffered;
+
+    /**
+     * Whether distant textured faces are drawn using smaller mip levels.
+     */
+    private boolean mipmapped = true;
+
+    /**
+     * log2 of the number of pixels between perspective divides when drawing
+     * textured scanlines.
+     */
+    private int textureSubdivisionShift = DEFAULT_TEXTURE_SUBDIVISION_SHIFT;
+
+    /**
+     * Depth buffer of the Canvas being rendered, if depth-buffered.
+     */
+    private int depthBuffer[];
+
+    /**
+     * Number of polygons at the start of the visible list that must be drawn
+     * back-to-front, if depth-buffered; the rest are opaque.
+     */
+    private int numOrderedPolygons;
+
     private class Scanline {
         public int startX;
         public int endX;
@@ -79,37 +233,291 @@ public class SoftwareRenderer {
         public int endS;
     }
 
+    /**
+     * A horizontal strip of the screen, along with the scratch buffers needed
+     * to rasterize polygons into it.
+     *
+     * <p>Each band has its own buffers so that multiple bands can be
+     * rasterized at the same time.
+     */
+    private class RasterBand {
+
+        /**
+         * First row of the screen covered by this band.
+         */
+        public final int startY;
+
+        /**
+         * Row after the last row of the screen covered by this band.
+         */
+        public final int endY;
+
+        public Scanline scanlines[];
+        public int minY;
+        public int maxY;
+        public int planeX[] = new int[40];
+        public int planeY[] = new int[40];
+        public int vertexShade[] = new int[40];
+        public int vertexX[] = new int[40];
+        public int vertexY[] = new int[40];
+        public int vertexZ[] = new int[40];
+        public int gradientBase[] = new int[rampCount];
+        public int gradientRamps[][] = new int[rampCount][256];
+        public int currentGradientRamps[];
+        public int savedPixels[] = new int[width];
+
+        /**
+         * Whether the current polygon should be tested against the depth
+         * buffer, and whether it should write to it.
+         */
+        public boolean depthTested;
+        public boolean depthWrite;
+
+        /**
+         * Plane of the current polygon, used to calculate the depth at any
+         * point on the screen.
+         */
+        public long depthOrigin;
+        public long depthStepX;
+        public long depthStepY;
+
+        public RasterBand(int startY, int endY, int numScanlines) {
+            this.startY = startY;
+            this.endY = endY;
+            scanlines = new Scanline[numScanlines];
+            for (int i = 0; i < numScanlines; i++) {
+                scanlines[i] = new Scanline();
+            }
+        }
+
+        /**
+         * Determines whether the given 3d polygon could cover any row of this
+         * band.
+         *
+         * <p>Polygons crossing the near plane are clipped before their
+         * scanlines are generated, so their bounds cannot be trusted here.
+         *
+         * @param polygon
+         * @return
+         */
+        public boolean overlaps(Polygon polygon) {
+            if (polygon.minZ < clipNear) {
+                return true;
+            }
+            return polygon.maxPlaneY + baseY >= startY &&
+                    polygon.minPlaneY + baseY < endY;
+        }
+    }
+
+    /**
+     * Rasterizes a contiguous range of bands, splitting the range until each
+     * task covers a single band.
+     */
+    private class RasterTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private Canvas canvas;
+        private int firstBand;
+        private int lastBand;
+
+        public RasterTask(Canvas canvas, int firstBand, int lastBand) {
+            this.canvas = canvas;
+            this.firstBand = firstBand;
+            this.lastBand = lastBand;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastBand - firstBand == 1) {
+                rasterizePolygons(canvas, rasterBands[firstBand]);
+                return;
+            }
+            int mid = (firstBand + lastBand) / 2;
+            invokeAll(
+                    new RasterTask(canvas, firstBand, mid),
+                    new RasterTask(canvas, mid, lastBand));
+        }
+    }
+
+    /**
+     * Projects a contiguous range of models, splitting the range until each
+     * task covers a single batch.
+     */
+    private class ProjectionTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private Model models[];
+        private int start;
+        private int end;
+
+        public ProjectionTask(Model[] models, int start, int end) {
+            this.models = models;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= PROJECTION_BATCH_SIZE) {
+                projectModels(models, start, end);
+                return;
+            }
+            int mid = (start + end) / 2;
+            invokeAll(
+                    new ProjectionTask(models, start, mid),
+                    new ProjectionTask(models, mid, end));
+        }
+    }
+
     public SoftwareRenderer(Scene scene, int width, int height) {
         this.scene = scene;
         this.camera = scene.getCamera();
 
         for (int l = 0; l < visiblePolygons.length; l++) {
             visiblePolygons[l] = new Polygon();
+            cachedPolygons[l] = visiblePolygons[l];
         }
 
-        setBounds(
-                width / 2, height / 2,
-                width / 2, height / 2,
-                width,
-                VIEW_DISTANCE);
+        setResolution(width, height, 0);
     }
 
     public void render(Canvas canvas) {
 
+        long stageStart = System.nanoTime();
+        sortingTime = 0;
+        rasterizationTime = 0;
+
         int clipXModified = clipX * clipFar3d >> viewDistance;
         int clipYModified = clipY * clipFar3d >> viewDistance;
         camera.prepareForRendering(clipX, clipY, clipFar3d, clipXModified, clipYModified);
         scene.getModels()[scene.getNumModels()] = scene.getSprites();
         scene.getSprites().transformState = TransformState.BILLBOARD;
 
-        for (int i = 0; i < scene.getNumModels(); i++) {
-            scene.getModels()[i].project(camera, viewDistance, clipNear);
+        // Project all models, including the sprite model at the end
+        int numModels = scene.getNumModels() + 1;
+        if (parallelProjection && numModels >= PARALLEL_PROJECTION_THRESHOLD) {
+            workerPool.invoke(new ProjectionTask(scene.getModels(), 0, numModels));
+        } else {
+            projectModels(scene.getModels(), 0, numModels);
+        }
+        countProjectedModels(scene.getModels(), numModels);
+        projectionTime = nextStage(stageStart);
+        stageStart += projectionTime;
+
+        boolean modelsChanged = haveModelsChanged(scene.getModels(), scene.getNumModels());
+        boolean spritesChanged = haveSpritesChanged();
+        if (sortedPolygonsValid && !modelsChanged && !spritesChanged) {
+            // Nothing has moved, so last frame's polygons can be drawn again
+            cullingTime = nextStage(stageStart);
+            stageStart += cullingTime;
+            if (depthBuffered) {
+                canvas.clearDepth();
+                depthBuffer = canvas.getDepthBuffer();
+            }
+            rasterizeVisiblePolygons(canvas, stageStart);
+            return;
         }
 
-        scene.getModels()[scene.getNumModels()]
-                .project(camera, viewDistance, clipNear);
-        visiblePolygonCount = 0;
+        if (polygonCacheValid && !modelsChanged) {
+            // Nothing has moved, so the same faces are visible as last frame
+            System.arraycopy(cachedPolygons, 0, visiblePolygons, 0, numShuffledPolygons);
+            visiblePolygonCount = numCachedPolygons;
+        } else {
+            // Finding polygons fills the pool in order, without shuffling it
+            visiblePolygonCount = 0;
+            addModelPolygons();
+            System.arraycopy(visiblePolygons, 0, cachedPolygons, 0, numShuffledPolygons);
+            numCachedPolygons = visiblePolygonCount;
+            polygonCacheValid = true;
+        }
+        numShuffledPolygons = 0;
+        sortedPolygonsValid = false;
 
+        // Render 2d models (sprites)
+        Model spriteFaces = scene.getSprites();
+        if (spriteFaces.visible) {
+            for (int face = 0; face < spriteFaces.numFaces; face++) {
+                int faceVertices[] = spriteFaces.faceVertices[face];
+                int vertex0 = faceVertices[0];
+                int vx = spriteFaces.viewX[vertex0];
+                int vy = spriteFaces.viewY[vertex0];
+                int vz = spriteFaces.projectedZ[vertex0];
+                if (vz > clipNear && vz < clipFar2d) {
+                    SpriteEntity spriteEntity = scene.getSpriteEntities()[face];
+                    int vw = (spriteEntity.getWidth() << viewDistance) / vz;
+                    int vh = (spriteEntity.getHeight() << viewDistance) / vz;
+                    if (vx - vw / 2 <= clipX && vx + vw / 2 >= -clipX && vy - vh <= clipY && vy >= -clipY) {
+                        Polygon polygon2 = visiblePolygons[visiblePolygonCount];
+                        polygon2.gameModel = spriteFaces;
+                        polygon2.face = face;
+                        initialisePolygon2d(visiblePolygonCount);
+                        polygon2.depth = (vz + spriteFaces.projectedZ[faceVertices[1]]) / 2;
+                        visiblePolygonCount++;
+                    }
+                }
+            }
+
+        }
+
+        cullingTime = nextStage(stageStart);
+        stageStart += cullingTime;
+
+        if (visiblePolygonCount == 0) {
+            // Nothing to render!
+            return;
+        }
+
+        // Sorting shuffles the polygons in use
+        numShuffledPolygons = visiblePolygonCount;
+
+        if (depthBuffered) {
+            // Opaque polygons can be drawn in any order, so only the rest
+            // need sorting
+            numOrderedPolygons = partitionOrderedPolygons();
+            if (numOrderedPolygons > 0) {
+                polygonsRadixSort(visiblePolygons, numOrderedPolygons);
+                polygonsIntersectSort(100, visiblePolygons, numOrderedPolygons);
+            }
+            canvas.clearDepth();
+            depthBuffer = canvas.getDepthBuffer();
+        } else {
+            // Sort polygons
+            polygonsRadixSort(visiblePolygons, visiblePolygonCount);
+            polygonsIntersectSort(100, visiblePolygons, visiblePolygonCount);
+        }
+
+        sortingTime = nextStage(stageStart);
+        stageStart += sortingTime;
+        sortedPolygonsValid = true;
+
+        rasterizeVisiblePolygons(canvas, stageStart);
+    }
+
+    /**
+     * Draws the visible polygons, which should already be sorted.
+     *
+     * @param canvas
+     * @param stageStart Time at which rasterization started.
+     */
+    private void rasterizeVisiblePolygons(Canvas canvas, long stageStart) {
+
+        // Render our polygons!
+        if (parallelRaster && rasterBands.length > 1) {
+            rasterizeBands(canvas);
+        } else {
+            rasterizePolygons(canvas, screenBand);
+        }
+
+        rasterizationTime = nextStage(stageStart);
+    }
+
+    /**
+     * Adds a Polygon for each visible face of the scene's models, excluding
+     * sprites.
+     */
+    private void addModelPolygons() {
         // Draw each model in the scene
         for (int i = 0; i < scene.getNumModels(); i++) {
 
@@ -129,7 +537,7 @@ public class SoftwareRenderer {
                 // Determine if any vertices are visible
                 boolean visible = false;
                 for (int vertex = 0; vertex < numVertices; vertex++) {
-                    int i1 = gameModel.verticesProjected[vertices[vertex]].z;
+                    int i1 = gameModel.projectedZ[vertices[vertex]];
                     if (i1 <= clipNear || i1 >= clipFar3d) {
                         continue;
                     }
@@ -145,7 +553,7 @@ public class SoftwareRenderer {
                 // Verify visibility in x-axis?
                 int viewXCount = 0;
                 for (int vertex = 0; vertex < numVertices; vertex++) {
-                    int j1 = gameModel.verticesView[vertices[vertex]].x;
+                    int j1 = gameModel.viewX[vertices[vertex]];
                     if (j1 > -clipX) {
                         viewXCount |= 1;
                     }
@@ -163,7 +571,7 @@ public class SoftwareRenderer {
                 // Verify visibility in y-axis?
                 int viewYCount = 0;
                 for (int vertex = 0; vertex < numVertices; vertex++) {
-                    int k1 = gameModel.verticesView[vertices[vertex]].y;
+                    int k1 = gameModel.viewY[vertices[vertex]];
                     if (k1 > -clipY) {
                         viewYCount |= 1;
                     }
@@ -197,7 +605,7 @@ public class SoftwareRenderer {
 
                 int j2 = 0;
                 for (int vertex = 0; vertex < numVertices; vertex++) {
-                    j2 += gameModel.verticesProjected[vertices[vertex]].z;
+                    j2 += gameModel.projectedZ[vertices[vertex]];
                 }
 
                 polygon1.depth = j2 / numVertices + gameModel.depth;
@@ -205,227 +613,765 @@ public class SoftwareRenderer {
                 visiblePolygonCount++;
             }
         }
+    }
 
-        // Render 2d models (sprites)
-        Model spriteFaces = scene.getSprites();
-        if (spriteFaces.visible) {
-            for (int face = 0; face < spriteFaces.numFaces; face++) {
-                int faceVertices[] = spriteFaces.faceVertices[face];
-                int vertex0 = faceVertices[0];
-                int vx = spriteFaces.verticesView[vertex0].x;
-                int vy = spriteFaces.verticesView[vertex0].y;
-                int vz = spriteFaces.verticesProjected[vertex0].z;
-                if (vz > clipNear && vz < clipFar2d) {
-                    SpriteEntity spriteEntity = scene.getSpriteEntities()[face];
-                    int vw = (spriteEntity.getWidth() << viewDistance) / vz;
-                    int vh = (spriteEntity.getHeight() << viewDistance) / vz;
-                    if (vx - vw / 2 <= clipX && vx + vw / 2 >= -clipX && vy - vh <= clipY && vy >= -clipY) {
-                        Polygon polygon2 = visiblePolygons[visiblePolygonCount];
-                        polygon2.gameModel = spriteFaces;
-                        polygon2.face = face;
-                        initialisePolygon2d(visiblePolygonCount);
-                        polygon2.depth = (vz + spriteFaces.verticesProjected[faceVertices[1]].z) / 2;
-                        visiblePolygonCount++;
-                    }
+    private static long nextStage(long stageStart) {
+        return System.nanoTime() - stageStart;
+    }
+
+    /**
+     * Moves all polygons that cannot simply be drawn in any order to the start
+     * of the visible list.
+     *
+     * @return The number of such polygons.
+     */
+    private int partitionOrderedPolygons() {
+        int numOrdered = 0;
+        for (int i = 0; i < visiblePolygonCount; i++) {
+            Polygon polygon = visiblePolygons[i];
+            if (!isOpaque(polygon)) {
+                visiblePolygons[i] = visiblePolygons[numOrdered];
+                visiblePolygons[numOrdered] = polygon;
+                numOrdered++;
+            }
+        }
+        return numOrdered;
+    }
+
+    /**
+     * Determines whether a polygon completely hides anything behind it.
+     *
+     * <p>Translucent polygons, textures with transparency and sprites all
+     * depend on what is behind them, so they must still be drawn
+     * back-to-front.
+     *
+     * @param polygon
+     * @return
+     */
+    private boolean isOpaque(Polygon polygon) {
+        Model gameModel = polygon.gameModel;
+        if (gameModel == scene.getSprites()) {
+            return false;
+        }
+        int faceFill = polygon.faceFill;
+        if (faceFill >= 0) {
+            if (faceFill >= Resources.textures.length) {
+                faceFill = 0;
+            }
+            Resources.prepareTexture(faceFill);
+            return !gameModel.translucent && !Resources.textures[faceFill].hasTransparency();
+        }
+        return faceFill != -2 && !gameModel.transparent;
+    }
+
+    /**
+     * Rasterizes the sorted polygons using every band in parallel.
+     *
+     * <p>Each band owns a horizontal strip of the screen, so bands never write
+     * to the same pixels and painter's ordering is preserved within each band.
+     *
+     * @param canvas
+     */
+    private void rasterizeBands(Canvas canvas) {
+
+        // Textures are prepared lazily; make sure this happens up-front, so
+        // that the bands never race to prepare the same texture
+        for (int i = 0; i < visiblePolygonCount; i++) {
+            int faceFill = visiblePolygons[i].faceFill;
+            if (faceFill >= 0) {
+                Resources.prepareTexture(
+                        faceFill < Resources.textures.length ? faceFill : 0);
+            }
+        }
+
+        workerPool.invoke(new RasterTask(canvas, 0, rasterBands.length));
+    }
+
+    /**
+     * Draws all sorted polygons that overlap the given band, back-to-front.
+     *
+     * <p>If depth-buffered, the opaque polygons are drawn first, in any order,
+     * followed by the remaining polygons back-to-front.
+     *
+     * @param canvas
+     * @param band
+     */
+    private void rasterizePolygons(Canvas canvas, RasterBand band) {
+
+        if (!depthBuffered) {
+            band.depthTested = false;
+            band.depthWrite = false;
+            for (int polygonIndex = 0; polygonIndex < visiblePolygonCount; polygonIndex++) {
+                rasterizePolygon(canvas, band, visiblePolygons[polygonIndex]);
+            }
+            return;
+        }
+
+        band.depthTested = true;
+        band.depthWrite = true;
+        for (int polygonIndex = numOrderedPolygons; polygonIndex < visiblePolygonCount; polygonIndex++) {
+            rasterizePolygon(canvas, band, visiblePolygons[polygonIndex]);
+        }
+
+        band.depthWrite = false;
+        for (int polygonIndex = 0; polygonIndex < numOrderedPolygons; polygonIndex++) {
+            rasterizePolygon(canvas, band, visiblePolygons[polygonIndex]);
+        }
+    }
+
+    private void rasterizePolygon(Canvas canvas, RasterBand band, Polygon polygon) {
+
+        Model polygonModel = polygon.gameModel;
+        int polyFace = polygon.face;
+
+        // Is polygon a sprite?
+        if (polygonModel == scene.getSprites()) {
+            renderSprite(polygonModel, polyFace, canvas, band);
+            return;
+        }
+
+        if (!band.overlaps(polygon)) {
+            // Polygon lies entirely outside this band
+            return;
+        }
+
+        int plane = 0;
+        int light = 0;
+        int numVertices = polygonModel.numVerticesPerFace[polyFace];
+        int faceVerts[] = polygonModel.faceVertices[polyFace];
+
+        // Calculate face lighting
+        if (polygonModel.faceIntensity[polyFace] != Model.USE_GOURAUD_LIGHTING) {
+            if (polygon.visibility < 0) {
+                light = polygonModel.lightAmbience - polygonModel.faceIntensity[polyFace];
+            } else {
+                light = polygonModel.lightAmbience + polygonModel.faceIntensity[polyFace];
+            }
+        }
+
+        // Render all vertices
+        for (int vertexIndex = 0; vertexIndex < numVertices; vertexIndex++) {
+
+            int vertexIndexInModel = faceVerts[vertexIndex];
+            band.vertexX[vertexIndex] = polygonModel.projectedX[vertexIndexInModel];
+            band.vertexY[vertexIndex] = polygonModel.projectedY[vertexIndexInModel];
+            band.vertexZ[vertexIndex] = polygonModel.projectedZ[vertexIndexInModel];
+
+            // Calculate vertex lighting for transparent faces
+            if (polygonModel.faceIntensity[polyFace] == Model.USE_GOURAUD_LIGHTING) {
+                if (polygon.visibility < 0) {
+                    light = (polygonModel.lightAmbience - polygonModel.vertexIntensity[vertexIndexInModel])
+                            + polygonModel.vertexAmbience[vertexIndexInModel];
+                } else {
+                    light = polygonModel.lightAmbience + polygonModel.vertexIntensity[vertexIndexInModel]
+                            + polygonModel.vertexAmbience[vertexIndexInModel];
+                }
+            }
+
+
+            if (polygonModel.projectedZ[vertexIndexInModel] >= clipNear) {
+
+                band.planeX[plane] = polygonModel.viewX[vertexIndexInModel];
+                band.planeY[plane] = polygonModel.viewY[vertexIndexInModel];
+                band.vertexShade[plane] = light;
+
+                if (polygonModel.projectedZ[vertexIndexInModel] > scene.fogZDistance) {
+                    band.vertexShade[plane] += (polygonModel.projectedZ[vertexIndexInModel] - scene.fogZDistance) / scene.fogZFalloff;
+                }
+                plane++;
+
+            } else {
+
+                int vertEnd;
+
+                if (vertexIndex == 0) {
+                    vertEnd = faceVerts[numVertices - 1];
+                } else {
+                    vertEnd = faceVerts[vertexIndex - 1];
+                }
+
+                if (polygonModel.projectedZ[vertEnd] >= clipNear) {
+                    int k7 = polygonModel.projectedZ[vertexIndexInModel] - polygonModel.projectedZ[vertEnd];
+                    int i5 = polygonModel.projectedX[vertexIndexInModel]
+                            - ((polygonModel.projectedX[vertexIndexInModel] - polygonModel.projectedX[vertEnd])
+                                    * (polygonModel.projectedZ[vertexIndexInModel] - clipNear)) / k7;
+                    int j6 = polygonModel.projectedY[vertexIndexInModel]
+                            - ((polygonModel.projectedY[vertexIndexInModel] - polygonModel.projectedY[vertEnd])
+                                    * (polygonModel.projectedZ[vertexIndexInModel] - clipNear)) / k7;
+                    band.planeX[plane] = (i5 << viewDistance) / clipNear;
+                    band.planeY[plane] = (j6 << viewDistance) / clipNear;
+                    band.vertexShade[plane] = light;
+                    plane++;
+                }
+
+                if (vertexIndex == numVertices - 1) {
+                    vertEnd = faceVerts[0];
+                } else {
+                    vertEnd = faceVerts[vertexIndex + 1];
+                }
+
+                if (polygonModel.projectedZ[vertEnd] >= clipNear) {
+                    int l7 = polygonModel.projectedZ[vertexIndexInModel] - polygonModel.projectedZ[vertEnd];
+                    int j5 = polygonModel.projectedX[vertexIndexInModel]
+                            - ((polygonModel.projectedX[vertexIndexInModel] - polygonModel.projectedX[vertEnd])
+                                    * (polygonModel.projectedZ[vertexIndexInModel] - clipNear)) / l7;
+                    int k6 = polygonModel.projectedY[vertexIndexInModel]
+                            - ((polygonModel.projectedY[vertexIndexInModel] - polygonModel.projectedY[vertEnd])
+                                    * (polygonModel.projectedZ[vertexIndexInModel] - clipNear)) / l7;
+                    band.planeX[plane] = (j5 << viewDistance) / clipNear;
+                    band.planeY[plane] = (k6 << viewDistance) / clipNear;
+                    band.vertexShade[plane] = light;
+                    plane++;
                 }
             }
+        }
 
+        // Determine vertex shade
+        for (int face = 0; face < numVertices; face++) {
+            if (band.vertexShade[face] < 0) {
+                band.vertexShade[face] = 0;
+            } else if (band.vertexShade[face] > 255) {
+                band.vertexShade[face] = 255;
+            }
+            if (polygon.faceFill >= 0) {
+                Texture tex = Resources.textures[polygon.faceFill];
+                if (tex.isLarge()) {
+                    band.vertexShade[face] <<= 9;
+                } else {
+                    band.vertexShade[face] <<= 6;
+                }
+            }
         }
 
-        if (visiblePolygonCount == 0) {
-            // Nothing to render!
+        if (band.depthTested) {
+            calculateDepthPlane(band, numVertices);
+        }
+
+        generateScanlines(0, 0, 0, 0, plane, band.planeX, band.planeY, band.vertexShade, polygonModel, polyFace, band);
+
+        if (band.maxY > band.minY) {
+            int mipLevel = 0;
+            if (mipmapped && polygon.faceFill >= 0) {
+                mipLevel = getMipLevel(polygonModel, faceVerts, numVertices, polygon.faceFill);
+            }
+            rasterize(canvas, band, numVertices, band.vertexX, band.vertexY, band.vertexZ, polygon.faceFill,
+                    mipLevel, polygonModel);
+        }
+    }
+
+    /**
+     * Chooses the mip level at which to draw a textured face.
+     *
+     * <p>Textures are stretched over the parallelogram formed by the first,
+     * second and last vertices of a face, so the number of texels drawn to
+     * each pixel can be found from the projected area of this parallelogram.
+     * The smallest mip level that still has at least one texel per pixel is
+     * chosen.
+     *
+     * @param gameModel
+     * @param faceVerts
+     * @param numVertices
+     * @param textureId
+     * @return
+     */
+    private int getMipLevel(Model gameModel, int faceVerts[], int numVertices, int textureId) {
+
+        int v0 = faceVerts[0];
+        int v1 = faceVerts[1];
+        int v2 = faceVerts[numVertices - 1];
+        if (gameModel.projectedZ[v0] < clipNear
+                || gameModel.projectedZ[v1] < clipNear
+                || gameModel.projectedZ[v2] < clipNear) {
+            // Close enough to be clipped
+            return 0;
+        }
+
+        long dx1 = gameModel.viewX[v1] - gameModel.viewX[v0];
+        long dy1 = gameModel.viewY[v1] - gameModel.viewY[v0];
+        long dx2 = gameModel.viewX[v2] - gameModel.viewX[v0];
+        long dy2 = gameModel.viewY[v2] - gameModel.viewY[v0];
+        long area = Math.abs(dx1 * dy2 - dy1 * dx2);
+
+        int textureSize = Resources.textures[textureId].getSize();
+        long numTexels = textureSize * textureSize;
+        int mipLevel = 0;
+        while (mipLevel < Texture.NUM_MIP_LEVELS - 1 && (numTexels >> 2 * (mipLevel + 1)) >= area) {
+            mipLevel++;
+        }
+        return mipLevel;
+    }
+
+    /**
+     * Calculates the plane of the polygon whose vertices are held by the given
+     * band.
+     *
+     * <p>Depth is stored as 1/z, since unlike z, this varies linearly across
+     * the screen.
+     *
+     * @param band
+     * @param numVertices
+     */
+    private void calculateDepthPlane(RasterBand band, int numVertices) {
+        long x0 = band.vertexX[0];
+        long y0 = band.vertexY[0];
+        long z0 = band.vertexZ[0];
+        long dx1 = band.vertexX[1] - x0;
+        long dy1 = band.vertexY[1] - y0;
+        long dz1 = band.vertexZ[1] - z0;
+        long dx2 = band.vertexX[numVertices - 1] - x0;
+        long dy2 = band.vertexY[numVertices - 1] - y0;
+        long dz2 = band.vertexZ[numVertices - 1] - z0;
+
+        // Normal of the plane
+        long nx = dy1 * dz2 - dz1 * dy2;
+        long ny = dz1 * dx2 - dx1 * dz2;
+        long nz = dx1 * dy2 - dy1 * dx2;
+        long d = nx * x0 + ny * y0 + nz * z0;
+
+        if (d == 0) {
+            // Plane passes through the camera, so it is seen edge-on
+            band.depthOrigin = getDepth((int) z0);
+            band.depthStepX = 0;
+            band.depthStepY = 0;
             return;
         }
 
-        // Sort polygons
-        polygonsQSort(visiblePolygons, 0, visiblePolygonCount - 1);
-        polygonsIntersectSort(100, visiblePolygons, visiblePolygonCount);
+        band.depthOrigin = (nz << 32) / d;
+        band.depthStepX = (nx << 32) / (d << viewDistance);
+        band.depthStepY = (ny << 32) / (d << viewDistance);
+    }
 
-        // Render our polygons!
-        for (int polygonIndex = 0; polygonIndex < visiblePolygonCount; polygonIndex++) {
+    /**
+     * Gets the depth of the current polygon at a point on the screen.
+     *
+     * @param band
+     * @param x Screen position, relative to the centre.
+     * @param y Screen position, relative to the centre.
+     * @return
+     */
+    private static int getDepth(RasterBand band, int x, int y) {
+        long depth = band.depthOrigin + band.depthStepX * x + band.depthStepY * y;
+        return (int) Math.max(0, Math.min(depth, Integer.MAX_VALUE));
+    }
 
-            Polygon polygon = visiblePolygons[polygonIndex];
-            Model polygonModel = polygon.gameModel;
-            int polyFace = polygon.face;
+    /**
+     * Gets the depth of a point at the given distance from the camera.
+     *
+     * @param z
+     * @return
+     */
+    private static int getDepth(int z) {
+        if (z <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) Math.min((1L << 32) / z, Integer.MAX_VALUE);
+    }
 
-            // Is polygon a sprite?
-            if (polygonModel == scene.getSprites()) {
-                renderSprite(polygonModel, polyFace, canvas);
-                continue;
+    private void renderSprite(Model polygonModel, int polyFace,
+            Canvas canvas, RasterBand band) {
+        SpriteEntity spriteEntity = scene.getSpriteEntities()[polyFace];
+        int faceverts[] = polygonModel.faceVertices[polyFace];
+        int face0 = faceverts[0];
+        int vx = polygonModel.viewX[face0];
+        int vy = polygonModel.viewY[face0];
+        int vz = polygonModel.projectedZ[face0];
+        int w = (spriteEntity.getWidth() << viewDistance) / vz;
+        int h = (spriteEntity.getHeight() << viewDistance) / vz;
+        int x = vx - w / 2;
+        int y = (baseY + vy) - h;
+        canvas.spriteClip(x + baseX, y, w, h, spriteEntity.getId(),
+                band.startY, band.endY, band.depthTested ? getDepth(vz) : 0);
+    }
+
+    public void setBounds(int baseX, int baseY, int clipX, int clipY, int width, int viewDistance) {
+        this.clipX = clipX;
+        this.clipY = clipY;
+        this.baseX = baseX;
+        this.baseY = baseY;
+        this.width = width;
+        this.viewDistance = viewDistance;
+
+        screenBand = new RasterBand(0, clipY + baseY, clipY + baseY);
+        createRasterBands();
+
+        mousePicker = new MousePicker(baseX);
+        polygonCacheValid = false;
+        sortedPolygonsValid = false;
+    }
+
+    /**
+     * Sets the size of the area to render to, scaled down from full size.
+     *
+     * <p>The focal length is scaled along with the area, so the same view is
+     * rendered, just at a lower resolution.
+     *
+     * @param width Full width.
+     * @param height Full height.
+     * @param scaleShift Number of times the width and height are halved.
+     */
+    public void setResolution(int width, int height, int scaleShift) {
+        width >>= scaleShift;
+        height >>= scaleShift;
+        setBounds(
+                width / 2, height / 2,
+                width / 2, height / 2,
+                width,
+                VIEW_DISTANCE - scaleShift);
+    }
+
+    private void createRasterBands() {
+        int numScanlines = clipY + baseY;
+        int bandHeight = (numScanlines + numRasterBands - 1) / numRasterBands;
+        rasterBands = new RasterBand[numRasterBands];
+        for (int i = 0; i < numRasterBands; i++) {
+            int startY = Math.min(i * bandHeight, numScanlines);
+            int endY = Math.min(startY + bandHeight, numScanlines);
+            rasterBands[i] = new RasterBand(startY, endY, numScanlines);
+        }
+    }
+
+    private void projectModels(Model[] models, int start, int end) {
+        for (int i = start; i < end; i++) {
+            models[i].project(camera, viewDistance, clipNear);
+        }
+    }
+
+    private void countProjectedModels(Model[] models, int numModels) {
+        numModelsProjected = 0;
+        numModelsCulled = 0;
+        for (int i = 0; i < numModels; i++) {
+            if (models[i].visible) {
+                numModelsProjected++;
+            } else {
+                numModelsCulled++;
+            }
+        }
+    }
+
+    /**
+     * Determines whether the scene's models (excluding sprites) have changed
+     * since the cached polygons were found, either by being re-projected or
+     * by being added to or removed from the scene.
+     *
+     * @param models
+     * @param numModels
+     * @return
+     */
+    private boolean haveModelsChanged(Model[] models, int numModels) {
+        if (cachedModels.length < numModels) {
+            cachedModels = Arrays.copyOf(cachedModels, models.length);
+        }
+
+        boolean changed = numModels != numCachedModels;
+        for (int i = 0; i < numModels; i++) {
+            Model gameModel = models[i];
+            if (gameModel != cachedModels[i] || gameModel.hasProjectionChanged()) {
+                cachedModels[i] = gameModel;
+                changed = true;
+            }
+        }
+
+        // Forget any models that have since been removed
+        for (int i = numModels; i < numCachedModels; i++) {
+            cachedModels[i] = null;
+        }
+        numCachedModels = numModels;
+
+        return changed;
+    }
+
+    /**
+     * Determines whether the scene's sprites have moved or changed size
+     * since the polygons were last sorted.
+     *
+     * <p>The sprites are remembered for next time.
+     *
+     * @return
+     */
+    private boolean haveSpritesChanged() {
+        Model sprites = scene.getSprites();
+        SpriteEntity[] spriteEntities = scene.getSpriteEntities();
+        if (cachedSpriteEntities.length < sprites.numFaces) {
+            cachedSpriteEntities = new SpriteEntity[spriteEntities.length];
+            cachedSpriteWidths = new int[spriteEntities.length];
+            cachedSpriteHeights = new int[spriteEntities.length];
+        }
+
+        boolean changed = sprites.hasProjectionChanged()
+                || sprites.numFaces != numCachedSprites;
+        for (int i = 0; i < sprites.numFaces; i++) {
+            SpriteEntity spriteEntity = spriteEntities[i];
+            if (spriteEntity != cachedSpriteEntities[i]
+                    || spriteEntity.getWidth() != cachedSpriteWidths[i]
+                    || spriteEntity.getHeight() != cachedSpriteHeights[i]) {
+                cachedSpriteEntities[i] = spriteEntity;
+                cachedSpriteWidths[i] = spriteEntity.getWidth();
+                cachedSpriteHeights[i] = spriteEntity.getHeight();
+                changed = true;
             }
+        }
+        numCachedSprites = sprites.numFaces;
+
+        return changed;
+    }
+
+    /**
+     * Gets the number of models that were projected during the last frame.
+     *
+     * @return
+     */
+    public int getNumModelsProjected() {
+        return numModelsProjected;
+    }
 
-            int plane = 0;
-            int light = 0;
-            int numVertices = polygonModel.numVerticesPerFace[polyFace];
-            int faceVerts[] = polygonModel.faceVertices[polyFace];
+    /**
+     * Gets the number of models that were skipped during the last frame for
+     * lying outside the view frustum.
+     *
+     * @return
+     */
+    public int getNumModelsCulled() {
+        return numModelsCulled;
+    }
 
-            // Calculate face lighting
-            if (polygonModel.faceIntensity[polyFace] != Model.USE_GOURAUD_LIGHTING) {
-                if (polygon.visibility < 0) {
-                    light = polygonModel.lightAmbience - polygonModel.faceIntensity[polyFace];
-                } else {
-                    light = polygonModel.lightAmbience + polygonModel.faceIntensity[polyFace];
-                }
-            }
+    /**
+     * Gets the number of polygons that were drawn during the last frame.
+     *
+     * @return
+     */
+    public int getVisiblePolygonCount() {
+        return visiblePolygonCount;
+    }
 
-            // Render all vertices
-            for (int vertexIndex = 0; vertexIndex < numVertices; vertexIndex++) {
+    /**
+     * Gets the time spent projecting models during the last frame, including
+     * frustum culling.
+     *
+     * @return Time, in nanoseconds.
+     */
+    public long getProjectionTime() {
+        return projectionTime;
+    }
 
-                int vertexIndexInModel = faceVerts[vertexIndex];
-                vertexX[vertexIndex] = polygonModel.verticesProjected[vertexIndexInModel].x;
-                vertexY[vertexIndex] = polygonModel.verticesProjected[vertexIndexInModel].y;
-                vertexZ[vertexIndex] = polygonModel.verticesProjected[vertexIndexInModel].z;
+    /**
+     * Gets the time spent deciding which faces are visible during the last
+     * frame.
+     *
+     * @return Time, in nanoseconds.
+     */
+    public long getCullingTime() {
+        return cullingTime;
+    }
 
-                // Calculate vertex lighting for transparent faces
-                if (polygonModel.faceIntensity[polyFace] == Model.USE_GOURAUD_LIGHTING) {
-                    if (polygon.visibility < 0) {
-                        light = (polygonModel.lightAmbience - polygonModel.vertexIntensity[vertexIndexInModel])
-                                + polygonModel.vertexAmbience[vertexIndexInModel];
-                    } else {
-                        light = polygonModel.lightAmbience + polygonModel.vertexIntensity[vertexIndexInModel]
-                                + polygonModel.vertexAmbience[vertexIndexInModel];
-                    }
-                }
+    /**
+     * Gets the time spent sorting polygons during the last frame.
+     *
+     * @return Time, in nanoseconds.
+     */
+    public long getSortingTime() {
+        return sortingTime;
+    }
 
+    /**
+     * Gets the time spent rasterizing polygons during the last frame.
+     *
+     * @return Time, in nanoseconds.
+     */
+    public long getRasterizationTime() {
+        return rasterizationTime;
+    }
 
-                if (polygonModel.verticesProjected[vertexIndexInModel].z >= clipNear) {
+    /**
+     * Enables or disables parallel projection.
+     *
+     * <p>When enabled, models are projected on separate threads, provided
+     * there are enough of them to make this worthwhile. Each model only
+     * touches its own vertices, so the output is identical either way.
+     *
+     * @param parallelProjection
+     */
+    public void setParallelProjection(boolean parallelProjection) {
+        this.parallelProjection = parallelProjection;
+    }
 
-                    planeX[plane] = polygonModel.verticesView[vertexIndexInModel].x;
-                    planeY[plane] = polygonModel.verticesView[vertexIndexInModel].y;
-                    vertexShade[plane] = light;
+    public boolean isParallelProjection() {
+        return parallelProjection;
+    }
 
-                    if (polygonModel.verticesProjected[vertexIndexInModel].z > scene.fogZDistance) {
-                        vertexShade[plane] += (polygonModel.verticesProjected[vertexIndexInModel].z - scene.fogZDistance) / scene.fogZFalloff;
-                    }
-                    plane++;
+    /**
+     * Enables or disables parallel rasterization.
+     *
+     * <p>When enabled, the screen is split into horizontal bands which are
+     * rasterized on separate threads. The output is identical either way.
+     *
+     * @param parallelRaster
+     */
+    public void setParallelRaster(boolean parallelRaster) {
+        this.parallelRaster = parallelRaster;
+    }
 
-                } else {
+    public boolean isParallelRaster() {
+        return parallelRaster;
+    }
 
-                    int vertEnd;
+    /**
+     * Enables or disables depth-buffered rendering.
+     *
+     * <p>When enabled, opaque polygons are tested against a per-pixel depth
+     * buffer instead of being sorted, which is much cheaper when there are
+     * many polygons. Translucent polygons and sprites are still sorted and
+     * drawn back-to-front afterwards, but are also tested against the depth
+     * buffer.
+     *
+     * <p>The output differs slightly from painter's sorting, since overlapping
+     * polygons are resolved per-pixel rather than per-polygon.
+     *
+     * @param depthBuffered
+     */
+    public void setDepthBuffered(boolean depthBuffered) {
+        this.depthBuffered = depthBuffered;
 
-                    if (vertexIndex == 0) {
-                        vertEnd = faceVerts[numVertices - 1];
-                    } else {
-                        vertEnd = faceVerts[vertexIndex - 1];
-                    }
+        // Polygons are sorted differently
+        sortedPolygonsValid = false;
+    }
 
-                    if (polygonModel.verticesProjected[vertEnd].z >= clipNear) {
-                        int k7 = polygonModel.verticesProjected[vertexIndexInModel].z - polygonModel.verticesProjected[vertEnd].z;
-                        int i5 = polygonModel.verticesProjected[vertexIndexInModel].x
-                                - ((polygonModel.verticesProjected[vertexIndexInModel].x - polygonModel.verticesProjected[vertEnd].x)
-                                        * (polygonModel.verticesProjected[vertexIndexInModel].z - clipNear)) / k7;
-                        int j6 = polygonModel.verticesProjected[vertexIndexInModel].y
-                                - ((polygonModel.verticesProjected[vertexIndexInModel].y - polygonModel.verticesProjected[vertEnd].y)
-                                        * (polygonModel.verticesProjected[vertexIndexInModel].z - clipNear)) / k7;
-                        planeX[plane] = (i5 << viewDistance) / clipNear;
-                        planeY[plane] = (j6 << viewDistance) / clipNear;
-                        vertexShade[plane] = light;
-                        plane++;
-                    }
+    public boolean isDepthBuffered() {
+        return depthBuffered;
+    }
 
-                    if (vertexIndex == numVertices - 1) {
-                        vertEnd = faceVerts[0];
-                    } else {
-                        vertEnd = faceVerts[vertexIndex + 1];
-                    }
+    /**
+     * Sets the number of pixels between perspective divides when drawing
+     * textured scanlines.
+     *
+     * <p>Longer subdivisions are faster, but textures may appear to swim
+     * slightly on surfaces seen at a steep angle.
+     *
+     * @param textureSubdivision 8, 16 or 32.
+     */
+    public void setTextureSubdivision(int textureSubdivision) {
+        switch (textureSubdivision) {
+        case 8:
+            textureSubdivisionShift = 3;
+            break;
+        case 16:
+            textureSubdivisionShift = 4;
+            break;
+        case 32:
+            textureSubdivisionShift = 5;
+            break;
+        default:
+            throw new IllegalArgumentException("Invalid texture subdivision: " + textureSubdivision);
+        }
+    }
 
-                    if (polygonModel.verticesProjected[vertEnd].z >= clipNear) {
-                        int l7 = polygonModel.verticesProjected[vertexIndexInModel].z - polygonModel.verticesProjected[vertEnd].z;
-                        int j5 = polygonModel.verticesProjected[vertexIndexInModel].x
-                                - ((polygonModel.verticesProjected[vertexIndexInModel].x - polygonModel.verticesProjected[vertEnd].x)
-                                        * (polygonModel.verticesProjected[vertexIndexInModel].z - clipNear)) / l7;
-                        int k6 = polygonModel.verticesProjected[vertexIndexInModel].y
-                                - ((polygonModel.verticesProjected[vertexIndexInModel].y - polygonModel.verticesProjected[vertEnd].y)
-                                        * (polygonModel.verticesProjected[vertexIndexInModel].z - clipNear)) / l7;
-                        planeX[plane] = (j5 << viewDistance) / clipNear;
-                        planeY[plane] = (k6 << viewDistance) / clipNear;
-                        vertexShade[plane] = light;
-                        plane++;
-                    }
-                }
-            }
+    public int getTextureSubdivision() {
+        return 1 << textureSubdivisionShift;
+    }
 
-            // Determine vertex shade
-            for (int face = 0; face < numVertices; face++) {
-                if (vertexShade[face] < 0) {
-                    vertexShade[face] = 0;
-                } else if (vertexShade[face] > 255) {
-                    vertexShade[face] = 255;
-                }
-                if (polygon.faceFill >= 0) {
-                    Texture tex = Resources.textures[polygon.faceFill];
-                    if (tex.isLarge()) {
-                        vertexShade[face] <<= 9;
-                    } else {
-                        vertexShade[face] <<= 6;
-                    }
-                }
-            }
+    /**
+     * Sets whether distant textured faces should be drawn using smaller mip
+     * levels.
+     *
+     * <p>This reduces the memory traffic and shimmering of textures that are
+     * far from the camera, at the cost of slightly blurrier textures.
+     *
+     * @param mipmapped
+     */
+    public void setMipmapped(boolean mipmapped) {
+        this.mipmapped = mipmapped;
+    }
 
-            generateScanlines(0, 0, 0, 0, plane, planeX, planeY, vertexShade, polygonModel, polyFace);
+    public boolean isMipmapped() {
+        return mipmapped;
+    }
 
-            if (maxY > minY) {
-                rasterize(canvas, numVertices, vertexX, vertexY, vertexZ, polygon.faceFill, polygonModel);
-            }
+    /**
+     * Sets the number of bands used for parallel rasterization.
+     *
+     * @param numRasterBands
+     */
+    public void setNumRasterBands(int numRasterBands) {
+        if (numRasterBands < 1) {
+            numRasterBands = 1;
         }
+        this.numRasterBands = numRasterBands;
+        createRasterBands();
     }
 
-    private void renderSprite(Model polygonModel, int polyFace,
-            Canvas canvas) {
-        SpriteEntity spriteEntity = scene.getSpriteEntities()[polyFace];
-        int faceverts[] = polygonModel.faceVertices[polyFace];
-        int face0 = faceverts[0];
-        int vx = polygonModel.verticesView[face0].x;
-        int vy = polygonModel.verticesView[face0].y;
-        int vz = polygonModel.verticesProjected[face0].z;
-        int w = (spriteEntity.getWidth() << viewDistance) / vz;
-        int h = (spriteEntity.getHeight() << viewDistance) / vz;
-        int x = vx - w / 2;
-        int y = (baseY + vy) - h;
-        canvas.spriteClip(x + baseX, y, w, h, spriteEntity.getId());
-    }
+    /**
+     * Sorts polygons from furthest to nearest.
+     *
+     * <p>This is a least-significant-digit radix sort of the polygons'
+     * indices, keyed on depth, so it runs in linear time. The sort is stable,
+     * and the polygons themselves are only moved once, at the end.
+     *
+     * @param polygons
+     * @param count
+     */
+    private void polygonsRadixSort(Polygon[] polygons, int count) {
 
-    public void setBounds(int baseX, int baseY, int clipX, int clipY, int width, int viewDistance) {
-        this.clipX = clipX;
-        this.clipY = clipY;
-        this.baseX = baseX;
-        this.baseY = baseY;
-        this.width = width;
-        this.viewDistance = viewDistance;
+        if (count < 2) {
+            return;
+        }
 
-        scanlines = new Scanline[clipY + baseY];
-        for (int i = 0; i < clipY + baseY; i++) {
-            scanlines[i] = new Scanline();
+        // Furthest polygons should come first, so sort on distance from the
+        // furthest polygon
+        int minDepth = polygons[0].depth;
+        int maxDepth = minDepth;
+        for (int i = 1; i < count; i++) {
+            int depth = polygons[i].depth;
+            if (depth < minDepth) {
+                minDepth = depth;
+            } else if (depth > maxDepth) {
+                maxDepth = depth;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            sortKeys[i] = maxDepth - polygons[i].depth;
+            sortIndices[i] = i;
         }
 
-        mousePicker = new MousePicker(baseX);
-    }
+        // Sort one digit at a time, only as far as the keys require
+        int range = maxDepth - minDepth;
+        int[] keys = sortKeys;
+        int[] indices = sortIndices;
+        int[] keysOut = sortKeysTmp;
+        int[] indicesOut = sortIndicesTmp;
+        for (int shift = 0; shift == 0 || (range >>> shift) != 0; shift += RADIX_BITS) {
+
+            // Find where each digit starts in the output
+            Arrays.fill(radixCounts, 0);
+            for (int i = 0; i < count; i++) {
+                radixCounts[(keys[i] >>> shift) & RADIX_MASK]++;
+            }
+            int total = 0;
+            for (int digit = 0; digit < RADIX_SIZE; digit++) {
+                int digitCount = radixCounts[digit];
+                radixCounts[digit] = total;
+                total += digitCount;
+            }
+
+            // Distribute keys by digit, preserving order
+            for (int i = 0; i < count; i++) {
+                int key = keys[i];
+                int dest = radixCounts[(key >>> shift) & RADIX_MASK]++;
+                keysOut[dest] = key;
+                indicesOut[dest] = indices[i];
+            }
+
+            int[] tmp = keys;
+            keys = keysOut;
+            keysOut = tmp;
+            tmp = indices;
+            indices = indicesOut;
+            indicesOut = tmp;
+        }
 
-    private static void polygonsQSort(Polygon[] polygons, int low, int high) {
-        if (low < high) {
-            int min = low - 1;
-            int max = high + 1;
-            int mid = (low + high) / 2;
-            Polygon tmp = polygons[mid];
-            polygons[mid] = polygons[low];
-            polygons[low] = tmp;
-            int j1 = tmp.depth;
-            while (min < max) {
-                do {
-                    max--;
-                } while (polygons[max].depth < j1);
-                do {
-                    min++;
-                } while (polygons[min].depth > j1);
-                if (min < max) {
-                    Polygon polygon = polygons[min];
-                    polygons[min] = polygons[max];
-                    polygons[max] = polygon;
-                }
-            }
-            polygonsQSort(polygons, low, max);
-            polygonsQSort(polygons, max + 1, high);
+        // Move the polygons into sorted order
+        for (int i = 0; i < count; i++) {
+            sortedPolygons[i] = polygons[indices[i]];
         }
+        System.arraycopy(sortedPolygons, 0, polygons, 0, count);
     }
 
     private void polygonsIntersectSort(int step, Polygon[] polygons, int count) {
@@ -434,6 +1380,9 @@ public class SoftwareRenderer {
             polygons[k].index = k;
             polygons[k].index2 = -1;
         }
+        for (int k = 0; k < count; k++) {
+            tileMasks[k] = getTileMask(polygons[k]);
+        }
 
         int l = 0;
         do {
@@ -445,12 +1394,17 @@ public class SoftwareRenderer {
             }
             Polygon polygon = polygons[l];
             polygon.skipSomething = true;
+            long polygonTiles = tileMasks[l];
             int i1 = l;
             int j1 = l + step;
             if (j1 >= count) {
                 j1 = count - 1;
             }
             for (int k1 = j1; k1 >= i1 + 1; k1--) {
+                if ((tileMasks[k1] & polygonTiles) == 0) {
+                    // Polygons cannot overlap on screen
+                    continue;
+                }
                 Polygon other = polygons[k1];
                 if (polygon.minPlaneX < other.maxPlaneX && other.minPlaneX < polygon.maxPlaneX
                         && polygon.minPlaneY < other.maxPlaneY && other.minPlaneY < polygon.maxPlaneY
@@ -478,6 +1432,7 @@ public class SoftwareRenderer {
                 }
                 polygons[start] = tmp;
                 polygons[k] = polygon;
+                swapTileMasks(start, k);
                 start = k;
                 if (start == end) {
                     newStart = start;
@@ -494,6 +1449,7 @@ public class SoftwareRenderer {
                 }
                 polygons[end] = entity_3;
                 polygons[l] = polygon2;
+                swapTileMasks(end, l);
                 end = l;
                 if (start == end) {
                     newStart = end + 1;
@@ -515,6 +1471,49 @@ public class SoftwareRenderer {
         } while (true);
     }
 
+    /**
+     * Determines which tiles of the screen a polygon's bounds touch.
+     *
+     * <p>The screen is divided into a grid of {@link #TILE_GRID_SIZE} tiles in
+     * each direction, and each tile is represented by one bit. Polygons whose
+     * bounds overlap always share a tile, so polygons with no tiles in common
+     * can be skipped without examining them further.
+     *
+     * @param polygon
+     * @return
+     */
+    private long getTileMask(Polygon polygon) {
+        int minCol = getTile(polygon.minPlaneX, clipX);
+        int maxCol = getTile(polygon.maxPlaneX, clipX);
+        int minRow = getTile(polygon.minPlaneY, clipY);
+        int maxRow = getTile(polygon.maxPlaneY, clipY);
+        long rowMask = (1L << (maxCol + 1)) - (1L << minCol);
+        long mask = 0;
+        for (int row = minRow; row <= maxRow; row++) {
+            mask |= rowMask << (row * TILE_GRID_SIZE);
+        }
+        return mask;
+    }
+
+    /**
+     * Gets the tile containing a position relative to the centre of the
+     * screen, along one axis.
+     *
+     * @param pos
+     * @param clip Distance from the centre to the edge of the screen.
+     * @return
+     */
+    private static int getTile(int pos, int clip) {
+        int tile = (int) ((long) (pos + clip) * TILE_GRID_SIZE / (clip * 2));
+        return Math.max(0, Math.min(tile, TILE_GRID_SIZE - 1));
+    }
+
+    private void swapTileMasks(int i, int j) {
+        long tmp = tileMasks[i];
+        tileMasks[i] = tileMasks[j];
+        tileMasks[j] = tmp;
+    }
+
     private void generateScanlines(
             int startX,
             int endX,
@@ -525,7 +1524,12 @@ public class SoftwareRenderer {
             int planeY[],
             int vertexShade[],
             Model gameModel,
-            int faceId) {
+            int faceId,
+            RasterBand band) {
+
+        Scanline scanlines[] = band.scanlines;
+        int minY;
+        int maxY;
 
         if (plane == 3) {
 
@@ -538,7 +1542,10 @@ public class SoftwareRenderer {
             int vertexShade0 = vertexShade[0];
             int vertexShade1 = vertexShade[1];
             int vertexShade2 = vertexShade[2];
-            int limitY = (baseY + clipY) - 1;
+
+            // Only walk the rows that fall within this band
+            int topY = band.startY;
+            int limitY = Math.min((baseY + clipY) - 1, band.endY);
 
             int planeXModified1 = 0;
             int gradientPlane_2_0 = 0;
@@ -564,10 +1571,10 @@ public class SoftwareRenderer {
                     specialValue2 = planeY0;
                 }
 
-                if (specialValue1 < 0) {
-                    planeXModified1 -= gradientPlane_2_0 * specialValue1;
-                    vertexShadeModified1 -= shadeGradient_2_0 * specialValue1;
-                    specialValue1 = 0;
+                if (specialValue1 < topY) {
+                    planeXModified1 += gradientPlane_2_0 * (topY - specialValue1);
+                    vertexShadeModified1 += shadeGradient_2_0 * (topY - specialValue1);
+                    specialValue1 = topY;
                 }
 
                 if (specialValue2 > limitY) {
@@ -599,10 +1606,10 @@ public class SoftwareRenderer {
                     specialValue4 = planeY0;
                 }
 
-                if (specialValue3 < 0) {
-                    planeXModified2 -= planeGradient_1_0 * specialValue3;
-                    vertexShadeModified2 -= shadeGradient_1_0 * specialValue3;
-                    specialValue3 = 0;
+                if (specialValue3 < topY) {
+                    planeXModified2 += planeGradient_1_0 * (topY - specialValue3);
+                    vertexShadeModified2 += shadeGradient_1_0 * (topY - specialValue3);
+                    specialValue3 = topY;
                 }
 
                 if (specialValue4 > limitY) {
@@ -634,10 +1641,10 @@ public class SoftwareRenderer {
                     specialValue6 = planeY1;
                 }
 
-                if (specialValue5 < 0) {
-                    planeXModified3 -= planeGradient_2_1 * specialValue5;
-                    vertexShadeModified3 -= shadeGradient_2_1 * specialValue5;
-                    specialValue5 = 0;
+                if (specialValue5 < topY) {
+                    planeXModified3 += planeGradient_2_1 * (topY - specialValue5);
+                    vertexShadeModified3 += shadeGradient_2_1 * (topY - specialValue5);
+                    specialValue5 = topY;
                 }
 
                 if (specialValue6 > limitY) {
@@ -726,7 +1733,10 @@ public class SoftwareRenderer {
             int k12 = vertexShade[1];
             int i13 = vertexShade[2];
             int k13 = vertexShade[3];
-            int i14 = (baseY + clipY) - 1;
+
+            // Only walk the rows that fall within this band
+            int topY = band.startY;
+            int i14 = Math.min((baseY + clipY) - 1, band.endY);
             int k14 = 0;
             int i15 = 0;
             int k15 = 0;
@@ -750,10 +1760,10 @@ public class SoftwareRenderer {
                     i17 = l1;
                 }
 
-                if (k16 < 0) {
-                    k14 -= i15 * k16;
-                    k15 -= i16 * k16;
-                    k16 = 0;
+                if (k16 < topY) {
+                    k14 += i15 * (topY - k16);
+                    k15 += i16 * (topY - k16);
+                    k16 = topY;
                 }
 
                 if (i17 > i14) {
@@ -783,10 +1793,10 @@ public class SoftwareRenderer {
                     i20 = l1;
                 }
 
-                if (k19 < 0) {
-                    k17 -= i18 * k19;
-                    k18 -= i19 * k19;
-                    k19 = 0;
+                if (k19 < topY) {
+                    k17 += i18 * (topY - k19);
+                    k18 += i19 * (topY - k19);
+                    k19 = topY;
                 }
 
                 if (i20 > i14) {
@@ -817,10 +1827,10 @@ public class SoftwareRenderer {
                     k22 = l2;
                 }
 
-                if (j22 < 0) {
-                    k20 -= i21 * j22;
-                    k21 -= i22 * j22;
-                    j22 = 0;
+                if (j22 < topY) {
+                    k20 += i21 * (topY - j22);
+                    k21 += i22 * (topY - j22);
+                    j22 = topY;
                 }
 
                 if (k22 > i14) {
@@ -851,10 +1861,10 @@ public class SoftwareRenderer {
                     i24 = l3;
                 }
 
-                if (l23 < 0) {
-                    l22 -= i23 * l23;
-                    j23 -= k23 * l23;
-                    l23 = 0;
+                if (l23 < topY) {
+                    l22 += i23 * (topY - l23);
+                    j23 += k23 * (topY - l23);
+                    l23 = topY;
                 }
 
                 if (i24 > i14) {
@@ -968,7 +1978,18 @@ public class SoftwareRenderer {
                 maxY = (baseY + clipY) - 1;
             }
 
+            // Only walk the rows that fall within this band
+            if (minY < band.startY) {
+                minY = band.startY;
+            }
+
+            if (maxY > band.endY) {
+                maxY = band.endY;
+            }
+
             if (minY >= maxY) {
+                band.minY = minY;
+                band.maxY = maxY;
                 return;
             }
 
@@ -989,10 +2010,10 @@ public class SoftwareRenderer {
                 int l7 = vertexShade[0] << 8;
                 int j9 = (vertexShade[j2] - vertexShade[0] << 8) / (i4 - i3);
 
-                if (i3 < 0) {
-                    i5 -= j6 * i3;
-                    l7 -= j9 * i3;
-                    i3 = 0;
+                if (i3 < minY) {
+                    i5 += j6 * (minY - i3);
+                    l7 += j9 * (minY - i3);
+                    i3 = minY;
                 }
 
                 if (i4 > maxY) {
@@ -1014,10 +2035,10 @@ public class SoftwareRenderer {
                 int i8 = vertexShade[j2] << 8;
                 int k9 = (vertexShade[0] - vertexShade[j2] << 8) / (i3 - i4);
 
-                if (i4 < 0) {
-                    j5 -= k6 * i4;
-                    i8 -= k9 * i4;
-                    i4 = 0;
+                if (i4 < minY) {
+                    j5 += k6 * (minY - i4);
+                    i8 += k9 * (minY - i4);
+                    i4 = minY;
                 }
 
                 if (i3 > maxY) {
@@ -1046,10 +2067,10 @@ public class SoftwareRenderer {
                     int l9 = vertexShade[y] << 8;
                     int l10 = (vertexShade[k5] - vertexShade[y] << 8) / (j4 - j3);
 
-                    if (j3 < 0) {
-                        l6 -= j8 * j3;
-                        l9 -= l10 * j3;
-                        j3 = 0;
+                    if (j3 < minY) {
+                        l6 += j8 * (minY - j3);
+                        l9 += l10 * (minY - j3);
+                        j3 = minY;
                     }
 
                     if (j4 > maxY) {
@@ -1080,10 +2101,10 @@ public class SoftwareRenderer {
                     int i10 = vertexShade[k5] << 8;
                     int i11 = (vertexShade[y] - vertexShade[k5] << 8) / (j3 - j4);
 
-                    if (j4 < 0) {
-                        i7 -= k8 * j4;
-                        i10 -= i11 * j4;
-                        j4 = 0;
+                    if (j4 < minY) {
+                        i7 += k8 * (minY - j4);
+                        i10 += i11 * (minY - j4);
+                        j4 = minY;
                     }
 
                     if (j3 > maxY) {
@@ -1115,6 +2136,9 @@ public class SoftwareRenderer {
             }
         }
 
+        band.minY = minY;
+        band.maxY = maxY;
+
         /*
          * Mouse Picking
          */
@@ -1122,24 +2146,63 @@ public class SoftwareRenderer {
         int mouseX = mousePicker.getMouseX();
         int mouseY = mousePicker.getMouseY();
 
+        // Only one band may pick any given row
+        if (mouseY < band.startY || mouseY >= band.endY) {
+            return;
+        }
+
         if (mouseY >= minY && mouseY < maxY) {
             Scanline scanline = scanlines[mouseY];
             if (mouseX >= scanline.startX >> 8 &&
                     mouseX <= scanline.endX >> 8 &&
                     scanline.startX <= scanline.endX &&
-                    !gameModel.unpickable) {
+                    !gameModel.unpickable &&
+                    isVisible(band, mouseX, mouseY)) {
                 mousePicker.add(gameModel, faceId);
             }
         }
     }
 
-    private void rasterize(Canvas canvas, int numFaces, int vertexX[], int vertexY[], int vertexZ[], int textureId, Model gameModel) {
+    /**
+     * Determines whether the current polygon is in front of everything drawn
+     * so far at the given point.
+     *
+     * <p>If not depth-buffered, polygons are drawn back-to-front, so this is
+     * always the case.
+     *
+     * @param band
+     * @param x Screen position, relative to the centre.
+     * @param y Screen row.
+     * @return
+     */
+    private boolean isVisible(RasterBand band, int x, int y) {
+        if (!band.depthTested) {
+            return true;
+        }
+        return getDepth(band, x, y - baseY) >= depthBuffer[baseX + x + y * width];
+    }
+
+    private void rasterize(Canvas canvas, RasterBand band, int numFaces, int vertexX[], int vertexY[], int vertexZ[], int textureId,
+            int mipLevel, Model gameModel) {
+
+        Scanline scanlines[] = band.scanlines;
+
+        // Only draw the rows that fall within this band
+        int minY = Math.max(band.minY, band.startY);
+        int maxY = Math.min(band.maxY, band.endY);
+        if (minY >= maxY) {
+            return;
+        }
 
         if (textureId == -2) {
             // Transparent
             return;
         }
 
+        // Change in depth from one pixel to the next, if depth-buffered
+        int depthStride = (int) Math.max(Integer.MIN_VALUE + 1,
+                Math.min(band.depthStepX, Integer.MAX_VALUE));
+
         if (textureId >= 0) {
 
             if (textureId >= Resources.textures.length) {
@@ -1149,6 +2212,14 @@ public class SoftwareRenderer {
 
             Resources.prepareTexture(textureId);
             Texture tex = Resources.textures[textureId];
+            int texturePixels[] = tex.getMipmap(mipLevel);
+
+            int blend = Canvas.TEXTURE_OPAQUE;
+            if (gameModel.translucent) {
+                blend = Canvas.TEXTURE_TRANSLUCENT;
+            } else if (tex.hasTransparency()) {
+                blend = Canvas.TEXTURE_TRANSPARENT;
+            }
 
             int x1 = vertexX[0];
             int y1 = vertexY[0];
@@ -1184,149 +2255,52 @@ public class SoftwareRenderer {
                 k11 += k12 * i16;
                 i13 += i14 * i16;
 
-                /*
-                 * Translucent textures
-                 */
-
-                if (gameModel.translucent) {
-                    for (int i = minY; i < maxY; i++) {
-                        Scanline scanline = scanlines[i];
-                        int scanlineStartX = scanline.startX >> 8;
-                        int k17 = scanline.endX >> 8;
-                        int k20 = k17 - scanlineStartX;
-                        if (k20 <= 0) {
-                            l9 += i11;
-                            k11 += k12;
-                            i13 += i14;
-                            i17 += width;
-                        } else {
-                            int i22 = scanline.startS;
-                            int k23 = (scanline.endS - i22) / k20;
-                            if (scanlineStartX < -clipX) {
-                                i22 += (-clipX - scanlineStartX) * k23;
-                                scanlineStartX = -clipX;
-                                k20 = k17 - scanlineStartX;
-                            }
-                            if (k17 > clipX) {
-                                int l17 = clipX;
-                                k20 = l17 - scanlineStartX;
-                            }
-                            canvas.renderScanline_LargeTranslucentTexture(
-                                    tex.pixels,
-                                    0,
-                                    0,
-                                    l9 + k14 * scanlineStartX,
-                                    k11 + i15 * scanlineStartX,
-                                    i13 + k15 * scanlineStartX,
-                                    k10,
-                                    i12,
-                                    k13,
-                                    k20,
-                                    i17 + scanlineStartX,
-                                    i22,
-                                    k23 << 2);
-                            l9 += i11;
-                            k11 += k12;
-                            i13 += i14;
-                            i17 += width;
-                        }
-                    }
-
-                    return;
-                }
-
-                /*
-                 * Solid textures
-                 */
-
-                if (!tex.hasTransparency()) {
-                    for (int i = minY; i < maxY; i++) {
-                        Scanline scanline = scanlines[i];
-                        int scanlineStartX = scanline.startX >> 8;
-                        int i18 = scanline.endX >> 8;
-                        int l20 = i18 - scanlineStartX;
-                        if (l20 <= 0) {
-                            l9 += i11;
-                            k11 += k12;
-                            i13 += i14;
-                            i17 += width;
-                        } else {
-                            int j22 = scanline.startS;
-                            int l23 = (scanline.endS - j22) / l20;
-                            if (scanlineStartX < -clipX) {
-                                j22 += (-clipX - scanlineStartX) * l23;
-                                scanlineStartX = -clipX;
-                                l20 = i18 - scanlineStartX;
-                            }
-                            if (i18 > clipX) {
-                                int j18 = clipX;
-                                l20 = j18 - scanlineStartX;
-                            }
-                            canvas.renderScanline_LargeTexture(
-                                    tex.pixels,
-                                    0,
-                                    0,
-                                    l9 + k14 * scanlineStartX,
-                                    k11 + i15 * scanlineStartX,
-                                    i13 + k15 * scanlineStartX,
-                                    k10,
-                                    i12,
-                                    k13,
-                                    l20,
-                                    i17 + scanlineStartX,
-                                    j22,
-                                    l23 << 2);
-                            l9 += i11;
-                            k11 += k12;
-                            i13 += i14;
-                            i17 += width;
-                        }
-                    }
-
-                    return;
-                }
-
-                /*
-                 * Textures with transparency
-                 */
-
                 for (int i = minY; i < maxY; i++) {
                     Scanline scanline = scanlines[i];
                     int scanlineStartX = scanline.startX >> 8;
-                    int k18 = scanline.endX >> 8;
-                    int i21 = k18 - scanlineStartX;
-                    if (i21 <= 0) {
+                    int k17 = scanline.endX >> 8;
+                    int k20 = k17 - scanlineStartX;
+                    if (k20 <= 0) {
                         l9 += i11;
                         k11 += k12;
                         i13 += i14;
                         i17 += width;
                     } else {
-                        int k22 = scanline.startS;
-                        int i24 = (scanline.endS - k22) / i21;
+                        int i22 = scanline.startS;
+                        int k23 = (scanline.endS - i22) / k20;
                         if (scanlineStartX < -clipX) {
-                            k22 += (-clipX - scanlineStartX) * i24;
+                            i22 += (-clipX - scanlineStartX) * k23;
                             scanlineStartX = -clipX;
-                            i21 = k18 - scanlineStartX;
+                            k20 = k17 - scanlineStartX;
+                        }
+                        if (k17 > clipX) {
+                            int l17 = clipX;
+                            k20 = l17 - scanlineStartX;
                         }
-                        if (k18 > clipX) {
-                            int l18 = clipX;
-                            i21 = l18 - scanlineStartX;
+                        int depth = band.depthTested ? getDepth(band, scanlineStartX, i - baseY) : 0;
+                        if (!band.depthTested || canvas.beginDepthTestedScanline(
+                                k20, i17 + scanlineStartX, depth, depthStride, band.savedPixels)) {
+                            canvas.renderScanline_Texture(
+                                    texturePixels,
+                                    Canvas.LARGE_TEXTURE_SHIFT,
+                                    mipLevel,
+                                    blend,
+                                    l9 + k14 * scanlineStartX,
+                                    k11 + i15 * scanlineStartX,
+                                    i13 + k15 * scanlineStartX,
+                                    k10,
+                                    i12,
+                                    k13,
+                                    k20,
+                                    i17 + scanlineStartX,
+                                    i22,
+                                    k23,
+                                    textureSubdivisionShift);
+                            if (band.depthTested) {
+                                canvas.endDepthTestedScanline(k20, i17 + scanlineStartX, depth, depthStride,
+                                        band.savedPixels, band.depthWrite);
+                            }
                         }
-                        canvas.renderScanline_LargeTextureWithTransparency(
-                                0,
-                                0,
-                                0,
-                                tex.pixels,
-                                l9 + k14 * scanlineStartX,
-                                k11 + i15 * scanlineStartX,
-                                i13 + k15 * scanlineStartX,
-                                k10,
-                                i12,
-                                k13,
-                                i21,
-                                i17 + scanlineStartX,
-                                k22,
-                                i24);
                         l9 += i11;
                         k11 += k12;
                         i13 += i14;
@@ -1360,148 +2334,52 @@ public class SoftwareRenderer {
             l11 += l12 * j16;
             j13 += j14 * j16;
 
-            /*
-             * Translucent textures
-             */
-
-            if (gameModel.translucent) {
-                for (int i = minY; i < maxY; i++) {
-                    Scanline scanline = scanlines[i];
-                    int scanlineStartX = scanline.startX >> 8;
-                    int i19 = scanline.endX >> 8;
-                    int j21 = i19 - scanlineStartX;
-                    if (j21 <= 0) {
-                        i10 += j11;
-                        l11 += l12;
-                        j13 += j14;
-                        j17 += l16;
-                    } else {
-                        int l22 = scanline.startS;
-                        int j24 = (scanline.endS - l22) / j21;
-                        if (scanlineStartX < -clipX) {
-                            l22 += (-clipX - scanlineStartX) * j24;
-                            scanlineStartX = -clipX;
-                            j21 = i19 - scanlineStartX;
-                        }
-                        if (i19 > clipX) {
-                            int j19 = clipX;
-                            j21 = j19 - scanlineStartX;
-                        }
-                        canvas.renderScanline_SmallTranslucentTexture(
-                                tex.pixels,
-                                0,
-                                0,
-                                i10 + l14 * scanlineStartX,
-                                l11 + j15 * scanlineStartX,
-                                j13 + l15 * scanlineStartX,
-                                l10,
-                                j12,
-                                l13,
-                                j21,
-                                j17 + scanlineStartX,
-                                l22,
-                                j24);
-                        i10 += j11;
-                        l11 += l12;
-                        j13 += j14;
-                        j17 += l16;
-                    }
-                }
-
-                return;
-            }
-
-            /*
-             * Solid textures
-             */
-
-            if (!tex.hasTransparency()) {
-                for (int i = minY; i < maxY; i++) {
-                    Scanline scanline = scanlines[i];
-                    int scanlineStartX = scanline.startX >> 8;
-                    int k19 = scanline.endX >> 8;
-                    int k21 = k19 - scanlineStartX;
-                    if (k21 <= 0) {
-                        i10 += j11;
-                        l11 += l12;
-                        j13 += j14;
-                        j17 += l16;
-                        continue;
-                    }
-
-                    int i23 = scanline.startS;
-                    int k24 = (scanline.endS - i23) / k21;
-                    if (scanlineStartX < -clipX) {
-                        i23 += (-clipX - scanlineStartX) * k24;
-                        scanlineStartX = -clipX;
-                        k21 = k19 - scanlineStartX;
-                    }
-                    if (k19 > clipX) {
-                        int l19 = clipX;
-                        k21 = l19 - scanlineStartX;
-                    }
-
-                    canvas.renderScanline_SmallTexture(
-                            tex.pixels,
-                            0,
-                            0,
-                            i10 + l14 * scanlineStartX,
-                            l11 + j15 * scanlineStartX,
-                            j13 + l15 * scanlineStartX,
-                            l10,
-                            j12,
-                            l13,
-                            k21,
-                            j17 + scanlineStartX,
-                            i23,
-                            k24);
-
-                    i10 += j11;
-                    l11 += l12;
-                    j13 += j14;
-                    j17 += l16;
-                }
-                return;
-            }
-
-            /*
-             * Textures with transparency
-             */
-
             for (int i = minY; i < maxY; i++) {
                 Scanline scanline = scanlines[i];
                 int scanlineStartX = scanline.startX >> 8;
-                int i20 = scanline.endX >> 8;
-                int l21 = i20 - scanlineStartX;
-                if (l21 <= 0) {
+                int i19 = scanline.endX >> 8;
+                int j21 = i19 - scanlineStartX;
+                if (j21 <= 0) {
                     i10 += j11;
                     l11 += l12;
                     j13 += j14;
                     j17 += l16;
                 } else {
-                    int j23 = scanline.startS;
-                    int l24 = (scanline.endS - j23) / l21;
+                    int l22 = scanline.startS;
+                    int j24 = (scanline.endS - l22) / j21;
                     if (scanlineStartX < -clipX) {
-                        j23 += (-clipX - scanlineStartX) * l24;
+                        l22 += (-clipX - scanlineStartX) * j24;
                         scanlineStartX = -clipX;
-                        l21 = i20 - scanlineStartX;
+                        j21 = i19 - scanlineStartX;
+                    }
+                    if (i19 > clipX) {
+                        int j19 = clipX;
+                        j21 = j19 - scanlineStartX;
                     }
-                    if (i20 > clipX) {
-                        int j20 = clipX;
-                        l21 = j20 - scanlineStartX;
+                    int depth = band.depthTested ? getDepth(band, scanlineStartX, i - baseY) : 0;
+                    if (!band.depthTested || canvas.beginDepthTestedScanline(
+                            j21, j17 + scanlineStartX, depth, depthStride, band.savedPixels)) {
+                        canvas.renderScanline_Texture(
+                                texturePixels,
+                                Canvas.SMALL_TEXTURE_SHIFT,
+                                mipLevel,
+                                blend,
+                                i10 + l14 * scanlineStartX,
+                                l11 + j15 * scanlineStartX,
+                                j13 + l15 * scanlineStartX,
+                                l10,
+                                j12,
+                                l13,
+                                j21,
+                                j17 + scanlineStartX,
+                                l22,
+                                j24,
+                                textureSubdivisionShift);
+                        if (band.depthTested) {
+                            canvas.endDepthTestedScanline(j21, j17 + scanlineStartX, depth, depthStride,
+                                    band.savedPixels, band.depthWrite);
+                        }
                     }
-                    canvas.renderScanline_SmallTextureWithTransparency(
-                            tex.pixels,
-                            i10 + l14 * scanlineStartX,
-                            l11 + j15 * scanlineStartX,
-                            j13 + l15 * scanlineStartX,
-                            l10,
-                            j12,
-                            l13,
-                            l21,
-                            j17 + scanlineStartX,
-                            j23,
-                            l24);
                     i10 += j11;
                     l11 += l12;
                     j13 += j14;
@@ -1513,13 +2391,13 @@ public class SoftwareRenderer {
         }
 
         for (int j1 = 0; j1 < rampCount; j1++) {
-            if (gradientBase[j1] == textureId) {
-                currentGradientRamps = gradientRamps[j1];
+            if (band.gradientBase[j1] == textureId) {
+                band.currentGradientRamps = band.gradientRamps[j1];
                 break;
             }
             if (j1 == rampCount - 1) {
                 int l1 = (int) (Math.random() * rampCount);
-                gradientBase[l1] = textureId;
+                band.gradientBase[l1] = textureId;
                 textureId = -1 - textureId;
                 int k2 = (textureId >> 10 & 0x1f) * 8;
                 int j3 = (textureId >> 5 & 0x1f) * 8;
@@ -1529,10 +2407,10 @@ public class SoftwareRenderer {
                     int k7 = (k2 * j6) / 0x10000;
                     int l8 = (j3 * j6) / 0x10000;
                     int j10 = (l3 * j6) / 0x10000;
-                    gradientRamps[l1][255 - j4] = (k7 << 16) + (l8 << 8) + j10;
+                    band.gradientRamps[l1][255 - j4] = (k7 << 16) + (l8 << 8) + j10;
                 }
 
-                currentGradientRamps = gradientRamps[l1];
+                band.currentGradientRamps = band.gradientRamps[l1];
             }
         }
 
@@ -1559,12 +2437,23 @@ public class SoftwareRenderer {
                     if (k4 > clipX) {
                         length = clipX - scanlineStartX;
                     }
-                    canvas.renderScanline_TranslucentGradient(
-                            length,
-                            rowStart + scanlineStartX,
-                            currentGradientRamps,
-                            gradientIndex,
-                            stride * 4);
+                    if (band.depthTested) {
+                        canvas.renderScanline_DepthTestedTranslucentGradient(
+                                length,
+                                rowStart + scanlineStartX,
+                                band.currentGradientRamps,
+                                gradientIndex,
+                                stride * 4,
+                                getDepth(band, scanlineStartX, i - baseY),
+                                depthStride);
+                    } else {
+                        canvas.renderScanline_TranslucentGradient(
+                                length,
+                                rowStart + scanlineStartX,
+                                band.currentGradientRamps,
+                                gradientIndex,
+                                stride * 4);
+                    }
                     rowStart += width;
                 }
             }
@@ -1592,12 +2481,23 @@ public class SoftwareRenderer {
                     length = l5 - scanlineStartX;
                 }
 
-                canvas.renderScanline_Gradient(
-                        length,
-                        rowStart + scanlineStartX,
-                        currentGradientRamps,
-                        gradientIndex,
-                        stride * 4);
+                if (band.depthTested) {
+                    canvas.renderScanline_DepthTestedGradient(
+                            length,
+                            rowStart + scanlineStartX,
+                            band.currentGradientRamps,
+                            gradientIndex,
+                            stride * 4,
+                            getDepth(band, scanlineStartX, i - baseY),
+                            depthStride);
+                } else {
+                    canvas.renderScanline_Gradient(
+                            length,
+                            rowStart + scanlineStartX,
+                            band.currentGradientRamps,
+                            gradientIndex,
+                            stride * 4);
+                }
 
                 rowStart += width;
             }
@@ -1611,15 +2511,15 @@ public class SoftwareRenderer {
         int faceVertices[] = gameModel.faceVertices[face];
         int faceNumVertices = gameModel.numVerticesPerFace[face];
         int faceCameraNormalScale = gameModel.faceCameraNormalScale[face];
-        int vcx = gameModel.verticesProjected[faceVertices[0]].x;
-        int vcy = gameModel.verticesProjected[faceVertices[0]].y;
-        int vcz = gameModel.verticesProjected[faceVertices[0]].z;
-        int vcx1 = gameModel.verticesProjected[faceVertices[1]].x - vcx;
-        int vcy1 = gameModel.verticesProjected[faceVertices[1]].y - vcy;
-        int vcz1 = gameModel.verticesProjected[faceVertices[1]].z - vcz;
-        int vcx2 = gameModel.verticesProjected[faceVertices[2]].x - vcx;
-        int vcy2 = gameModel.verticesProjected[faceVertices[2]].y - vcy;
-        int vcz2 = gameModel.verticesProjected[faceVertices[2]].z - vcz;
+        int vcx = gameModel.projectedX[faceVertices[0]];
+        int vcy = gameModel.projectedY[faceVertices[0]];
+        int vcz = gameModel.projectedZ[faceVertices[0]];
+        int vcx1 = gameModel.projectedX[faceVertices[1]] - vcx;
+        int vcy1 = gameModel.projectedY[faceVertices[1]] - vcy;
+        int vcz1 = gameModel.projectedZ[faceVertices[1]] - vcz;
+        int vcx2 = gameModel.projectedX[faceVertices[2]] - vcx;
+        int vcy2 = gameModel.projectedY[faceVertices[2]] - vcy;
+        int vcz2 = gameModel.projectedZ[faceVertices[2]] - vcz;
         int k3 = vcy1 * vcz2 - vcy2 * vcz1;
         int l3 = vcz1 * vcx2 - vcz2 * vcx1;
         int i4 = vcx1 * vcy2 - vcx2 * vcy1;
@@ -1642,26 +2542,26 @@ public class SoftwareRenderer {
         polygon.normalX = k3;
         polygon.normalY = l3;
         polygon.normalZ = i4;
-        int j4 = gameModel.verticesProjected[faceVertices[0]].z;
+        int j4 = gameModel.projectedZ[faceVertices[0]];
         int k4 = j4;
-        int l4 = gameModel.verticesView[faceVertices[0]].x;
+        int l4 = gameModel.viewX[faceVertices[0]];
         int i5 = l4;
-        int j5 = gameModel.verticesView[faceVertices[0]].y;
+        int j5 = gameModel.viewY[faceVertices[0]];
         int k5 = j5;
         for (int l5 = 1; l5 < faceNumVertices; l5++) {
-            int i1 = gameModel.verticesProjected[faceVertices[l5]].z;
+            int i1 = gameModel.projectedZ[faceVertices[l5]];
             if (i1 > k4) {
                 k4 = i1;
             } else if (i1 < j4) {
                 j4 = i1;
             }
-            i1 = gameModel.verticesView[faceVertices[l5]].x;
+            i1 = gameModel.viewX[faceVertices[l5]];
             if (i1 > i5) {
                 i5 = i1;
             } else if (i1 < l4) {
                 l4 = i1;
             }
-            i1 = gameModel.verticesView[faceVertices[l5]].y;
+            i1 = gameModel.viewY[faceVertices[l5]];
             if (i1 > k5) {
                 k5 = i1;
             } else if (i1 < j5) {
@@ -1685,39 +2585,39 @@ public class SoftwareRenderer {
         int l = 0;
         int i1 = 0;
         int j1 = 1;
-        int vx = gameModel.verticesProjected[faceVertices[0]].x;
-        int vy = gameModel.verticesProjected[faceVertices[0]].y;
-        int vz = gameModel.verticesProjected[faceVertices[0]].z;
+        int vx = gameModel.projectedX[faceVertices[0]];
+        int vy = gameModel.projectedY[faceVertices[0]];
+        int vz = gameModel.projectedZ[faceVertices[0]];
         gameModel.faceCameraNormalMagnitude[face] = 1;
         gameModel.faceCameraNormalScale[face] = 0;
         polygon.visibility = vx * l + vy * i1 + vz * j1;
         polygon.normalX = l;
         polygon.normalY = i1;
         polygon.normalZ = j1;
-        int j2 = gameModel.verticesProjected[faceVertices[0]].z;
+        int j2 = gameModel.projectedZ[faceVertices[0]];
         int k2 = j2;
-        int l2 = gameModel.verticesView[faceVertices[0]].x;
+        int l2 = gameModel.viewX[faceVertices[0]];
         int i3 = l2;
-        if (gameModel.verticesView[faceVertices[1]].x < l2) {
-            l2 = gameModel.verticesView[faceVertices[1]].x;
+        if (gameModel.viewX[faceVertices[1]] < l2) {
+            l2 = gameModel.viewX[faceVertices[1]];
         } else {
-            i3 = gameModel.verticesView[faceVertices[1]].x;
+            i3 = gameModel.viewX[faceVertices[1]];
         }
-        int j3 = gameModel.verticesView[faceVertices[1]].y;
-        int k3 = gameModel.verticesView[faceVertices[0]].y;
-        int k = gameModel.verticesProjected[faceVertices[1]].z;
+        int j3 = gameModel.viewY[faceVertices[1]];
+        int k3 = gameModel.viewY[faceVertices[0]];
+        int k = gameModel.projectedZ[faceVertices[1]];
         if (k > k2) {
             k2 = k;
         } else if (k < j2) {
             j2 = k;
         }
-        k = gameModel.verticesView[faceVertices[1]].x;
+        k = gameModel.viewX[faceVertices[1]];
         if (k > i3) {
             i3 = k;
         } else if (k < l2) {
             l2 = k;
         }
-        k = gameModel.verticesView[faceVertices[1]].y;
+        k = gameModel.viewY[faceVertices[1]];
         if (k > k3) {
             k3 = k;
         } else if (k < j3) {
@@ -1758,9 +2658,9 @@ public class SoftwareRenderer {
         int ai1[] = model_1.faceVertices[j];
         int k = gameModel.numVerticesPerFace[i];
         int l = model_1.numVerticesPerFace[j];
-        int k2 = model_1.verticesProjected[ai1[0]].x;
-        int l2 = model_1.verticesProjected[ai1[0]].y;
-        int i3 = model_1.verticesProjected[ai1[0]].z;
+        int k2 = model_1.projectedX[ai1[0]];
+        int l2 = model_1.projectedY[ai1[0]];
+        int i3 = model_1.projectedZ[ai1[0]];
         int j3 = polygon2.normalX;
         int k3 = polygon2.normalY;
         int l3 = polygon2.normalZ;
@@ -1769,8 +2669,8 @@ public class SoftwareRenderer {
         boolean flag = false;
         for (int k4 = 0; k4 < k; k4++) {
             int i1 = ai[k4];
-            int i2 = (k2 - gameModel.verticesProjected[i1].x) * j3 + (l2 - gameModel.verticesProjected[i1].y) * k3
-                    + (i3 - gameModel.verticesProjected[i1].z) * l3;
+            int i2 = (k2 - gameModel.projectedX[i1]) * j3 + (l2 - gameModel.projectedY[i1]) * k3
+                    + (i3 - gameModel.projectedZ[i1]) * l3;
             if ((i2 >= -i4 || j4 >= 0) && (i2 <= i4 || j4 <= 0)) {
                 continue;
             }
@@ -1781,9 +2681,9 @@ public class SoftwareRenderer {
         if (!flag) {
             return true;
         }
-        k2 = gameModel.verticesProjected[ai[0]].x;
-        l2 = gameModel.verticesProjected[ai[0]].y;
-        i3 = gameModel.verticesProjected[ai[0]].z;
+        k2 = gameModel.projectedX[ai[0]];
+        l2 = gameModel.projectedY[ai[0]];
+        i3 = gameModel.projectedZ[ai[0]];
         j3 = polygon1.normalX;
         k3 = polygon1.normalY;
         l3 = polygon1.normalZ;
@@ -1792,8 +2692,8 @@ public class SoftwareRenderer {
         flag = false;
         for (int l4 = 0; l4 < l; l4++) {
             int j1 = ai1[l4];
-            int j2 = (k2 - model_1.verticesProjected[j1].x) * j3 + (l2 - model_1.verticesProjected[j1].y) * k3
-                    + (i3 - model_1.verticesProjected[j1].z) * l3;
+            int j2 = (k2 - model_1.projectedX[j1]) * j3 + (l2 - model_1.projectedY[j1]) * k3
+                    + (i3 - model_1.projectedZ[j1]) * l3;
             if ((j2 >= -i4 || j4 <= 0) && (j2 <= i4 || j4 >= 0)) {
                 continue;
             }
@@ -1804,53 +2704,62 @@ public class SoftwareRenderer {
         if (!flag) {
             return true;
         }
-        int ai2[];
-        int ai3[];
+        int outlineSize1 = k == 2 ? 4 : k;
+        int outlineSize2 = l == 2 ? 4 : l;
+        ensureOutlineCapacity(Math.max(outlineSize1, outlineSize2));
+        int ai2[] = outlineX1;
+        int ai3[] = outlineY1;
         if (k == 2) {
-            ai2 = new int[4];
-            ai3 = new int[4];
             int i5 = ai[0];
             int k1 = ai[1];
-            ai2[0] = gameModel.verticesView[i5].x - 20;
-            ai2[1] = gameModel.verticesView[k1].x - 20;
-            ai2[2] = gameModel.verticesView[k1].x + 20;
-            ai2[3] = gameModel.verticesView[i5].x + 20;
-            ai3[0] = ai3[3] = gameModel.verticesView[i5].y;
-            ai3[1] = ai3[2] = gameModel.verticesView[k1].y;
+            ai2[0] = gameModel.viewX[i5] - 20;
+            ai2[1] = gameModel.viewX[k1] - 20;
+            ai2[2] = gameModel.viewX[k1] + 20;
+            ai2[3] = gameModel.viewX[i5] + 20;
+            ai3[0] = ai3[3] = gameModel.viewY[i5];
+            ai3[1] = ai3[2] = gameModel.viewY[k1];
         } else {
-            ai2 = new int[k];
-            ai3 = new int[k];
             for (int j5 = 0; j5 < k; j5++) {
                 int i6 = ai[j5];
-                ai2[j5] = gameModel.verticesView[i6].x;
-                ai3[j5] = gameModel.verticesView[i6].x;
+                ai2[j5] = gameModel.viewX[i6];
+                ai3[j5] = gameModel.viewX[i6];
             }
 
         }
-        int ai4[];
-        int ai5[];
+        int ai4[] = outlineX2;
+        int ai5[] = outlineY2;
         if (l == 2) {
-            ai4 = new int[4];
-            ai5 = new int[4];
             int k5 = ai1[0];
             int l1 = ai1[1];
-            ai4[0] = model_1.verticesView[k5].x - 20;
-            ai4[1] = model_1.verticesView[l1].x - 20;
-            ai4[2] = model_1.verticesView[l1].x + 20;
-            ai4[3] = model_1.verticesView[k5].x + 20;
-            ai5[0] = ai5[3] = model_1.verticesView[k5].y;
-            ai5[1] = ai5[2] = model_1.verticesView[l1].y;
+            ai4[0] = model_1.viewX[k5] - 20;
+            ai4[1] = model_1.viewX[l1] - 20;
+            ai4[2] = model_1.viewX[l1] + 20;
+            ai4[3] = model_1.viewX[k5] + 20;
+            ai5[0] = ai5[3] = model_1.viewY[k5];
+            ai5[1] = ai5[2] = model_1.viewY[l1];
         } else {
-            ai4 = new int[l];
-            ai5 = new int[l];
             for (int l5 = 0; l5 < l; l5++) {
                 int j6 = ai1[l5];
-                ai4[l5] = model_1.verticesView[j6].x;
-                ai5[l5] = model_1.verticesView[j6].y;
+                ai4[l5] = model_1.viewX[j6];
+                ai5[l5] = model_1.viewY[j6];
             }
 
         }
-        return !intersect(ai2, ai3, ai4, ai5);
+        return !intersect(ai2, ai3, outlineSize1, ai4, ai5, outlineSize2);
+    }
+
+    /**
+     * Ensures the outline buffers can hold a given number of vertices.
+     *
+     * @param size
+     */
+    private void ensureOutlineCapacity(int size) {
+        if (outlineX1.length < size) {
+            outlineX1 = new int[size];
+            outlineY1 = new int[size];
+            outlineX2 = new int[size];
+            outlineY2 = new int[size];
+        }
     }
 
     private boolean heuristicPolygon(Polygon polygon, Polygon entity_1) {
@@ -1862,9 +2771,9 @@ public class SoftwareRenderer {
         int ai1[] = model_1.faceVertices[j];
         int k = gameModel.numVerticesPerFace[i];
         int l = model_1.numVerticesPerFace[j];
-        int i2 = model_1.verticesProjected[ai1[0]].x;
-        int j2 = model_1.verticesProjected[ai1[0]].y;
-        int k2 = model_1.verticesProjected[ai1[0]].z;
+        int i2 = model_1.projectedX[ai1[0]];
+        int j2 = model_1.projectedY[ai1[0]];
+        int k2 = model_1.projectedZ[ai1[0]];
         int l2 = entity_1.normalX;
         int i3 = entity_1.normalY;
         int j3 = entity_1.normalZ;
@@ -1873,8 +2782,8 @@ public class SoftwareRenderer {
         boolean flag = false;
         for (int i4 = 0; i4 < k; i4++) {
             int i1 = ai[i4];
-            int k1 = (i2 - gameModel.verticesProjected[i1].x) * l2 + (j2 - gameModel.verticesProjected[i1].y) * i3
-                    + (k2 - gameModel.verticesProjected[i1].z) * j3;
+            int k1 = (i2 - gameModel.projectedX[i1]) * l2 + (j2 - gameModel.projectedY[i1]) * i3
+                    + (k2 - gameModel.projectedZ[i1]) * j3;
             if ((k1 >= -k3 || l3 >= 0) && (k1 <= k3 || l3 <= 0)) {
                 continue;
             }
@@ -1885,9 +2794,9 @@ public class SoftwareRenderer {
         if (!flag) {
             return true;
         }
-        i2 = gameModel.verticesProjected[ai[0]].x;
-        j2 = gameModel.verticesProjected[ai[0]].y;
-        k2 = gameModel.verticesProjected[ai[0]].z;
+        i2 = gameModel.projectedX[ai[0]];
+        j2 = gameModel.projectedY[ai[0]];
+        k2 = gameModel.projectedZ[ai[0]];
         l2 = polygon.normalX;
         i3 = polygon.normalY;
         j3 = polygon.normalZ;
@@ -1896,8 +2805,8 @@ public class SoftwareRenderer {
         flag = false;
         for (int j4 = 0; j4 < l; j4++) {
             int j1 = ai1[j4];
-            int l1 = (i2 - model_1.verticesProjected[j1].x) * l2 + (j2 - model_1.verticesProjected[j1].y) * i3
-                    + (k2 - model_1.verticesProjected[j1].z) * j3;
+            int l1 = (i2 - model_1.projectedX[j1]) * l2 + (j2 - model_1.projectedY[j1]) * i3
+                    + (k2 - model_1.projectedZ[j1]) * j3;
             if ((l1 >= -k3 || l3 <= 0) && (l1 <= k3 || l3 >= 0)) {
                 continue;
             }
@@ -1955,9 +2864,7 @@ public class SoftwareRenderer {
         }
     }
 
-    private static boolean intersect(int ai[], int ai1[], int ai2[], int ai3[]) {
-        int i = ai.length;
-        int j = ai2.length;
+    private static boolean intersect(int ai[], int ai1[], int i, int ai2[], int ai3[], int j) {
         byte byte0 = 0;
         int i20;
         int k20 = i20 = ai1[0];
@@ -1,5 +1,7 @@
 package client.game.scene;
 
+import client.util.MatrixUtils;
+
 /**
  * Class representing the camera within the game world.
  *
@@ -13,6 +15,20 @@ public class Camera {
 
     public static final int DEFAULT_FOG_DISTANCE = 2300;
 
+    /**
+     * Number of planes bounding the view frustum: left, right, top, bottom,
+     * near and far.
+     */
+    private static final int NUM_FRUSTUM_PLANES = 6;
+
+    private static final int PLANE_NORMAL_SCALE = 32768;
+
+    /**
+     * Distance by which the view frustum is enlarged, to be sure that nothing
+     * visible is culled due to rounding errors.
+     */
+    private static final int PLANE_TOLERANCE = 16;
+
     private static int sin2048Cache[] = new int[2048];
     private static int sin512Cache[] = new int[512];
 
@@ -34,43 +50,90 @@ public class Camera {
     private int pitch;
     private int roll;
 
-    private int frustumMaxX;
-    private int frustumMinX;
-    private int frustumMinY;
-    private int frustumMaxY;
-    private int frustumFarZ;
-    private int frustumNearZ;
+    /**
+     * Planes bounding the view frustum, in world space.
+     *
+     * <p>Each plane is stored as a normal pointing into the frustum, with a
+     * magnitude of {@link #PLANE_NORMAL_SCALE}, and a distance such that a
+     * point lies inside the plane if <code>normal . point + distance</code> is
+     * not negative.
+     */
+    private int frustumNormalX[] = new int[NUM_FRUSTUM_PLANES];
+    private int frustumNormalY[] = new int[NUM_FRUSTUM_PLANES];
+    private int frustumNormalZ[] = new int[NUM_FRUSTUM_PLANES];
+    private long frustumDistance[] = new long[NUM_FRUSTUM_PLANES];
+
+    /**
+     * Rotation from world space to view space.
+     *
+     * <p>This is rebuilt whenever the camera moves, so that every vertex can
+     * be rotated into view space with a single matrix. The translation is
+     * left out; points should be made relative to the camera first, which
+     * keeps the products of the rotation within the range of an int.
+     *
+     * @see MatrixUtils
+     */
+    private int viewRotation[] = new int[MatrixUtils.SIZE];
+
+    /**
+     * Incremented whenever the camera moves or the view frustum changes, so
+     * that anything calculated from the camera can tell whether it is still
+     * valid.
+     */
+    private int version;
+
+    /**
+     * Parameters of the last call to {@link #prepareForRendering}.
+     */
+    private int frustumClipX;
+    private int frustumClipY;
+    private int frustumClipFar3d;
+    private int frustumClipXModified;
+    private int frustumClipYModified;
+
+    public Camera() {
+        updateViewRotation();
+    }
 
+    /**
+     * Calculates the planes of the view frustum, based on the current camera
+     * position and rotation.
+     *
+     * @param clipX Half the width of the screen.
+     * @param clipY Half the height of the screen.
+     * @param clipFar3d Max view distance.
+     * @param clipXModified Half the width of the view at the max view distance.
+     * @param clipYModified Half the height of the view at the max view distance.
+     */
     public void prepareForRendering(int clipX, int clipY, int clipFar3d, int clipXModified, int clipYModified) {
-        frustumMaxX = 0;
-        frustumMinX = 0;
-        frustumMinY = 0;
-        frustumMaxY = 0;
-        frustumFarZ = 0;
-        frustumNearZ = 0;
-        setFrustum(-clipXModified, -clipYModified, clipFar3d);
-        setFrustum(-clipXModified, clipYModified, clipFar3d);
-        setFrustum(clipXModified, -clipYModified, clipFar3d);
-        setFrustum(clipXModified, clipYModified, clipFar3d);
-        setFrustum(-clipX, -clipY, 0);
-        setFrustum(-clipX, clipY, 0);
-        setFrustum(clipX, -clipY, 0);
-        setFrustum(clipX, clipY, 0);
-        frustumMaxX += x;
-        frustumMinX += x;
-        frustumMinY += y;
-        frustumMaxY += y;
-        frustumFarZ += z;
-        frustumNearZ += z;
+        if (clipX != frustumClipX
+                || clipY != frustumClipY
+                || clipFar3d != frustumClipFar3d
+                || clipXModified != frustumClipXModified
+                || clipYModified != frustumClipYModified) {
+            frustumClipX = clipX;
+            frustumClipY = clipY;
+            frustumClipFar3d = clipFar3d;
+            frustumClipXModified = clipXModified;
+            frustumClipYModified = clipYModified;
+            version++;
+        }
+
+        setFrustumPlane(0, clipFar3d, 0, clipXModified, 0);
+        setFrustumPlane(1, -clipFar3d, 0, clipXModified, 0);
+        setFrustumPlane(2, 0, clipFar3d, clipYModified, 0);
+        setFrustumPlane(3, 0, -clipFar3d, clipYModified, 0);
+        setFrustumPlane(4, 0, 0, 1, 0);
+        setFrustumPlane(5, 0, 0, -1, clipFar3d);
     }
 
     public void set(int x, int y, int z, int pitch, int yaw, int roll, int cameraHeight) {
         pitch &= 0x3ff;
         yaw &= 0x3ff;
         roll &= 0x3ff;
-        this.yaw = 1024 - pitch & 0x3ff;
-        this.pitch = 1024 - yaw & 0x3ff;
-        this.roll = 1024 - roll & 0x3ff;
+        int newYaw = 1024 - pitch & 0x3ff;
+        int newPitch = 1024 - yaw & 0x3ff;
+        int newRoll = 1024 - roll & 0x3ff;
         int l1 = 0;
         int i2 = 0;
         int j2 = cameraHeight;
@@ -95,15 +158,83 @@ public class Camera {
             i2 = i2 * l3 - l1 * i3 >> 15;
             l1 = k4;
         }
-        this.x = x - l1;
-        this.y = y - i2;
-        this.z = z - j2;
+        x -= l1;
+        y -= i2;
+        z -= j2;
+
+        // The camera is usually set every frame, even if it has not moved
+        if (x == this.x && y == this.y && z == this.z
+                && newYaw == this.yaw && newPitch == this.pitch && newRoll == this.roll) {
+            return;
+        }
+
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.yaw = newYaw;
+        this.pitch = newPitch;
+        this.roll = newRoll;
+        updateViewRotation();
     }
 
-    public void setFrustum(int x, int y, int z) {
+    /**
+     * Rebuilds the view rotation from the current camera rotation.
+     *
+     * <p>This is called whenever the camera moves.
+     */
+    private void updateViewRotation() {
+        version++;
+        MatrixUtils.setIdentity(viewRotation);
+        if (roll != 0) {
+            MatrixUtils.rotate(viewRotation, 0, 1, sin2048Cache[roll], sin2048Cache[roll + 1024]);
+        }
+        if (pitch != 0) {
+            MatrixUtils.rotate(viewRotation, 0, 2, sin2048Cache[pitch], sin2048Cache[pitch + 1024]);
+        }
+        if (yaw != 0) {
+            MatrixUtils.rotate(viewRotation, 2, 1, sin2048Cache[yaw], sin2048Cache[yaw + 1024]);
+        }
+    }
+
+    /**
+     * Gets the rotation from world space to view space.
+     *
+     * @return
+     * @see MatrixUtils
+     */
+    public int[] getViewRotation() {
+        return viewRotation;
+    }
+
+    /**
+     * Gets a number that changes whenever the camera moves or the view
+     * frustum changes.
+     *
+     * @return
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets one of the planes of the view frustum.
+     *
+     * @param plane
+     * @param x Normal of the plane, relative to the camera.
+     * @param y Normal of the plane, relative to the camera.
+     * @param z Normal of the plane, relative to the camera.
+     * @param distance Distance of the plane from the camera.
+     */
+    private void setFrustumPlane(int plane, int x, int y, int z, int distance) {
+
+        // Normalise
+        double magnitude = Math.sqrt((double) x * x + (double) y * y + (double) z * z);
+        x = (int) (x * PLANE_NORMAL_SCALE / magnitude);
+        y = (int) (y * PLANE_NORMAL_SCALE / magnitude);
+        z = (int) (z * PLANE_NORMAL_SCALE / magnitude);
 
         /*
-         * Transform the camera position according to its rotation
+         * Transform the normal according to the camera rotation
          */
 
         int yawVar = -yaw + 1024 & 0x3ff;
@@ -134,28 +265,45 @@ public class Camera {
             x = k3;
         }
 
-        /*
-         * Bounds checking
-         */
+        frustumNormalX[plane] = x;
+        frustumNormalY[plane] = y;
+        frustumNormalZ[plane] = z;
 
-        if (x < frustumMaxX) {
-            frustumMaxX = x;
-        }
-        if (x > frustumMinX) {
-            frustumMinX = x;
-        }
-        if (y < frustumMinY) {
-            frustumMinY = y;
-        }
-        if (y > frustumMaxY) {
-            frustumMaxY = y;
-        }
-        if (z < frustumFarZ) {
-            frustumFarZ = z;
-        }
-        if (z > frustumNearZ) {
-            frustumNearZ = z;
+        // Allow some leeway for rounding errors
+        frustumDistance[plane] = (long) (distance + PLANE_TOLERANCE) * PLANE_NORMAL_SCALE
+                - ((long) x * this.x + (long) y * this.y + (long) z * this.z);
+    }
+
+    /**
+     * Determines whether any part of a box lies inside the view frustum.
+     *
+     * <p>This is conservative; a box near the corner of the frustum may be
+     * reported as visible even if it is not.
+     *
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     * @return
+     */
+    public boolean isBoxVisible(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        for (int plane = 0; plane < NUM_FRUSTUM_PLANES; plane++) {
+            int nx = frustumNormalX[plane];
+            int ny = frustumNormalY[plane];
+            int nz = frustumNormalZ[plane];
+
+            // Test the corner of the box that is furthest inside the plane
+            long distance = frustumDistance[plane]
+                    + (long) nx * (nx >= 0 ? maxX : minX)
+                    + (long) ny * (ny >= 0 ? maxY : minY)
+                    + (long) nz * (nz >= 0 ? maxZ : minZ);
+            if (distance < 0) {
+                return false;
+            }
         }
+        return true;
     }
 
     public int getX() {
@@ -172,14 +320,17 @@ public class Camera {
 
     public void setX(int x) {
         this.x = x;
+        version++;
     }
 
     public void setY(int y) {
         this.y = y;
+        version++;
     }
 
     public void setZ(int z) {
         this.z = z;
+        version++;
     }
 
     public int getPitch() {
@@ -196,38 +347,17 @@ public class Camera {
 
     public void setPitch(int pitch) {
         this.pitch = pitch;
+        updateViewRotation();
     }
 
     public void setRoll(int roll) {
         this.roll = roll;
+        updateViewRotation();
     }
 
     public void setYaw(int yaw) {
         this.yaw = yaw;
-    }
-
-    public int getFrustumMinX() {
-        return frustumMinX;
-    }
-
-    public int getFrustumMaxX() {
-        return frustumMaxX;
-    }
-
-    public int getFrustumMinY() {
-        return frustumMinY;
-    }
-
-    public int getFrustumMaxY() {
-        return frustumMaxY;
-    }
-
-    public int getFrustumFarZ() {
-        return frustumFarZ;
-    }
-
-    public int getFrustumNearZ() {
-        return frustumNearZ;
+        updateViewRotation();
     }
 
 }
@@ -2,11 +2,12 @@ package client.game.scene;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
-import org.joml.Vector2i;
 import org.joml.Vector3i;
 
 import client.util.DataUtils;
+import client.util.MatrixUtils;
 import client.util.VectorUtils;
 
 /**
@@ -20,6 +21,12 @@ public class Model {
 
     private static final int DEFAULT_SCALE = 256;
 
+    /**
+     * Number of vertices a Model must contain before a vertex index is built
+     * to speed up {@link #addUniqueVertex}.
+     */
+    private static final int VERTEX_INDEX_THRESHOLD = 64;
+
     public enum TransformState {
         CLEAN,
         PENDING,
@@ -27,19 +34,49 @@ public class Model {
     }
 
     private static int sine9[] = new int[512];
-    private static int sine11[] = new int[2048];
+
+    /**
+     * Scratch space used to sum the normals of the faces around each vertex
+     * while lighting, as 4 ints per vertex: x, y, z and the number of faces.
+     *
+     * <p>Models may be lit from several projection threads at once, so each
+     * thread has its own buffer.
+     */
+    private static final ThreadLocal<int[]> vertexNormalBuffer =
+            ThreadLocal.withInitial(() -> new int[0]);
     private static int base64Alphabet[] = new int[256];
 
-    // Vertices
+    /*
+     * Vertices.
+     *
+     * Each stage of the pipeline stores its vertices as parallel arrays of
+     * coordinates, rather than as an array of vectors, so that the hot loops
+     * can walk through contiguous memory.
+     */
     public int numVertices;
     public int maxVertices;
-    public Vector3i[] vertices;
-    public Vector3i[] verticesTransformed;
-    public Vector3i[] verticesProjected;
-    public Vector2i[] verticesView;
+    public int vertexX[];
+    public int vertexY[];
+    public int vertexZ[];
+    public int transformedX[];
+    public int transformedY[];
+    public int transformedZ[];
+    public int projectedX[];
+    public int projectedY[];
+    public int projectedZ[];
+    public int viewX[];
+    public int viewY[];
     public int vertexIntensity[];
     public byte vertexAmbience[];
 
+    /**
+     * Open-addressing hash table used to find existing vertices by position.
+     *
+     * <p>Each slot holds a vertex index plus one, or zero if empty. This is
+     * only present while a Model is being built.
+     */
+    private int vertexIndex[];
+
     // Transform
     private Vector3i translate;
     private Vector3i rotate;
@@ -51,8 +88,32 @@ public class Model {
     private int shearZX;
     private int shearZY;
     private int transformType;
+
+    /**
+     * All of the above transforms combined, if there is more than a
+     * translation.
+     *
+     * @see MatrixUtils
+     */
+    private int transform[];
+
     public TransformState transformState = TransformState.PENDING;
 
+    /**
+     * Camera state for which the current projection was calculated, so that
+     * it can be reused until either the camera or this Model moves.
+     */
+    private Camera projectionCamera;
+    private int projectionCameraVersion;
+    private int projectionViewDistance;
+    private int projectionClipNear;
+    private boolean projectionValid;
+
+    /**
+     * Whether the last call to {@link #project} calculated a new projection.
+     */
+    private boolean projectionChanged;
+
     // Faces
     public int numFaces;
     private int maxFaces;
@@ -63,14 +124,24 @@ public class Model {
     public int faceCameraNormalMagnitude[];
     public int faceCameraNormalScale[];
     public int faceIntensity[];
-    public Vector3i[] faceNormals;
+    public int faceNormalX[];
+    public int faceNormalY[];
+    public int faceNormalZ[];
     public int faceTag[];
-    private int faceBoundLeft[];
-    private int faceBoundRight[];
-    private int faceBoundBottom[];
-    private int faceBoundTop[];
-    private int faceBoundNear[];
-    private int faceBoundFar[];
+
+    /**
+     * Whether the face normals match the current shape of this Model.
+     *
+     * <p>Translation does not change the normals, so they only need to be
+     * recalculated when this Model is rotated or its geometry changes.
+     */
+    private boolean normalsValid;
+
+    /**
+     * Whether this Model's vertices and faces belong to the Model it is an
+     * instance of, in which case they must not be changed.
+     */
+    private boolean sharedGeometry;
 
     // Properties
     public int entityId = -1;
@@ -98,6 +169,15 @@ public class Model {
     protected int lightDiffuse = 512;
     public int lightAmbience = 32;
 
+    /**
+     * Light direction and diffuse strength used the last time this Model was
+     * lit, so that lighting it the same way again can be skipped.
+     */
+    private int litDirectionX;
+    private int litDirectionY;
+    private int litDirectionZ;
+    private int litDiffuse;
+
     // Base64 Input
     private int dataIndex;
 
@@ -108,11 +188,6 @@ public class Model {
             sine9[i + 256] = (int) (Math.cos(i * 0.02454369D) * 32768D);
         }
 
-        for (int i = 0; i < 1024; i++) {
-            sine11[i] = (int) (Math.sin(i * 0.00613592315D) * 32768D);
-            sine11[i + 1024] = (int) (Math.cos(i * 0.00613592315D) * 32768D);
-        }
-
         for (int i = 0; i < 10; i++) {
             base64Alphabet[48 + i] = i;
         }
@@ -146,17 +221,17 @@ public class Model {
         initialise(numVertices, numFaces);
 
         for (int i = 0; i < numVertices; i++) {
-            vertices[i].x = DataUtils.getSigned2Bytes(data, offset);
+            vertexX[i] = DataUtils.getSigned2Bytes(data, offset);
             offset += 2;
         }
 
         for (int i = 0; i < numVertices; i++) {
-            vertices[i].y = DataUtils.getSigned2Bytes(data, offset);
+            vertexY[i] = DataUtils.getSigned2Bytes(data, offset);
             offset += 2;
         }
 
         for (int i = 0; i < numVertices; i++) {
-            vertices[i].z = DataUtils.getSigned2Bytes(data, offset);
+            vertexZ[i] = DataUtils.getSigned2Bytes(data, offset);
             offset += 2;
         }
 
@@ -341,47 +416,90 @@ public class Model {
         initialise(maxVertices, maxFaces);
     }
 
+    /**
+     * Creates an instance of the given Model.
+     *
+     * @param geometry
+     * @see #createInstance
+     */
+    private Model(Model geometry) {
+        isolated = geometry.isolated;
+        unlit = geometry.unlit;
+        unpickable = geometry.unpickable;
+
+        vertexX = geometry.vertexX;
+        vertexY = geometry.vertexY;
+        vertexZ = geometry.vertexZ;
+        numVerticesPerFace = geometry.numVerticesPerFace;
+        faceVertices = geometry.faceVertices;
+        faceFillFront = geometry.faceFillFront;
+        faceFillBack = geometry.faceFillBack;
+        sharedGeometry = true;
+
+        // Leave no room to add to the shared geometry
+        initialiseState(geometry.numVertices, geometry.numFaces);
+        numVertices = geometry.numVertices;
+        numFaces = geometry.numFaces;
+
+        System.arraycopy(geometry.vertexAmbience, 0, vertexAmbience, 0, numVertices);
+        System.arraycopy(geometry.faceIntensity, 0, faceIntensity, 0, numFaces);
+        if (faceTag != null) {
+            System.arraycopy(geometry.faceTag, 0, faceTag, 0, numFaces);
+        }
+        lightDirection.set(geometry.lightDirection);
+        lightDiffuse = geometry.lightDiffuse;
+        lightAmbience = geometry.lightAmbience;
+        depth = geometry.depth;
+        translucent = geometry.translucent;
+        transparent = geometry.transparent;
+    }
+
     private void initialise(int maxVertices, int maxFaces) {
-        vertices = new Vector3i[maxVertices];
-        for (int i = 0; i < maxVertices; i++) {
-            vertices[i] = new Vector3i();
-        }
-        vertexIntensity = new int[maxVertices];
-        vertexAmbience = new byte[maxVertices];
+        vertexX = new int[maxVertices];
+        vertexY = new int[maxVertices];
+        vertexZ = new int[maxVertices];
         numVerticesPerFace = new int[maxFaces];
         faceVertices = new int[maxFaces][];
         faceFillFront = new int[maxFaces];
         faceFillBack = new int[maxFaces];
+        initialiseState(maxVertices, maxFaces);
+        if (!projected) {
+            allocateProjection(maxVertices);
+        }
+        numFaces = 0;
+        numVertices = 0;
+    }
+
+    /**
+     * Allocates everything besides the vertices and faces themselves, which
+     * may be shared with other instances.
+     *
+     * @param maxVertices
+     * @param maxFaces
+     */
+    private void initialiseState(int maxVertices, int maxFaces) {
+        vertexIntensity = new int[maxVertices];
+        vertexAmbience = new byte[maxVertices];
         faceIntensity = new int[maxFaces];
         faceCameraNormalScale = new int[maxFaces];
         faceCameraNormalMagnitude = new int[maxFaces];
-        if (!projected) {
-            clearProjection();
-        }
         if (!unpickable) {
             faceTag = new int[maxFaces];
         }
         if (autoCommit) {
-            verticesTransformed = vertices;
+            transformedX = vertexX;
+            transformedY = vertexY;
+            transformedZ = vertexZ;
         } else {
-            verticesTransformed = new Vector3i[maxVertices];
+            transformedX = new int[maxVertices];
+            transformedY = new int[maxVertices];
+            transformedZ = new int[maxVertices];
         }
         if (!unlit || !isolated) {
-            faceNormals = new Vector3i[maxFaces];
-            for (int i = 0; i < maxFaces; i++) {
-                faceNormals[i] = new Vector3i();
-            }
-        }
-        if (!isolated) {
-            faceBoundLeft = new int[maxFaces];
-            faceBoundRight = new int[maxFaces];
-            faceBoundBottom = new int[maxFaces];
-            faceBoundTop = new int[maxFaces];
-            faceBoundNear = new int[maxFaces];
-            faceBoundFar = new int[maxFaces];
+            faceNormalX = new int[maxFaces];
+            faceNormalY = new int[maxFaces];
+            faceNormalZ = new int[maxFaces];
         }
-        numFaces = 0;
-        numVertices = 0;
         this.maxVertices = maxVertices;
         this.maxFaces = maxFaces;
         translate = new Vector3i(0, 0, 0);
@@ -391,19 +509,45 @@ public class Model {
         transformType = 0;
     }
 
+    /**
+     * Creates an instance of this Model.
+     *
+     * <p>The instance shares this Model's vertices and faces, which must not
+     * change from then on, but has its own transform, lighting, tags and
+     * projection. This saves memory when the same Model appears many times.
+     * The projection is not allocated until the instance first comes into
+     * view, and the instance's transform can never be committed.
+     *
+     * @return
+     * @throws IllegalStateException if this Model is auto-commit, since then
+     * transforming it would move its vertices.
+     */
+    public Model createInstance() {
+        if (autoCommit) {
+            throw new IllegalStateException("Cannot share the geometry of an auto-commit Model");
+        }
+        return new Model(this);
+    }
+
     public void clearProjection() {
-        verticesProjected = new Vector3i[numVertices];
-        verticesView = new Vector2i[numVertices];
+        projectionValid = false;
+        allocateProjection(numVertices);
+    }
 
-        for (int i = 0; i < numVertices; i++) {
-            verticesProjected[i] = new Vector3i();
-            verticesView[i] = new Vector2i();
-        }
+    private void allocateProjection(int size) {
+        projectedX = new int[size];
+        projectedY = new int[size];
+        projectedZ = new int[size];
+        viewX = new int[size];
+        viewY = new int[size];
     }
 
     public void clear() {
         numFaces = 0;
         numVertices = 0;
+        dropVertexIndex();
+        projectionValid = false;
+        normalsValid = false;
     }
 
     public void removeGeometry(int faces, int vertices) {
@@ -415,6 +559,9 @@ public class Model {
         if (numVertices < 0) {
             numVertices = 0;
         }
+        dropVertexIndex();
+        projectionValid = false;
+        normalsValid = false;
     }
 
     /**
@@ -437,7 +584,18 @@ public class Model {
 
         for (int modelId = 0; modelId < numModels; modelId++) {
             Model gameModel = models[modelId];
-            gameModel.commitTransform();
+            int srcX[] = gameModel.vertexX;
+            int srcY[] = gameModel.vertexY;
+            int srcZ[] = gameModel.vertexZ;
+            if (gameModel.sharedGeometry) {
+                // Instances cannot commit, so take the transformed vertices
+                gameModel.applyTransform();
+                srcX = gameModel.transformedX;
+                srcY = gameModel.transformedY;
+                srcZ = gameModel.transformedZ;
+            } else {
+                gameModel.commitTransform();
+            }
             lightAmbience = gameModel.lightAmbience;
             lightDiffuse = gameModel.lightDiffuse;
             lightDirection = gameModel.lightDirection;
@@ -449,9 +607,9 @@ public class Model {
 
                 for (int vertId = 0; vertId < gameModel.numVerticesPerFace[faceId]; vertId++) {
                     faces[vertId] = addUniqueVertex(
-                            gameModel.vertices[vertices[vertId]].x,
-                            gameModel.vertices[vertices[vertId]].y,
-                            gameModel.vertices[vertices[vertId]].z);
+                            srcX[vertices[vertId]],
+                            srcY[vertices[vertId]],
+                            srcZ[vertices[vertId]]);
                 }
 
                 int faceIndex = addFace(
@@ -467,6 +625,7 @@ public class Model {
 
         }
 
+        dropVertexIndex();
         transformState = TransformState.PENDING;
     }
 
@@ -482,22 +641,107 @@ public class Model {
      */
     public int addUniqueVertex(int x, int y, int z) {
 
+        if (vertexIndex == null && numVertices >= VERTEX_INDEX_THRESHOLD) {
+            buildVertexIndex();
+        }
+
         // Check if vertex has already been added
-        for (int l = 0; l < numVertices; l++) {
-            if (vertices[l].x == x && vertices[l].y == y && vertices[l].z == z) {
-                return l;
+        if (vertexIndex != null) {
+            int mask = vertexIndex.length - 1;
+            int slot = hashVertex(x, y, z) & mask;
+            while (vertexIndex[slot] != 0) {
+                int l = vertexIndex[slot] - 1;
+                if (vertexX[l] == x && vertexY[l] == y && vertexZ[l] == z) {
+                    return l;
+                }
+                slot = (slot + 1) & mask;
+            }
+        } else {
+            for (int l = 0; l < numVertices; l++) {
+                if (vertexX[l] == x && vertexY[l] == y && vertexZ[l] == z) {
+                    return l;
+                }
             }
         }
 
-        if (numVertices >= maxVertices) {
+        if (numVertices >= maxVertices || sharedGeometry) {
             return -1;
         }
 
-        vertices[numVertices] = new Vector3i(x, y, z);
+        vertexX[numVertices] = x;
+        vertexY[numVertices] = y;
+        vertexZ[numVertices] = z;
+        projectionValid = false;
+        normalsValid = false;
+
+        if (vertexIndex != null) {
+            indexVertex(numVertices);
+        }
 
         return numVertices++;
     }
 
+    /**
+     * Builds the vertex index from the vertices currently in this Model.
+     *
+     * <p>The table is sized for {@link #maxVertices}, so it never needs to
+     * grow while the Model is being filled.
+     */
+    private void buildVertexIndex() {
+        int size = 1;
+        while (size < maxVertices * 2) {
+            size <<= 1;
+        }
+        vertexIndex = new int[size];
+        for (int i = 0; i < numVertices; i++) {
+            indexVertex(i);
+        }
+    }
+
+    /**
+     * Adds the given vertex to the vertex index, unless a vertex with the same
+     * position is already present.
+     *
+     * <p>This way, lookups always find the first matching vertex, just like
+     * a linear search would.
+     *
+     * @param vertex
+     */
+    private void indexVertex(int vertex) {
+        int x = vertexX[vertex];
+        int y = vertexY[vertex];
+        int z = vertexZ[vertex];
+        int mask = vertexIndex.length - 1;
+        int slot = hashVertex(x, y, z) & mask;
+        while (vertexIndex[slot] != 0) {
+            int l = vertexIndex[slot] - 1;
+            if (vertexX[l] == x && vertexY[l] == y && vertexZ[l] == z) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        vertexIndex[slot] = vertex + 1;
+    }
+
+    /**
+     * Discards the vertex index.
+     *
+     * <p>This should be called once a Model is finished, or whenever its
+     * vertices are moved, since the index is keyed on vertex positions. It
+     * will be rebuilt if more vertices are added.
+     */
+    public void dropVertexIndex() {
+        vertexIndex = null;
+    }
+
+    private static int hashVertex(int x, int y, int z) {
+        long key = ((long) (x & 0x1fffff) << 42)
+                | ((long) (y & 0x1fffff) << 21)
+                | (z & 0x1fffff);
+        key *= 0x9e3779b97f4a7c15L;
+        return (int) (key >>> 32);
+    }
+
     /**
      * Adds the given vertex, and returns its index.
      *
@@ -508,18 +752,48 @@ public class Model {
      */
     public int addVertex(int x, int z, int y) {
 
-        if (numVertices >= maxVertices) {
+        if (numVertices >= maxVertices || sharedGeometry) {
             return -1;
         }
 
-        vertices[numVertices] = new Vector3i(x, y, z);
+        vertexX[numVertices] = x;
+        vertexY[numVertices] = y;
+        vertexZ[numVertices] = z;
+        projectionValid = false;
+        normalsValid = false;
+
+        if (vertexIndex != null) {
+            indexVertex(numVertices);
+        }
 
         return numVertices++;
     }
 
+    /**
+     * Moves an existing vertex.
+     *
+     * @param vertex
+     * @param x
+     * @param y
+     * @param z
+     * @throws IllegalStateException if this Model shares its geometry.
+     */
+    public void setVertex(int vertex, int x, int y, int z) {
+        if (sharedGeometry) {
+            throw new IllegalStateException("Cannot move the vertices of a Model instance");
+        }
+
+        vertexX[vertex] = x;
+        vertexY[vertex] = y;
+        vertexZ[vertex] = z;
+        dropVertexIndex();
+        normalsValid = false;
+        transformState = TransformState.PENDING;
+    }
+
     public int addFace(int numVertices, int vertices[], int fillFront, int fillBack) {
 
-        if (numFaces >= maxFaces) {
+        if (numFaces >= maxFaces || sharedGeometry) {
             return -1;
         }
 
@@ -528,6 +802,7 @@ public class Model {
         faceFillFront[numFaces] = fillFront;
         faceFillBack[numFaces] = fillBack;
         transformState = TransformState.PENDING;
+        normalsValid = false;
 
         return numFaces++;
     }
@@ -547,8 +822,8 @@ public class Model {
             int i3 = numVerticesPerFace[i];
             int ai2[] = faceVertices[i];
             for (int i4 = 0; i4 < i3; i4++) {
-                j2 += vertices[ai2[i4]].x;
-                k2 += vertices[ai2[i4]].z;
+                j2 += vertexX[ai2[i4]];
+                k2 += vertexZ[ai2[i4]];
             }
 
             int k4 = j2 / (i3 * pieceDx) + (k2 / (i3 * pieceDz)) * rows;
@@ -575,8 +850,8 @@ public class Model {
             int l4 = numVerticesPerFace[i];
             int ai3[] = faceVertices[i];
             for (int i5 = 0; i5 < l4; i5++) {
-                k3 += vertices[ai3[i5]].x;
-                j4 += vertices[ai3[i5]].z;
+                k3 += vertexX[ai3[i5]];
+                j4 += vertexZ[ai3[i5]];
             }
 
             int j5 = k3 / (l4 * pieceDx) + (j4 / (l4 * pieceDz)) * rows;
@@ -585,7 +860,9 @@ public class Model {
 
         for (int i = 0; i < count; i++) {
             models[i].clearProjection();
+            models[i].dropVertexIndex();
         }
+        dropVertexIndex();
 
         return models;
     }
@@ -599,9 +876,9 @@ public class Model {
         int destVertices[] = new int[count];
         for (int i = 0; i < count; i++) {
             int l = destVertices[i] = gameModel.addUniqueVertex(
-                    vertices[srcVertices[i]].x,
-                    vertices[srcVertices[i]].y,
-                    vertices[srcVertices[i]].z);
+                    vertexX[srcVertices[i]],
+                    vertexY[srcVertices[i]],
+                    vertexZ[srcVertices[i]]);
             gameModel.vertexIntensity[l] = vertexIntensity[srcVertices[i]];
             gameModel.vertexAmbience[l] = vertexAmbience[srcVertices[i]];
         }
@@ -654,7 +931,7 @@ public class Model {
         lightAmbience = 256 - ambient * 4;
         lightDiffuse = (64 - diffuse) * 16 + 128;
 
-        if (unlit) {
+        if (unlit || isLit(lightDirectionX, lightDirectionY, lightDirectionZ)) {
             return;
         }
 
@@ -669,7 +946,7 @@ public class Model {
             int lightDirectionY,
             int lightDirectionZ) {
 
-        if (unlit) {
+        if (unlit || isLit(lightDirectionX, lightDirectionY, lightDirectionZ)) {
             return;
         }
 
@@ -679,6 +956,23 @@ public class Model {
         light();
     }
 
+    /**
+     * Determines whether this Model's lighting is already up to date for the
+     * given light direction and the current diffuse strength.
+     *
+     * @param lightDirectionX
+     * @param lightDirectionY
+     * @param lightDirectionZ
+     * @return
+     */
+    private boolean isLit(int lightDirectionX, int lightDirectionY, int lightDirectionZ) {
+        return normalsValid
+                && litDirectionX == lightDirectionX
+                && litDirectionY == lightDirectionY
+                && litDirectionZ == lightDirectionZ
+                && litDiffuse == lightDiffuse;
+    }
+
     public void setVertexAmbience(int vertex, int ambience) {
         vertexAmbience[vertex] = (byte) ambience;
     }
@@ -687,12 +981,14 @@ public class Model {
         rotate.add(rotX & 0xff, rotY & 0xff, rotZ & 0xff);
         determineTransformType();
         transformState = TransformState.PENDING;
+        normalsValid = false;
     }
 
     public void setRotation(int rotX, int rotY, int rotZ) {
         rotate.set(rotX & 0xff, rotY & 0xff, rotZ & 0xff);
         determineTransformType();
         transformState = TransformState.PENDING;
+        normalsValid = false;
     }
 
     public void translate(int translateX, int translateY, int translateZ) {
@@ -732,74 +1028,58 @@ public class Model {
 
     private void applyTranslate(int dx, int dy, int dz) {
         for (int i = 0; i < numVertices; i++) {
-            verticesTransformed[i].x += dx;
-            verticesTransformed[i].y += dy;
-            verticesTransformed[i].z += dz;
+            transformedX[i] += dx;
+            transformedY[i] += dy;
+            transformedZ[i] += dz;
         }
     }
 
-    private void applyRotation(int rotX, int rotY, int rotZ) {
-        for (int i = 0; i < numVertices; i++) {
-            if (rotZ != 0) {
-                int l = sine9[rotZ];
-                int k1 = sine9[rotZ + 256];
-                int j2 = verticesTransformed[i].y * l + verticesTransformed[i].x * k1 >> 15;
-                verticesTransformed[i].y = verticesTransformed[i].y * k1 - verticesTransformed[i].x * l >> 15;
-                verticesTransformed[i].x = j2;
-            }
-            if (rotX != 0) {
-                int i1 = sine9[rotX];
-                int l1 = sine9[rotX + 256];
-                int k2 = verticesTransformed[i].y * l1 - verticesTransformed[i].z * i1 >> 15;
-                verticesTransformed[i].z = verticesTransformed[i].y * i1 + verticesTransformed[i].z * l1 >> 15;
-                verticesTransformed[i].y = k2;
-            }
-            if (rotY != 0) {
-                int j1 = sine9[rotY];
-                int i2 = sine9[rotY + 256];
-                int l2 = verticesTransformed[i].z * j1 + verticesTransformed[i].x * i2 >> 15;
-                verticesTransformed[i].z = verticesTransformed[i].z * i2 - verticesTransformed[i].x * j1 >> 15;
-                verticesTransformed[i].x = l2;
-            }
+    /**
+     * Combines the rotation, scale, shear and translation of this Model into
+     * a single matrix, applied in that order.
+     */
+    private void composeTransform() {
+        if (transform == null) {
+            transform = new int[MatrixUtils.SIZE];
         }
+        MatrixUtils.setIdentity(transform);
 
-    }
+        if (rotate.z != 0) {
+            MatrixUtils.rotate(transform, 0, 1, sine9[rotate.z], sine9[rotate.z + 256]);
+        }
+        if (rotate.x != 0) {
+            MatrixUtils.rotate(transform, 2, 1, sine9[rotate.x], sine9[rotate.x + 256]);
+        }
+        if (rotate.y != 0) {
+            MatrixUtils.rotate(transform, 0, 2, sine9[rotate.y], sine9[rotate.y + 256]);
+        }
 
-    private void applyShear(
-            int xy,
-            int xz,
-            int yx,
-            int yz,
-            int zx,
-            int zy) {
-        for (int i = 0; i < numVertices; i++) {
-            if (xy != 0) {
-                verticesTransformed[i].x += verticesTransformed[i].y * xy >> 8;
+        if (transformType >= 3) {
+            MatrixUtils.scale(transform, scale.x >> 8);
+        }
+
+        if (transformType >= 4) {
+            if (shearXY != 0) {
+                MatrixUtils.shear(transform, 0, 1, shearXY);
             }
-            if (xz != 0) {
-                verticesTransformed[i].z += verticesTransformed[i].y * xz >> 8;
+            if (shearXZ != 0) {
+                MatrixUtils.shear(transform, 2, 1, shearXZ);
             }
-            if (yx != 0) {
-                verticesTransformed[i].x += verticesTransformed[i].z * yx >> 8;
+            if (shearYX != 0) {
+                MatrixUtils.shear(transform, 0, 2, shearYX);
             }
-            if (yz != 0) {
-                verticesTransformed[i].y += verticesTransformed[i].z * yz >> 8;
+            if (shearYZ != 0) {
+                MatrixUtils.shear(transform, 1, 2, shearYZ);
             }
-            if (zx != 0) {
-                verticesTransformed[i].z += verticesTransformed[i].x * zx >> 8;
+            if (shearZX != 0) {
+                MatrixUtils.shear(transform, 2, 0, shearZX);
             }
-            if (zy != 0) {
-                verticesTransformed[i].y += verticesTransformed[i].x * zy >> 8;
+            if (shearZY != 0) {
+                MatrixUtils.shear(transform, 1, 0, shearZY);
             }
         }
 
-    }
-
-    private void scale(int scaleX, int scaleY, int scaleZ) {
-        for (int i = 0; i < numVertices; i++) {
-            verticesTransformed[i].mul(scaleX >> 8);
-        }
-
+        MatrixUtils.translate(transform, translate.x, translate.y, translate.z);
     }
 
     private void computeBounds() {
@@ -810,38 +1090,30 @@ public class Model {
             int k = ai[0];
             int i1 = numVerticesPerFace[i];
             int x1;
-            int x2 = x1 = verticesTransformed[k].x;
+            int x2 = x1 = transformedX[k];
             int y1;
-            int y2 = y1 = verticesTransformed[k].y;
+            int y2 = y1 = transformedY[k];
             int z1;
-            int z2 = z1 = verticesTransformed[k].z;
+            int z2 = z1 = transformedZ[k];
             for (int j = 0; j < i1; j++) {
                 int l = ai[j];
-                if (verticesTransformed[l].x < x1) {
-                    x1 = verticesTransformed[l].x;
-                } else if (verticesTransformed[l].x > x2) {
-                    x2 = verticesTransformed[l].x;
+                if (transformedX[l] < x1) {
+                    x1 = transformedX[l];
+                } else if (transformedX[l] > x2) {
+                    x2 = transformedX[l];
                 }
-                if (verticesTransformed[l].y < y1) {
-                    y1 = verticesTransformed[l].y;
-                } else if (verticesTransformed[l].y > y2) {
-                    y2 = verticesTransformed[l].y;
+                if (transformedY[l] < y1) {
+                    y1 = transformedY[l];
+                } else if (transformedY[l] > y2) {
+                    y2 = transformedY[l];
                 }
-                if (verticesTransformed[l].z < z1) {
-                    z1 = verticesTransformed[l].z;
-                } else if (verticesTransformed[l].z > z2) {
-                    z2 = verticesTransformed[l].z;
+                if (transformedZ[l] < z1) {
+                    z1 = transformedZ[l];
+                } else if (transformedZ[l] > z2) {
+                    z2 = transformedZ[l];
                 }
             }
 
-            if (!isolated) {
-                faceBoundLeft[i] = x1;
-                faceBoundRight[i] = x2;
-                faceBoundBottom[i] = y1;
-                faceBoundTop[i] = y2;
-                faceBoundNear[i] = z1;
-                faceBoundFar[i] = z2;
-            }
             if (x2 - x1 > diameter) {
                 diameter = x2 - x1;
             }
@@ -881,45 +1153,48 @@ public class Model {
         for (int j = 0; j < numFaces; j++) {
             if (faceIntensity[j] != USE_GOURAUD_LIGHTING) {
                 faceIntensity[j] =
-                        (faceNormals[j].x * lightDirection.x
-                        + faceNormals[j].y * lightDirection.y
-                        + faceNormals[j].z * lightDirection.z) / i;
+                        (faceNormalX[j] * lightDirection.x
+                        + faceNormalY[j] * lightDirection.y
+                        + faceNormalZ[j] * lightDirection.z) / i;
             }
         }
 
-        int normalX[] = new int[numVertices];
-        int normalY[] = new int[numVertices];
-        int normalZ[] = new int[numVertices];
-        int normalMagnitude[] = new int[numVertices];
-        for (int k = 0; k < numVertices; k++) {
-            normalX[k] = 0;
-            normalY[k] = 0;
-            normalZ[k] = 0;
-            normalMagnitude[k] = 0;
+        int normals[] = vertexNormalBuffer.get();
+        if (normals.length < numVertices * 4) {
+            normals = new int[numVertices * 4];
+            vertexNormalBuffer.set(normals);
+        } else {
+            Arrays.fill(normals, 0, numVertices * 4, 0);
         }
 
         for (int l = 0; l < numFaces; l++) {
             if (faceIntensity[l] == USE_GOURAUD_LIGHTING) {
                 for (int i1 = 0; i1 < numVerticesPerFace[l]; i1++) {
-                    int k1 = faceVertices[l][i1];
-                    normalX[k1] += faceNormals[l].x;
-                    normalY[k1] += faceNormals[l].y;
-                    normalZ[k1] += faceNormals[l].z;
-                    normalMagnitude[k1]++;
+                    int k1 = faceVertices[l][i1] * 4;
+                    normals[k1] += faceNormalX[l];
+                    normals[k1 + 1] += faceNormalY[l];
+                    normals[k1 + 2] += faceNormalZ[l];
+                    normals[k1 + 3]++;
                 }
 
             }
         }
 
         for (int j1 = 0; j1 < numVertices; j1++) {
-            if (normalMagnitude[j1] > 0) {
+            int k1 = j1 * 4;
+            if (normals[k1 + 3] > 0) {
                 vertexIntensity[j1] =
-                        (normalX[j1] * lightDirection.x
-                        + normalY[j1] * lightDirection.y
-                        + normalZ[j1] * lightDirection.z)
-                        / (i * normalMagnitude[j1]);
+                        (normals[k1] * lightDirection.x
+                        + normals[k1 + 1] * lightDirection.y
+                        + normals[k1 + 2] * lightDirection.z)
+                        / (i * normals[k1 + 3]);
             }
         }
+
+        litDirectionX = lightDirection.x;
+        litDirectionY = lightDirection.y;
+        litDirectionZ = lightDirection.z;
+        litDiffuse = lightDiffuse;
     }
 
     public void relight() {
@@ -929,17 +1204,17 @@ public class Model {
         for (int i = 0; i < numFaces; i++) {
             int ai[] = faceVertices[i];
 
-            int aX = verticesTransformed[ai[0]].x;
-            int aY = verticesTransformed[ai[0]].y;
-            int aZ = verticesTransformed[ai[0]].z;
+            int aX = transformedX[ai[0]];
+            int aY = transformedY[ai[0]];
+            int aZ = transformedZ[ai[0]];
 
-            int bX = verticesTransformed[ai[1]].x - aX;
-            int bY = verticesTransformed[ai[1]].y - aY;
-            int bZ = verticesTransformed[ai[1]].z - aZ;
+            int bX = transformedX[ai[1]] - aX;
+            int bY = transformedY[ai[1]] - aY;
+            int bZ = transformedZ[ai[1]] - aZ;
 
-            int cX = verticesTransformed[ai[2]].x - aX;
-            int cY = verticesTransformed[ai[2]].y - aY;
-            int cZ = verticesTransformed[ai[2]].z - aZ;
+            int cX = transformedX[ai[2]] - aX;
+            int cY = transformedY[ai[2]] - aY;
+            int cZ = transformedZ[ai[2]] - aZ;
 
             int normalX = (bY * cZ) - (cY * bZ);
             int normalY = (bZ * cX) - (cZ * bX);
@@ -963,119 +1238,169 @@ public class Model {
             if (normalMagnitude <= 0) {
                 normalMagnitude = 1;
             }
-            faceNormals[i].x = (normalX * 0x10000) / normalMagnitude;
-            faceNormals[i].y = (normalY * 0x10000) / normalMagnitude;
-            faceNormals[i].z = (normalZ * 65535) / normalMagnitude;
+            faceNormalX[i] = (normalX * 0x10000) / normalMagnitude;
+            faceNormalY[i] = (normalY * 0x10000) / normalMagnitude;
+            faceNormalZ[i] = (normalZ * 65535) / normalMagnitude;
             faceCameraNormalScale[i] = -1;
         }
+        normalsValid = true;
 
         light();
     }
 
     private void applyTransform() {
 
+        if (transformState == TransformState.CLEAN) {
+            return;
+        }
+
         if (transformState == TransformState.BILLBOARD) {
             transformState = TransformState.CLEAN;
-            for (int i = 0; i < numVertices; i++) {
-                verticesTransformed[i].set(vertices[i]);
-            }
+            commitVertices(vertexX, vertexY, vertexZ, transformedX, transformedY, transformedZ);
 
             x1 = y1 = z1 = 0xff676981;
             diameter = x2 = y2 = z2 = 0x98967f;
 
         } else if (transformState == TransformState.PENDING) {
             transformState = TransformState.CLEAN;
-            for (int i = 0; i < numVertices; i++) {
-                verticesTransformed[i].set(vertices[i]);
-            }
 
             if (transformType >= 2) {
-                applyRotation(rotate.x, rotate.y, rotate.z);
-            }
-            if (transformType >= 3) {
-                scale(scale.x, scale.y, scale.z);
-            }
-            if (transformType >= 4) {
-                applyShear(
-                        shearXY, shearXZ, shearYX, shearYZ, shearZX, shearZY);
+                // Apply every transform in a single pass
+                composeTransform();
+                MatrixUtils.transform(transform,
+                        vertexX, vertexY, vertexZ,
+                        transformedX, transformedY, transformedZ,
+                        numVertices);
+            } else {
+                commitVertices(vertexX, vertexY, vertexZ, transformedX, transformedY, transformedZ);
+                if (transformType >= 1) {
+                    applyTranslate(translate.x, translate.y, translate.z);
+                }
             }
-            if (transformType >= 1) {
-                applyTranslate(translate.x, translate.y, translate.z);
+            if (transformType >= 1 && transformedX == vertexX) {
+                // Auto-commit Models have just moved their own vertices
+                dropVertexIndex();
             }
             computeBounds();
-            relight();
+            if (!normalsValid) {
+                relight();
+            }
+        }
+        projectionValid = false;
+    }
+
+    /**
+     * Copies vertices from one set of coordinate arrays to another.
+     *
+     * <p>This is a no-op for auto-commit Models, since both sets of arrays
+     * are the same.
+     */
+    private void commitVertices(
+            int srcX[], int srcY[], int srcZ[],
+            int destX[], int destY[], int destZ[]) {
+        if (srcX == destX) {
+            return;
         }
+        System.arraycopy(srcX, 0, destX, 0, numVertices);
+        System.arraycopy(srcY, 0, destY, 0, numVertices);
+        System.arraycopy(srcZ, 0, destZ, 0, numVertices);
     }
 
+    /**
+     * Projects this Model's vertices into view space.
+     *
+     * <p>If neither the camera nor this Model has moved since the last call,
+     * the previous projection is kept.
+     *
+     * @param camera
+     * @param viewDistance
+     * @param clipNear
+     */
     public void project(Camera camera, int viewDistance, int clipNear) {
         applyTransform();
-        if (z1 > camera.getFrustumNearZ() ||
-                z2 < camera.getFrustumFarZ() ||
-                x1 > camera.getFrustumMinX() ||
-                x2 < camera.getFrustumMaxX() ||
-                y1 > camera.getFrustumMaxY() ||
-                y2 < camera.getFrustumMinY()) {
+
+        if (projectionValid
+                && camera == projectionCamera
+                && camera.getVersion() == projectionCameraVersion
+                && viewDistance == projectionViewDistance
+                && clipNear == projectionClipNear) {
+            projectionChanged = false;
+            return;
+        }
+        projectionCamera = camera;
+        projectionCameraVersion = camera.getVersion();
+        projectionViewDistance = viewDistance;
+        projectionClipNear = clipNear;
+        projectionValid = true;
+        projectionChanged = true;
+
+        if (!camera.isBoxVisible(x1, y1, z1, x2, y2, z2)) {
             visible = false;
             return;
         }
         visible = true;
-        int l2 = 0;
-        int i3 = 0;
-        int j3 = 0;
-        int k3 = 0;
-        int l3 = 0;
-        int i4 = 0;
-        if (camera.getRoll() != 0) {
-            l2 = sine11[camera.getRoll()];
-            i3 = sine11[camera.getRoll() + 1024];
-        }
-        if (camera.getPitch() != 0) {
-            l3 = sine11[camera.getPitch()];
-            i4 = sine11[camera.getPitch() + 1024];
-        }
-        if (camera.getYaw() != 0) {
-            j3 = sine11[camera.getYaw()];
-            k3 = sine11[camera.getYaw() + 1024];
+
+        if (projectedX == null) {
+            // Instances have nowhere to project to until they come into view
+            allocateProjection(numVertices);
         }
+
+        // Bring each vertex into view space
+        int m[] = camera.getViewRotation();
+        int m00 = m[0], m01 = m[1], m02 = m[2];
+        int m10 = m[4], m11 = m[5], m12 = m[6];
+        int m20 = m[8], m21 = m[9], m22 = m[10];
+        int cameraX = camera.getX();
+        int cameraY = camera.getY();
+        int cameraZ = camera.getZ();
+
         for (int index = 0; index < numVertices; index++) {
-            int projectedX = verticesTransformed[index].x - camera.getX();
-            int projectedY = verticesTransformed[index].y - camera.getY();
-            int projectedZ = verticesTransformed[index].z - camera.getZ();
-            if (camera.getRoll() != 0) {
-                int i2 = projectedY * l2 + projectedX * i3 >> 15;
-                projectedY = projectedY * i3 - projectedX * l2 >> 15;
-                projectedX = i2;
-            }
-            if (camera.getPitch() != 0) {
-                int j2 = projectedZ * l3 + projectedX * i4 >> 15;
-                projectedZ = projectedZ * i4 - projectedX * l3 >> 15;
-                projectedX = j2;
-            }
-            if (camera.getYaw() != 0) {
-                int k2 = projectedY * k3 - projectedZ * j3 >> 15;
-                projectedZ = projectedY * j3 + projectedZ * k3 >> 15;
-                projectedY = k2;
-            }
-            if (projectedZ >= clipNear) {
-                verticesView[index].x = (projectedX << viewDistance) / projectedZ;
+            int dx = transformedX[index] - cameraX;
+            int dy = transformedY[index] - cameraY;
+            int dz = transformedZ[index] - cameraZ;
+            int x = m00 * dx + m01 * dy + m02 * dz >> MatrixUtils.FIXED_POINT_SHIFT;
+            int y = m10 * dx + m11 * dy + m12 * dz >> MatrixUtils.FIXED_POINT_SHIFT;
+            int z = m20 * dx + m21 * dy + m22 * dz >> MatrixUtils.FIXED_POINT_SHIFT;
+            if (z >= clipNear) {
+                viewX[index] = (x << viewDistance) / z;
             } else {
-                verticesView[index].x = projectedX << viewDistance;
+                viewX[index] = x << viewDistance;
             }
-            if (projectedZ >= clipNear) {
-                verticesView[index].y = (projectedY << viewDistance) / projectedZ;
+            if (z >= clipNear) {
+                viewY[index] = (y << viewDistance) / z;
             } else {
-                verticesView[index].y = projectedY << viewDistance;
+                viewY[index] = y << viewDistance;
             }
-            verticesProjected[index].set(projectedX, projectedY, projectedZ);
+            projectedX[index] = x;
+            projectedY[index] = y;
+            projectedZ[index] = z;
         }
 
     }
 
+    /**
+     * Determines whether the last call to {@link #project} calculated a new
+     * projection, or kept the one before.
+     *
+     * @return
+     */
+    public boolean hasProjectionChanged() {
+        return projectionChanged;
+    }
+
+    /**
+     * Applies the current transform to this Model's vertices.
+     *
+     * @throws IllegalStateException if this Model is an instance, since its
+     * vertices belong to another Model.
+     */
     public void commitTransform() {
-        applyTransform();
-        for (int i = 0; i < numVertices; i++) {
-            vertices[i] = verticesTransformed[i];
+        if (sharedGeometry) {
+            throw new IllegalStateException("Cannot commit the transform of an instance");
         }
+        applyTransform();
+        commitVertices(transformedX, transformedY, transformedZ, vertexX, vertexY, vertexZ);
+        dropVertexIndex();
 
         translate.set(0, 0, 0);
         rotate.set(0, 0, 0);
@@ -1110,6 +1435,7 @@ public class Model {
         rotate.set(gameModel.rotate);
         determineTransformType();
         transformState = TransformState.PENDING;
+        normalsValid = false;
     }
 
     public int readBase64(byte data[]) {
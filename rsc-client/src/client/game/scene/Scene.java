@@ -48,6 +48,24 @@ public class Scene {
         }
     }
 
+    /**
+     * Replaces the models in this Scene with those in another.
+     *
+     * <p>Sprites are not copied.
+     *
+     * @param other
+     */
+    public void copyModels(Scene other) {
+        System.arraycopy(other.models, 0, models, 0, other.numModels);
+        for (int i = other.numModels; i < numModels; i++) {
+            // Don't keep unloaded models alive
+            models[i] = null;
+        }
+        numModels = other.numModels;
+        fogZFalloff = other.fogZFalloff;
+        fogZDistance = other.fogZDistance;
+    }
+
     public void removeModel(Model gameModel) {
         for (int i = 0; i < numModels; i++) {
             if (models[i] == gameModel) {
@@ -26,7 +26,7 @@ public class Door {
     public void move(int dx, int dz) {
         x += dx;
         z += dz;
-        model = ModelUtils.createDoor(this, world, model.entityId);
+        ModelUtils.positionDoor(this, world, model);
     }
 
     public int getX() {
@@ -13,12 +13,28 @@ public class GameObject {
     private int id;
     private Model model;
 
-    public GameObject(World world, int x, int z, int type, int id) {
+    /**
+     * Creates a GameObject.
+     *
+     * <p>Objects of the same type look the same, so each one is given an
+     * instance of the same geometry, rather than a copy.
+     *
+     * @param world
+     * @param x
+     * @param z
+     * @param type
+     * @param id
+     * @param geometry Model shared by all objects of this type.
+     */
+    public GameObject(World world, int x, int z, int type, int id, Model geometry) {
         this.world = world;
         this.x = x;
         this.z = z;
         this.type = type;
         this.id = id;
+
+        model = geometry.createInstance();
+        move(0, 0);
     }
 
     public int getX() {
@@ -14,6 +14,7 @@ import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.joml.Vector3i;
 
+import client.game.model.Sector;
 import client.game.scene.Model;
 import client.res.Resources;
 import client.res.Texture;
@@ -21,8 +22,8 @@ import client.util.DataUtils;
 
 public class ModelExporter {
 	
-	final int SECTOR_WIDTH = World.NUM_TILES_X/2;
-    final int SECTOR_HEIGHT = World.NUM_TILES_Z/2;
+	final int SECTOR_WIDTH = Sector.WIDTH;
+    final int SECTOR_HEIGHT = Sector.DEPTH;
     static final float WORLD_SCALE = 0.5f;
     static Vector3f WORLD_OFFSET = new Vector3f(-16*96, -16*96, -512);
     static final float UNDERGROUND_DEPTH = 1024;
@@ -44,12 +45,12 @@ public class ModelExporter {
 	
 	String smdPrefix;
 	
-	static final int SECTOR_SIZE = World.NUM_TILES_X/2+1;
+	static final int SECTOR_SIZE = Sector.WIDTH+1;
 	static final int SECTOR_OFFSET = 24;
 	
 	// split sectors into even smaller chunks for smaller entity updates in-game (prevent desyncs)
 	static final int SUB_SECTOR_COUNT = 2; // per axis
-	static final int SUB_SECTOR_SIZE = (World.NUM_TILES_X/2)/2;
+	static final int SUB_SECTOR_SIZE = Sector.WIDTH/2;
 	
 	// export models with sector offsets so they can be loaded together as one giant model in blender
 	public static final boolean superModelMode = false;
@@ -144,8 +145,7 @@ public class ModelExporter {
 			
 			for (int i = 0; i < 3; i++) {
 				int vertIdx = model.faceVertices[faceIdx][order[i]];
-				Vector3i iv0 = model.vertices[vertIdx];
-				Vector3f pos = new Vector3f(iv0.x, iv0.y, iv0.z);
+				Vector3f pos = new Vector3f(model.vertexX[vertIdx], model.vertexY[vertIdx], model.vertexZ[vertIdx]);
 				verts[i] = new Vertex(pos, normals[vertIdx], new Vector2f());
 			}
 		}
@@ -243,10 +243,10 @@ public class ModelExporter {
 			
 			boolean isOutOfBounds = false;
 			for (int k = 0; k < model.numVerticesPerFace[i]; k++) {
-				Vector3i vert = model.vertices[model.faceVertices[i][k]];
-				if (!vertexInBounds(vert, minCoord, maxCoord)) {
+				int vert = model.faceVertices[i][k];
+				if (!vertexInBounds(model, vert, minCoord, maxCoord)) {
 					isOutOfBounds = true;
-					vert.x = vert.y = vert.z = 0; // prevent out of bounds errors later
+					model.vertexX[vert] = model.vertexY[vert] = model.vertexZ[vert] = 0; // prevent out of bounds errors later
 				}
 			}
 			
@@ -258,15 +258,14 @@ public class ModelExporter {
 	
 	private static void shiftModel(Model model, int offset) {
 		for (int i = 0; i < model.numVertices; i++) {
-			Vector3i vert = model.vertices[i];
-			vert.x += offset;
-			vert.z += offset;
+			model.vertexX[i] += offset;
+			model.vertexZ[i] += offset;
 		}
 	}
 	
-	private static boolean vertexInBounds(Vector3i vert, int minCoord, int maxCoord) {
-		int x = Math.round((float)vert.x/128.0f);
-		int z = Math.round((float)vert.z/128.0f);
+	private static boolean vertexInBounds(Model model, int vert, int minCoord, int maxCoord) {
+		int x = Math.round((float)model.vertexX[vert]/128.0f);
+		int z = Math.round((float)model.vertexZ[vert]/128.0f);
 		if (x >= maxCoord || z >= maxCoord || x <= minCoord || z <= minCoord) {
 			return false;
 		}
@@ -277,11 +276,10 @@ public class ModelExporter {
 		Vector3i mins = new Vector3i(999999, 999999, 99999);
 		Vector3i maxs = new Vector3i(-999999, -999999, -99999);
 		for (int i = 0; i < model.numVertices; i++) {
-			Vector3i vert = model.vertices[i];
-			if (vert.x > maxs.x) maxs.x = vert.x;
-			if (vert.z > maxs.z) maxs.z = vert.z;
-			if (vert.x < mins.x) mins.x = vert.x;
-			if (vert.z < mins.z) mins.z = vert.z;
+			if (model.vertexX[i] > maxs.x) maxs.x = model.vertexX[i];
+			if (model.vertexZ[i] > maxs.z) maxs.z = model.vertexZ[i];
+			if (model.vertexX[i] < mins.x) mins.x = model.vertexX[i];
+			if (model.vertexZ[i] < mins.z) mins.z = model.vertexZ[i];
 		}
 		System.out.println("Model bounds: " + mins.x/128.0f + " " + mins.z/128.0f 
 				+ " TO " + maxs.x/128.0f + " " + maxs.z/128.0f);
@@ -297,8 +295,7 @@ public class ModelExporter {
 		}
 		
 		for (int i = 0; i < model.numVertices; i++) {
-			Vector3i ivert = model.vertices[i];
-			Vertex vert = new Vertex(ivert.x, ivert.y, ivert.z);
+			Vertex vert = new Vertex(model.vertexX[i], model.vertexY[i], model.vertexZ[i]);
 			
 			int wx = (int)Math.round((vert.x) / 128.0f);
 			int wy = (int)Math.round((vert.y) / 128.0f);
@@ -337,12 +334,12 @@ public class ModelExporter {
 					boolean[] alreadyMatched = new boolean[roofs.numVerticesPerFace[i]];
 					
 					for (int j = 0; j < roofs.numVerticesPerFace[i]; j++) {
-						Vector3i roof_vert = roofs.vertices[roofs.faceVertices[i][j]];
+						int roof_vert = roofs.faceVertices[i][j];
 						boolean overlapsVert = false;
 						for (int j2 = 0; j2 < floors.numVerticesPerFace[k]; j2++) {
-							Vector3i floor_vert = floors.vertices[floors.faceVertices[k][j2]];
-							int diffX = Math.abs(roof_vert.x - floor_vert.x);
-							int diffY = Math.abs(roof_vert.z - floor_vert.z);
+							int floor_vert = floors.faceVertices[k][j2];
+							int diffX = Math.abs(roofs.vertexX[roof_vert] - floors.vertexX[floor_vert]);
+							int diffY = Math.abs(roofs.vertexZ[roof_vert] - floors.vertexZ[floor_vert]);
 							if (!alreadyMatched[j2] && diffX == 0 && diffY == 0) {
 								overlapsVert = true;
 								alreadyMatched[j2] = true;
@@ -366,17 +363,14 @@ public class ModelExporter {
 	// for preventing roofs from clipping through walls on upper levels
 	private static void snapRoofsToNearbyWalls(Model roofs, Model walls) {
 		for (int i = 0; i < roofs.numVertices; i++) {
-			Vector3i roof_vert = roofs.vertices[i];
-			
 			for (int k = 0; k < walls.numVertices; k++) {
-				Vector3i wall_vert = walls.vertices[k];
-				int diffX = Math.abs(roof_vert.x - wall_vert.x);
-				int diffY = Math.abs(roof_vert.y - wall_vert.y);
-				int diffZ = Math.abs(roof_vert.z - wall_vert.z);
+				int diffX = Math.abs(roofs.vertexX[i] - walls.vertexX[k]);
+				int diffY = Math.abs(roofs.vertexY[i] - walls.vertexY[k]);
+				int diffZ = Math.abs(roofs.vertexZ[i] - walls.vertexZ[k]);
 				
 				if ((diffX > 0 || diffZ > 0) && diffX < 64 && diffZ < 64) {
-					roof_vert.x = wall_vert.x;
-					roof_vert.z = wall_vert.z;
+					roofs.vertexX[i] = walls.vertexX[k];
+					roofs.vertexZ[i] = walls.vertexZ[k];
 				}
 			}
 		}
@@ -461,8 +455,8 @@ public class ModelExporter {
 			if (j > 0) {
 				// this is somehow 100% accurate. Slanted roofs cause slanted walls and gaps between layers.
 				for (int k = 0; k < layers.get(j-1).roofs.numVertices; k++) {
-					Vector3i ivert = layers.get(j-1).roofs.vertices[k];
-					Vertex vert = new Vertex(ivert.x, ivert.y, ivert.z);
+					Model roofs = layers.get(j-1).roofs;
+					Vertex vert = new Vertex(roofs.vertexX[k], roofs.vertexY[k], roofs.vertexZ[k]);
 					int wx = (SECTOR_SIZE+1) - (int)Math.round((vert.x) / 128.0f);
 					int wy = (SECTOR_SIZE+1) - (int)Math.round((vert.y) / 128.0f);
 					int height = (int)vert.z - 192;
@@ -664,11 +658,13 @@ public class ModelExporter {
     	            	}
 	            		
 	            		if (faceUsesVert) {
-	            			Vector3i vec = model.faceNormals[f];
-	            			float dist = (float)Math.sqrt(vec.x*vec.x + vec.y*vec.y + vec.z*vec.z);
-	            			nx += (float)vec.x / dist;
-	            			ny += (float)vec.z / dist;
-	            			nz += (float)vec.y / dist;
+	            			int vx = model.faceNormalX[f];
+	            			int vy = model.faceNormalY[f];
+	            			int vz = model.faceNormalZ[f];
+	            			float dist = (float)Math.sqrt(vx*vx + vy*vy + vz*vz);
+	            			nx += (float)vx / dist;
+	            			ny += (float)vz / dist;
+	            			nz += (float)vy / dist;
 	            			totalFaces++;
 	            		}
     	            }
@@ -698,7 +694,7 @@ public class ModelExporter {
 		}
 		// empty sectors appear as ocean tiles (every vertex at sea level)
 		for (int i = 0; i < model.numVertices; i++) {
-        	if (model.vertices[i].y != 0) { // not sea level?
+        	if (model.vertexY[i] != 0) { // not sea level?
         		return false;
         	}
         }
@@ -774,8 +770,7 @@ public class ModelExporter {
 			if (superModelMode && (isWater || isLava)) {
 				boolean isZeroHeightWater = true;
 				for (int k = 0; k < model.numVerticesPerFace[i]; k++) {
-					Vector3i wall_vert = model.vertices[model.faceVertices[i][k]];
-					if (wall_vert.y != 0) {
+					if (model.vertexY[model.faceVertices[i][k]] != 0) {
 						isZeroHeightWater = false;
 						break;
 					}
@@ -980,8 +975,7 @@ public class ModelExporter {
 			Vertex[] verts = new Vertex[4];
         	for (int k = 0; k < 4; k++) {
         		int idx = model.faceVertices[i][k];
-        		Vector3i vert = model.vertices[idx];       	
-            	verts[k] = new Vertex(vert.x, vert.y, vert.z);
+            	verts[k] = new Vertex(model.vertexX[idx], model.vertexY[idx], model.vertexZ[idx]);
             	
             	if (layer > 0) {
             		if (layer == 3) {
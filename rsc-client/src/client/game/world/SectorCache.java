@@ -0,0 +1,268 @@
+package client.game.world;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import client.game.scene.Model;
+
+/**
+ * Cache of Sector models that have already been built.
+ *
+ * <p>When a Sector leaves the loaded area, its models are stored here so that
+ * they can be reused if the player returns to it, instead of being built
+ * again. The cache is limited by the size of the models it holds; once this
+ * is exceeded, the Sectors that were left the longest time ago are
+ * discarded.
+ *
+ * <p>Models are only reused at the same position within the loaded area at
+ * which they were stored, since pieces on the edge of the loaded area are
+ * built differently.
+ *
+ * @author Dan Bryce
+ */
+public class SectorCache {
+
+    /**
+     * Maximum combined number of vertices and faces in the cached models.
+     *
+     * <p>A typical Sector has around 7,000, so this holds a few windows' worth
+     * of Sectors.
+     */
+    private static final int MAX_SIZE = 128000;
+
+    /**
+     * Number of pieces that make up 1 Sector.
+     */
+    private static final int PIECES_PER_SECTOR =
+            World.PIECES_PER_SECTOR * World.PIECES_PER_SECTOR;
+
+    /**
+     * Models belonging to a single Sector.
+     */
+    private static class CachedSector {
+
+        /**
+         * Position of the Sector within the loaded area.
+         */
+        private int windowX;
+        private int windowZ;
+
+        /**
+         * Origin to which the models are relative.
+         */
+        private int originX;
+        private int originZ;
+
+        private Model[] landscapeModels = new Model[PIECES_PER_SECTOR];
+        private Model[][] wallModels = new Model[World.NUM_LAYERS][PIECES_PER_SECTOR];
+        private Model[][] roofModels = new Model[World.NUM_LAYERS][PIECES_PER_SECTOR];
+        private int[] pieceEdges = new int[PIECES_PER_SECTOR];
+
+        /**
+         * Combined number of vertices and faces in the models.
+         */
+        private int size;
+
+        private void addSize(Model model) {
+            if (model != null) {
+                size += model.numVertices + model.numFaces;
+            }
+        }
+
+    }
+
+    /**
+     * Cached Sectors, keyed by position and layer, in the order they were
+     * stored.
+     */
+    private Map<Long, CachedSector> sectors = new LinkedHashMap<>();
+
+    /**
+     * Combined number of vertices and faces in all cached models.
+     */
+    private int size;
+
+    private int hits;
+
+    private int misses;
+
+    /**
+     * Stores the models of the given loaded Sectors.
+     *
+     * <p>The World must not use the stored models afterwards, since they will
+     * be moved when they are restored.
+     *
+     * @param world
+     * @param minX First Sector to store, relative to the loaded area.
+     * @param minZ First Sector to store, relative to the loaded area.
+     * @param maxX Last Sector to store (exclusive).
+     * @param maxZ Last Sector to store (exclusive).
+     * @param layer Layer for which the models were built.
+     */
+    public void store(World world, int minX, int minZ, int maxX, int maxZ, int layer) {
+        for (int windowZ = minZ; windowZ < maxZ; windowZ++) {
+            for (int windowX = minX; windowX < maxX; windowX++) {
+
+                if (world.getLandscapeModel(getPieceIndex(windowX, windowZ, 0)) == null) {
+                    // Nothing has been built here
+                    continue;
+                }
+
+                CachedSector cachedSector = new CachedSector();
+                cachedSector.windowX = windowX;
+                cachedSector.windowZ = windowZ;
+                cachedSector.originX = world.getOriginX();
+                cachedSector.originZ = world.getOriginZ();
+
+                for (int piece = 0; piece < PIECES_PER_SECTOR; piece++) {
+                    int i = getPieceIndex(windowX, windowZ, piece);
+                    cachedSector.landscapeModels[piece] = world.getLandscapeModel(i);
+                    cachedSector.pieceEdges[piece] = world.getPieceEdges(i);
+                    cachedSector.addSize(cachedSector.landscapeModels[piece]);
+                    for (int l = 0; l < World.NUM_LAYERS; l++) {
+                        cachedSector.wallModels[l][piece] = world.getWallModel(l, i);
+                        cachedSector.roofModels[l][piece] = world.getRoofModel(l, i);
+                        cachedSector.addSize(cachedSector.wallModels[l][piece]);
+                        cachedSector.addSize(cachedSector.roofModels[l][piece]);
+                    }
+                }
+
+                long key = getKey(world, windowX, windowZ, layer);
+                remove(key);
+                sectors.put(key, cachedSector);
+                size += cachedSector.size;
+            }
+        }
+
+        // Discard the Sectors that were left the longest time ago
+        Iterator<CachedSector> it = sectors.values().iterator();
+        while (size > MAX_SIZE && it.hasNext()) {
+            size -= it.next().size;
+            it.remove();
+        }
+    }
+
+    /**
+     * Restores the models of the given Sectors into the World, if they are all
+     * present in the cache.
+     *
+     * @param world
+     * @param minX First Sector to restore, relative to the loaded area.
+     * @param minZ First Sector to restore, relative to the loaded area.
+     * @param maxX Last Sector to restore (exclusive).
+     * @param maxZ Last Sector to restore (exclusive).
+     * @param layer Layer for which the models should have been built.
+     * @return True if the Sectors were restored.
+     */
+    public boolean restore(World world, int minX, int minZ, int maxX, int maxZ, int layer) {
+
+        int numMisses = 0;
+        for (int windowZ = minZ; windowZ < maxZ; windowZ++) {
+            for (int windowX = minX; windowX < maxX; windowX++) {
+                CachedSector cachedSector = sectors.get(getKey(world, windowX, windowZ, layer));
+                if (cachedSector == null
+                        || cachedSector.windowX != windowX
+                        || cachedSector.windowZ != windowZ) {
+                    numMisses++;
+                }
+            }
+        }
+
+        if (numMisses > 0) {
+            misses += numMisses;
+            return false;
+        }
+
+        for (int windowZ = minZ; windowZ < maxZ; windowZ++) {
+            for (int windowX = minX; windowX < maxX; windowX++) {
+
+                CachedSector cachedSector = remove(getKey(world, windowX, windowZ, layer));
+                int tilesX = cachedSector.originX - world.getOriginX();
+                int tilesZ = cachedSector.originZ - world.getOriginZ();
+
+                for (int piece = 0; piece < PIECES_PER_SECTOR; piece++) {
+                    int i = getPieceIndex(windowX, windowZ, piece);
+                    world.setLandscapeModel(i, cachedSector.landscapeModels[piece]);
+                    world.setPieceEdges(i, cachedSector.pieceEdges[piece]);
+                    World.rebase(cachedSector.landscapeModels[piece], tilesX, tilesZ);
+                    for (int l = 0; l < World.NUM_LAYERS; l++) {
+                        world.setWallModel(l, i, cachedSector.wallModels[l][piece]);
+                        world.setRoofModel(l, i, cachedSector.roofModels[l][piece]);
+                        World.rebase(cachedSector.wallModels[l][piece], tilesX, tilesZ);
+                        World.rebase(cachedSector.roofModels[l][piece], tilesX, tilesZ);
+                    }
+                }
+
+                hits++;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes a Sector from the cache.
+     *
+     * @param key
+     * @return The removed Sector, or null if it was not present.
+     */
+    private CachedSector remove(long key) {
+        CachedSector cachedSector = sectors.remove(key);
+        if (cachedSector != null) {
+            size -= cachedSector.size;
+        }
+        return cachedSector;
+    }
+
+    /**
+     * Discards all cached Sectors.
+     */
+    public void clear() {
+        sectors.clear();
+        size = 0;
+    }
+
+    private static long getKey(World world, int windowX, int windowZ, int layer) {
+        return World.getSectorKey(
+                world.getFirstSectorX() + windowX,
+                world.getFirstSectorZ() + windowZ,
+                layer);
+    }
+
+    /**
+     * Gets the index of a piece within the loaded area.
+     *
+     * @param windowX Position of the Sector within the loaded area.
+     * @param windowZ Position of the Sector within the loaded area.
+     * @param piece Index of the piece within the Sector.
+     * @return
+     */
+    private static int getPieceIndex(int windowX, int windowZ, int piece) {
+        int x = windowX * World.PIECES_PER_SECTOR + piece % World.PIECES_PER_SECTOR;
+        int z = windowZ * World.PIECES_PER_SECTOR + piece / World.PIECES_PER_SECTOR;
+        return x + z * World.PIECES_X;
+    }
+
+    public int getNumSectors() {
+        return sectors.size();
+    }
+
+    /**
+     * Gets the combined number of vertices and faces in all cached models.
+     *
+     * @return
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+}
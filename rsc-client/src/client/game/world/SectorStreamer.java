@@ -0,0 +1,402 @@
+package client.game.world;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import client.game.scene.Scene;
+
+/**
+ * Class responsible for building Sectors in the background.
+ *
+ * <p>Whenever the player is heading towards the edge of the loaded area, the
+ * pieces that will come into view when the loaded area slides to the next
+ * Sector are built ahead of time. When the player crosses the boundary, these
+ * are handed to the WorldLoader in place of building them there and then.
+ *
+ * @author Dan Bryce
+ */
+public class SectorStreamer {
+
+    /**
+     * Distance from the load boundary, in tiles, at which neighbouring Sectors
+     * start to be built.
+     */
+    private static final int PREFETCH_DISTANCE = 24;
+
+    /**
+     * Maximum number of Sectors that can be built ahead of time.
+     *
+     * <p>This allows for the Sectors on either axis, plus the diagonal.
+     */
+    private static final int MAX_PREFETCHES = 3;
+
+    /**
+     * A Sector being built (or already built) in the background.
+     */
+    private static class Prefetch {
+
+        /**
+         * World into which the pieces are built.
+         *
+         * <p>This is reused for each Sector built into this slot.
+         */
+        private World world;
+
+        private Future<?> future;
+
+        /**
+         * Incremented whenever this slot is reused or cancelled.
+         *
+         * <p>Cancelling does not stop a build that has already started, so
+         * each build checks this before touching the World, in case the slot
+         * now belongs to a newer build.
+         */
+        private volatile int generation;
+
+        private int sectorX;
+        private int sectorZ;
+        private int dx;
+        private int dz;
+        private int layer;
+
+        public Prefetch(Scene scene) {
+            world = new World(scene);
+        }
+
+        public boolean matches(int sectorX, int sectorZ, int dx, int dz, int layer) {
+            return future != null &&
+                    this.sectorX == sectorX &&
+                    this.sectorZ == sectorZ &&
+                    this.dx == dx &&
+                    this.dz == dz &&
+                    this.layer == layer;
+        }
+
+        public void cancel() {
+            if (future != null) {
+                future.cancel(false);
+                future = null;
+                generation++;
+            }
+        }
+
+    }
+
+    private WorldLoader worldLoader;
+
+    private World world;
+
+    private ExecutorService executor;
+
+    /**
+     * Loader used to build Sectors in the background.
+     *
+     * <p>This is shared by all prefetches, so only one can be built at a
+     * time.
+     */
+    private WorldLoader prefetchLoader;
+
+    private Prefetch[] prefetches = new Prefetch[MAX_PREFETCHES];
+
+    /**
+     * Sectors that the player is approaching, and the direction of the
+     * slide that will reach them.
+     */
+    private int[] wantedX = new int[MAX_PREFETCHES];
+    private int[] wantedZ = new int[MAX_PREFETCHES];
+    private int[] wantedDx = new int[MAX_PREFETCHES];
+    private int[] wantedDz = new int[MAX_PREFETCHES];
+    private boolean[] wantedFound = new boolean[MAX_PREFETCHES];
+    private int numWanted;
+
+    /**
+     * The tile position of the player when we last checked.
+     */
+    private int lastTileX = -1;
+    private int lastTileZ = -1;
+
+    /**
+     * The direction in which the player was last seen moving, in each axis.
+     */
+    private int headingX;
+    private int headingZ;
+
+    public SectorStreamer(WorldLoader worldLoader, ExecutorService executor) {
+        this.worldLoader = worldLoader;
+        this.world = worldLoader.world;
+        this.executor = executor;
+
+        // Prefetched models never reach the live Scene, so they can share one
+        Scene prefetchScene = new Scene();
+        prefetchLoader = new WorldLoader(null);
+        prefetchLoader.setExportMode(false);
+        for (int i = 0; i < prefetches.length; i++) {
+            prefetches[i] = new Prefetch(prefetchScene);
+        }
+    }
+
+    /**
+     * Determines whether Sectors can be built in the background.
+     *
+     * <p>The export process takes over the loader, so streaming is not
+     * possible while it is enabled.
+     *
+     * @return
+     */
+    public boolean isEnabled() {
+        return !worldLoader.exportMode;
+    }
+
+    /**
+     * Starts building any Sectors that the player is approaching, and
+     * discards any that are no longer needed.
+     *
+     * <p>This should be called once per tick.
+     *
+     * @param tileX Player position, relative to the World origin.
+     * @param tileZ Player position, relative to the World origin.
+     */
+    public void update(int tileX, int tileZ) {
+
+        if (!isEnabled() || !world.isLoaded()) {
+            return;
+        }
+
+        // Update the player's heading
+        if (lastTileX != -1) {
+            if (tileX != lastTileX) {
+                headingX = Integer.signum(tileX - lastTileX);
+            }
+            if (tileZ != lastTileZ) {
+                headingZ = Integer.signum(tileZ - lastTileZ);
+            }
+        }
+        lastTileX = tileX;
+        lastTileZ = tileZ;
+
+        int stepX = getPrefetchStep(tileX, headingX, World.NUM_TILES_X);
+        int stepZ = getPrefetchStep(tileZ, headingZ, World.NUM_TILES_Z);
+        int sectorX = world.getSectorX();
+        int sectorZ = world.getSectorZ();
+        int layer = world.getCurrentLayer();
+
+        // Work out which Sectors we need
+        numWanted = 0;
+        if (stepX != 0) {
+            addWanted(sectorX + stepX, sectorZ, stepX, 0);
+        }
+        if (stepZ != 0) {
+            addWanted(sectorX, sectorZ + stepZ, 0, stepZ);
+        }
+        if (stepX != 0 && stepZ != 0) {
+            // The x-axis is always loaded first, so this is reached by
+            // sliding along the z-axis
+            addWanted(sectorX + stepX, sectorZ + stepZ, 0, stepZ);
+        }
+
+        // Discard Sectors we no longer need
+        for (Prefetch prefetch : prefetches) {
+            int wanted = findWanted(prefetch, layer);
+            if (wanted == -1) {
+                prefetch.cancel();
+            } else {
+                wantedFound[wanted] = true;
+            }
+        }
+
+        // Start building any new Sectors
+        for (int i = 0; i < numWanted; i++) {
+            if (!wantedFound[i]) {
+                start(getFreePrefetch(), wantedX[i], wantedZ[i],
+                        wantedDx[i], wantedDz[i], layer);
+            }
+        }
+    }
+
+    private void addWanted(int sectorX, int sectorZ, int dx, int dz) {
+        wantedX[numWanted] = sectorX;
+        wantedZ[numWanted] = sectorZ;
+        wantedDx[numWanted] = dx;
+        wantedDz[numWanted] = dz;
+        wantedFound[numWanted] = false;
+        numWanted++;
+    }
+
+    /**
+     * Finds the wanted Sector that the given prefetch is building.
+     *
+     * @param prefetch
+     * @param layer
+     * @return Index of the wanted Sector, or -1.
+     */
+    private int findWanted(Prefetch prefetch, int layer) {
+        for (int i = 0; i < numWanted; i++) {
+            if (prefetch.matches(wantedX[i], wantedZ[i],
+                    wantedDx[i], wantedDz[i], layer)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Prefetch getFreePrefetch() {
+        for (Prefetch prefetch : prefetches) {
+            if (prefetch.future == null) {
+                return prefetch;
+            }
+        }
+        // There is always one free, since we never want more than we have
+        throw new IllegalStateException("No free prefetch slots");
+    }
+
+    /**
+     * Gets the direction in which to prefetch along one axis.
+     *
+     * @param tile Player position along the axis.
+     * @param heading Direction the player is moving along the axis.
+     * @param numTiles Number of loaded tiles along the axis.
+     * @return -1, 0 or 1.
+     */
+    private int getPrefetchStep(int tile, int heading, int numTiles) {
+        if (tile < World.LOAD_BOUNDARY + PREFETCH_DISTANCE && heading <= 0) {
+            return -1;
+        }
+        if (tile > numTiles - World.LOAD_BOUNDARY - PREFETCH_DISTANCE && heading >= 0) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Determines whether the given Sector can be loaded without waiting for
+     * it to finish building in the background.
+     *
+     * @param sectorX
+     * @param sectorZ
+     * @return False if the Sector is still being built.
+     */
+    public boolean isReady(int sectorX, int sectorZ) {
+        Prefetch prefetch = findPrefetch(sectorX, sectorZ);
+        return prefetch == null || prefetch.future.isDone();
+    }
+
+    private Prefetch findPrefetch(int sectorX, int sectorZ) {
+        int dx = sectorX - world.getSectorX();
+        int dz = sectorZ - world.getSectorZ();
+        int layer = world.getCurrentLayer();
+        for (Prefetch prefetch : prefetches) {
+            if (prefetch.matches(sectorX, sectorZ, dx, dz, layer)) {
+                return prefetch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Loads the given Sector into the World, if it is ready.
+     *
+     * <p>If the Sector has already been built in the background, the result
+     * is used to complete the load. If it is still being built, nothing
+     * happens, and the caller should try again later. Otherwise, it is
+     * loaded on the calling thread.
+     *
+     * @param sectorX
+     * @param sectorZ
+     * @return True if the Sector was loaded.
+     * @see #isReady
+     */
+    public boolean loadSector(int sectorX, int sectorZ) {
+
+        if (!isReady(sectorX, sectorZ)) {
+            // Don't hold up the game; the player is not at the edge yet
+            return false;
+        }
+
+        Prefetch prefetch = findPrefetch(sectorX, sectorZ);
+        World prebuilt = null;
+
+        if (prefetch != null) {
+            try {
+                prefetch.future.get();
+                prebuilt = prefetch.world;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                System.out.println("Failed to build sector in the background: " +
+                        sectorX + ", " + sectorZ + " (" + world.getCurrentLayer() + ")");
+                e.getCause().printStackTrace();
+            }
+            prefetch.future = null;
+        }
+
+        // Player position will jump, so heading is no longer meaningful
+        lastTileX = -1;
+        lastTileZ = -1;
+
+        worldLoader.loadSector(sectorX, sectorZ, prebuilt);
+
+        return true;
+    }
+
+    /**
+     * Discards all Sectors built in the background.
+     */
+    public void clear() {
+        for (Prefetch prefetch : prefetches) {
+            prefetch.cancel();
+        }
+    }
+
+    /**
+     * Starts building the pieces needed to slide to the given Sector.
+     *
+     * @param prefetch
+     * @param sectorX
+     * @param sectorZ
+     * @param dx
+     * @param dz
+     * @param layer
+     */
+    private void start(Prefetch prefetch, int sectorX, int sectorZ,
+            int dx, int dz, int layer) {
+        int generation = ++prefetch.generation;
+        prefetch.sectorX = sectorX;
+        prefetch.sectorZ = sectorZ;
+        prefetch.dx = dx;
+        prefetch.dz = dz;
+        prefetch.layer = layer;
+        prefetch.future = executor.submit(
+                () -> build(prefetch, generation, sectorX, sectorZ, dx, dz, layer));
+    }
+
+    /**
+     * Builds the pieces needed to slide to the given Sector into the given
+     * World.
+     *
+     * <p>This runs on a worker thread, so it must not touch the live World.
+     * A cancelled build may still be running when its World is reused, so
+     * builds take turns, and a build does nothing if its slot has since been
+     * given to another.
+     *
+     * @param prefetch
+     * @param generation Generation of the slot when this build was started.
+     * @param sectorX
+     * @param sectorZ
+     * @param dx
+     * @param dz
+     * @param layer
+     */
+    private void build(Prefetch prefetch, int generation, int sectorX, int sectorZ,
+            int dx, int dz, int layer) {
+        synchronized (prefetchLoader) {
+            if (prefetch.generation != generation) {
+                // Cancelled, and possibly replaced by a newer build
+                return;
+            }
+            prefetchLoader.world = prefetch.world;
+            prefetchLoader.buildSlide(sectorX, sectorZ, dx, dz, layer);
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 package client.game.world;
 
 import client.game.model.Sector;
+import client.game.model.Tile;
 import client.game.scene.Model;
 import client.game.scene.Scene;
 
@@ -34,15 +35,24 @@ public class World {
      */
     public static final int TILE_DEPTH = 128;
 
+    /**
+     * Number of Sectors loaded along each axis.
+     *
+     * <p>This must be at least 2. Loaded Sectors start
+     * <code>WINDOW_SIZE / 2</code> Sectors before the current Sector, so an
+     * odd size loads the same number of Sectors on either side of it.
+     */
+    public static final int WINDOW_SIZE = 2;
+
     /**
      * Number of Sectors loaded in the x-axis.
      */
-    private static final int SECTORS_X = 2;
+    public static final int SECTORS_X = WINDOW_SIZE;
 
     /**
      * Number of Sectors loaded in the z-axis.
      */
-    private static final int SECTORS_Z = 2;
+    public static final int SECTORS_Z = WINDOW_SIZE;
 
     /**
      * Total number of Sectors loaded at a time.
@@ -59,15 +69,63 @@ public class World {
      */
     public static final int NUM_TILES_Z = SECTORS_Z * Sector.DEPTH;
 
+    /**
+     * Distance from the edge of the loaded area, in tiles, at which a new
+     * Sector is loaded.
+     */
+    public static final int LOAD_BOUNDARY = 16;
+
     /**
      * Number of faces present in the loaded terrain.
      */
     public static final int NUM_TERRAIN_FACES = NUM_SECTORS * Sector.NUM_FACES;
 
+    /**
+     * Size of each piece that the world models are split into, in tiles.
+     */
+    public static final int PIECE_SIZE = 12;
+
+    /**
+     * Number of pieces in the x-axis.
+     */
+    public static final int PIECES_X = NUM_TILES_X / PIECE_SIZE;
+
+    /**
+     * Number of pieces in the z-axis.
+     */
+    public static final int PIECES_Z = NUM_TILES_Z / PIECE_SIZE;
+
+    /**
+     * Total number of pieces.
+     */
+    public static final int NUM_PIECES = PIECES_X * PIECES_Z;
+
+    /**
+     * Number of pieces spanned by 1 Sector, in each axis.
+     */
+    public static final int PIECES_PER_SECTOR = Sector.WIDTH / PIECE_SIZE;
+
+    /**
+     * Flag indicating that a piece was built on the edge of the loaded area in
+     * the x-axis.
+     */
+    public static final int EDGE_X = 1;
+
+    /**
+     * Flag indicating that a piece was built on the edge of the loaded area in
+     * the z-axis.
+     */
+    public static final int EDGE_Z = 2;
+
+    /**
+     * Offset added to the faceTag of each terrain face.
+     */
+    public static final int TERRAIN_FACE_TAG = 200000;
+
     /**
      * Number of layers in the world.
      */
-    private static final int NUM_LAYERS = 4;
+    public static final int NUM_LAYERS = 4;
 
     /**
      * Index of the layer at ground level.
@@ -79,18 +137,11 @@ public class World {
      */
     private Scene scene;
 
-    /**
-     * Tile position corresponding to a given face of the terrain model.
-     *
-     * <p>The index is given by the faceTag of the selected face.
-     */
-    private int[] tileXForFace = new int[NUM_TERRAIN_FACES];
-    private int[] tileZForFace = new int[NUM_TERRAIN_FACES];
-
     /**
      * Currently-loaded Sectors.
      *
-     * <p>When we load sector (x, z) we end up with the following:
+     * <p>When we load sector (x, z) with the default window size, we end up
+     * with the following:
      *
      * <pre>
      *  sectors[0] = (x - 1, z - 1)
@@ -101,11 +152,32 @@ public class World {
      */
     private Sector[] sectors = new Sector[NUM_SECTORS];
 
-    private Model[] landscapeModels = new Model[64];
+    /**
+     * Pieces of the world models.
+     *
+     * <p>These are stored in a ring buffer, so that when the window slides,
+     * pieces that are still in view can stay where they are.
+     */
+    private Model[] landscapeModels = new Model[NUM_PIECES];
 
-    private Model[][] wallModels = new Model[NUM_LAYERS][64];
+    private Model[][] wallModels = new Model[NUM_LAYERS][NUM_PIECES];
 
-    private Model[][] roofModels = new Model[NUM_LAYERS][64];
+    private Model[][] roofModels = new Model[NUM_LAYERS][NUM_PIECES];
+
+    /**
+     * Edge flags of each piece, indicating whether it was built on the edge
+     * of the loaded area.
+     *
+     * <p>Pieces built on the edge are missing some detail, so they need to be
+     * rebuilt if they are moved away from the edge.
+     */
+    private int[] pieceEdges = new int[NUM_PIECES];
+
+    /**
+     * Position of the first piece within the ring buffer, in each axis.
+     */
+    private int ringX;
+    private int ringZ;
 
     private int[][] elevation = new int[NUM_TILES_X][NUM_TILES_Z];
 
@@ -142,34 +214,222 @@ public class World {
 
     public void clear() {
         scene.dispose();
-        for (int i = 0; i < 64; i++) {
+        for (int i = 0; i < NUM_PIECES; i++) {
             landscapeModels[i] = null;
-            for (int k = 0; k < 4; k++) {
+            pieceEdges[i] = 0;
+            for (int k = 0; k < NUM_LAYERS; k++) {
+                wallModels[k][i] = null;
                 roofModels[k][i] = null;
             }
         }
-        System.gc();
+        ringX = 0;
+        ringZ = 0;
     }
 
-    public void setTilePosForFace(int faceId, int x, int z) {
-        this.tileXForFace[faceId] = x;
-        this.tileZForFace[faceId] = z;
+    /**
+     * Copies the loaded Sectors and elevations from another World, which has
+     * been loaded separately (e.g. in the background) at the same position.
+     *
+     * @param other
+     */
+    void copyTiles(World other) {
+        System.arraycopy(other.sectors, 0, sectors, 0, NUM_SECTORS);
+        for (int x = 0; x < NUM_TILES_X; x++) {
+            System.arraycopy(other.elevation[x], 0, elevation[x], 0, NUM_TILES_Z);
+        }
+    }
+
+    /**
+     * Moves the window of loaded Sectors by the given number of Sectors.
+     *
+     * <p>Pieces that remain in view are translated to their new position
+     * relative to the origin; the caller is responsible for building the
+     * pieces that have come into view.
+     *
+     * @param dx
+     * @param dz
+     */
+    public void slide(int dx, int dz) {
+
+        ringX = Math.floorMod(ringX + dx * PIECES_PER_SECTOR, PIECES_X);
+        ringZ = Math.floorMod(ringZ + dz * PIECES_PER_SECTOR, PIECES_Z);
+
+        // Rebase resident models
+        int tilesX = -dx * Sector.WIDTH;
+        int tilesZ = -dz * Sector.DEPTH;
+        for (int i = 0; i < NUM_PIECES; i++) {
+            if (isEnteringPiece(i, dx, dz)) {
+                // This slot now holds a piece that has left the loaded area
+                continue;
+            }
+            int slot = getPieceSlot(i);
+            rebase(landscapeModels[slot], tilesX, tilesZ);
+            for (int layer = 0; layer < NUM_LAYERS; layer++) {
+                rebase(wallModels[layer][slot], tilesX, tilesZ);
+                rebase(roofModels[layer][slot], tilesX, tilesZ);
+            }
+        }
+
+        setCurrentSector(sectorX + dx, sectorZ + dz);
+    }
+
+    /**
+     * Determines whether the given piece has just come into view, after
+     * sliding by the given number of Sectors.
+     *
+     * @param index
+     * @param dx
+     * @param dz
+     * @return
+     */
+    private static boolean isEnteringPiece(int index, int dx, int dz) {
+        int x = index % PIECES_X;
+        int z = index / PIECES_X;
+        return (dx > 0 && x >= PIECES_X - dx * PIECES_PER_SECTOR)
+                || (dx < 0 && x < -dx * PIECES_PER_SECTOR)
+                || (dz > 0 && z >= PIECES_Z - dz * PIECES_PER_SECTOR)
+                || (dz < 0 && z < -dz * PIECES_PER_SECTOR);
+    }
+
+    /**
+     * Moves a model built for this World by the given number of tiles.
+     *
+     * <p>Terrain face tags are updated to match their new tile positions.
+     *
+     * @param model
+     * @param tilesX
+     * @param tilesZ
+     */
+    static void rebase(Model model, int tilesX, int tilesZ) {
+
+        if (model == null || (tilesX == 0 && tilesZ == 0)) {
+            return;
+        }
+
+        model.translate(tilesX * TILE_WIDTH, 0, tilesZ * TILE_DEPTH);
+        model.commitTransform();
+
+        if (model.faceTag == null) {
+            return;
+        }
+
+        int faceIdOffset = getFaceIdForTile(tilesX, tilesZ);
+        for (int face = 0; face < model.numFaces; face++) {
+            if (model.faceTag[face] >= TERRAIN_FACE_TAG) {
+                model.faceTag[face] += faceIdOffset;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of Sectors by which the loaded area must move along one
+     * axis to keep the given position away from its edge.
+     *
+     * <p>The loaded area moves by however many Sectors bring the position
+     * closest to its centre.
+     *
+     * @param position Position along the axis, relative to the origin, in
+     *            world units.
+     * @param numTiles Number of loaded tiles along the axis.
+     * @param sectorSize Size of a Sector along the axis, in tiles.
+     * @param tileSize Size of a tile along the axis, in world units.
+     * @return Number of Sectors to move by, or 0 if the position is not
+     *         within {@link #LOAD_BOUNDARY} of the edge.
+     */
+    public static int getSectorShift(int position, int numTiles,
+            int sectorSize, int tileSize) {
+
+        if (position >= LOAD_BOUNDARY * tileSize &&
+                position <= (numTiles - LOAD_BOUNDARY) * tileSize) {
+            return 0;
+        }
+
+        float offset = position - numTiles * tileSize / 2;
+        return Math.round(offset / (sectorSize * tileSize));
+    }
+
+    /**
+     * Adds all loaded models to the Scene, replacing anything already there.
+     */
+    public void populateScene() {
+
+        scene.dispose();
+
+        for (int i = 0; i < NUM_PIECES; i++) {
+            scene.addModel(getLandscapeModel(i));
+        }
+
+        addLayerToScene(currentLayer);
+
+        if (currentLayer == LAYER_GROUND) {
+            // Upper storeys are visible from the ground floor
+            addLayerToScene(1);
+            addLayerToScene(2);
+        }
+    }
+
+    private void addLayerToScene(int layer) {
+        for (int i = 0; i < NUM_PIECES; i++) {
+            scene.addModel(getWallModel(layer, i));
+        }
+        for (int i = 0; i < NUM_PIECES; i++) {
+            scene.addModel(getRoofModel(layer, i));
+        }
+    }
+
+    /**
+     * Gets the index within the ring buffer of the given piece.
+     *
+     * @param index Piece index, relative to the first loaded piece.
+     * @return
+     */
+    private int getPieceSlot(int index) {
+        int x = (index % PIECES_X + ringX) % PIECES_X;
+        int z = (index / PIECES_X + ringZ) % PIECES_Z;
+        return x + z * PIECES_X;
+    }
+
+    /**
+     * Gets the faceTag identifier used for faces of the given tile.
+     *
+     * @param x
+     * @param z
+     * @return
+     */
+    public static int getFaceIdForTile(int x, int z) {
+        return x * NUM_TILES_Z + z;
     }
 
     public int getTileXForFace(int faceId) {
-        return tileXForFace[faceId];
+        return faceId / NUM_TILES_Z;
     }
 
     public int getTileZForFace(int faceId) {
-        return tileZForFace[faceId];
+        return faceId % NUM_TILES_Z;
+    }
+
+    /**
+     * Gets a unique key for the given Sector and layer.
+     *
+     * @param sectorX
+     * @param sectorZ
+     * @param layer
+     * @return
+     */
+    public static long getSectorKey(int sectorX, int sectorZ, int layer) {
+        return ((long) sectorX << 40) | ((long) (sectorZ & 0xfffff) << 8) | layer;
     }
 
-    public void setLandscapeModels(Model[] landscapeModels) {
-        this.landscapeModels = landscapeModels;
+    public void setPieceEdges(int i, int edges) {
+        pieceEdges[getPieceSlot(i)] = edges;
+    }
 
-        for (int i = 0; i < 64; i++) {
-            scene.addModel(landscapeModels[i]);
-        }
+    public int getPieceEdges(int i) {
+        return pieceEdges[getPieceSlot(i)];
+    }
+
+    public void setLandscapeModel(int i, Model model) {
+        landscapeModels[getPieceSlot(i)] = model;
     }
 
     public void setElevation(int x, int z, int newElevation) {
@@ -186,20 +446,7 @@ public class World {
             return 0;
         }
 
-        byte layer = 0;
-        if (x >= Sector.WIDTH && z < Sector.DEPTH) {
-            layer = 1;
-            x -= Sector.WIDTH;
-        } else if (x < Sector.WIDTH && z >= Sector.DEPTH) {
-            layer = 2;
-            z -= Sector.DEPTH;
-        } else if (x >= Sector.WIDTH && z >= Sector.DEPTH) {
-            layer = 3;
-            x -= Sector.WIDTH;
-            z -= Sector.DEPTH;
-        }
-
-        return (sectors[layer].getTile(x, z).groundElevation & 0xff) * 3;
+        return (getTile(x, z).groundElevation & 0xff) * 3;
     }
 
     public int getAveragedElevation(int tileX, int tileZ) {
@@ -233,31 +480,24 @@ public class World {
         return k1 + (l1 * i1) / 128 + (i2 * j1) / 128;
     }
 
-    public void setWallModels(int layer, Model[] newWallModels) {
-        wallModels[layer] = newWallModels;
-
-        for (int i = 0; i < 64; i++) {
-            scene.addModel(wallModels[layer][i]);
-        }
+    public void setWallModel(int layer, int index, Model model) {
+        wallModels[layer][getPieceSlot(index)] = model;
     }
 
-    public void setRoofModels(int layer, Model[] newRoofModels) {
-        roofModels[layer] = newRoofModels;
-        for (int l9 = 0; l9 < 64; l9++) {
-            scene.addModel(roofModels[layer][l9]);
-        }
+    public void setRoofModel(int layer, int index, Model model) {
+        roofModels[layer][getPieceSlot(index)] = model;
     }
 
     public Model getLandscapeModel(int i) {
-        return landscapeModels[i];
+        return landscapeModels[getPieceSlot(i)];
     }
 
     public Model getWallModel(int layer, int index) {
-        return wallModels[layer][index];
+        return wallModels[layer][getPieceSlot(index)];
     }
 
     public Model getRoofModel(int layer, int index) {
-        return roofModels[layer][index];
+        return roofModels[layer][getPieceSlot(index)];
     }
 
     public int getGroundTexture(int x, int z) {
@@ -266,20 +506,7 @@ public class World {
             return 0;
         }
 
-        byte layer = 0;
-        if (x >= Sector.WIDTH && z < Sector.DEPTH) {
-            layer = 1;
-            x -= Sector.WIDTH;
-        } else if (x < Sector.WIDTH && z >= Sector.DEPTH) {
-            layer = 2;
-            z -= Sector.DEPTH;
-        } else if (x >= Sector.WIDTH && z >= Sector.DEPTH) {
-            layer = 3;
-            x -= Sector.WIDTH;
-            z -= Sector.DEPTH;
-        }
-
-        return sectors[layer].getTile(x, z).texture & 0xFF;
+        return getTile(x, z).texture & 0xFF;
     }
 
     public void setGroundTextureOverlay(int x, int z, int groundOverlay) {
@@ -288,20 +515,7 @@ public class World {
             return;
         }
 
-        byte layer = 0;
-        if (x >= Sector.WIDTH && z < Sector.DEPTH) {
-            layer = 1;
-            x -= Sector.WIDTH;
-        } else if (x < Sector.WIDTH && z >= Sector.DEPTH) {
-            layer = 2;
-            z -= Sector.DEPTH;
-        } else if (x >= Sector.WIDTH && z >= Sector.DEPTH) {
-            layer = 3;
-            x -= Sector.WIDTH;
-            z -= Sector.DEPTH;
-        }
-
-        sectors[layer].getTile(x, z).groundOverlay = (byte) groundOverlay;
+        getTile(x, z).groundOverlay = (byte) groundOverlay;
     }
 
     public int getGroundTextureOverlay(int x, int z) {
@@ -310,20 +524,19 @@ public class World {
             return 0;
         }
 
-        byte layer = 0;
-        if (x >= Sector.WIDTH && z < Sector.DEPTH) {
-            layer = 1;
-            x -= Sector.WIDTH;
-        } else if (x < Sector.WIDTH && z >= Sector.DEPTH) {
-            layer = 2;
-            z -= Sector.DEPTH;
-        } else if (x >= Sector.WIDTH && z >= Sector.DEPTH) {
-            layer = 3;
-            x -= Sector.WIDTH;
-            z -= Sector.DEPTH;
-        }
+        return getTile(x, z).groundOverlay & 0xff;
+    }
 
-        return sectors[layer].getTile(x, z).groundOverlay & 0xff;
+    /**
+     * Gets the Tile at the given position, relative to the origin.
+     *
+     * @param x
+     * @param z
+     * @return
+     */
+    public Tile getTile(int x, int z) {
+        Sector sector = sectors[x / Sector.WIDTH + (z / Sector.DEPTH) * SECTORS_X];
+        return sector.getTile(x % Sector.WIDTH, z % Sector.DEPTH);
     }
 
     public void setSector(int i, Sector sector) {
@@ -388,15 +601,36 @@ public class World {
         this.sectorX = sectorX;
         this.sectorZ = sectorZ;
 
+        int firstX = getFirstSectorX();
+        int firstZ = getFirstSectorZ();
+
         // Set map boundary around the loaded sectors
-        mapBoundaryX1 = sectorX * Sector.WIDTH - 32;
-        mapBoundaryZ1 = sectorZ * Sector.DEPTH - 32;
-        mapBoundaryX2 = sectorX * Sector.WIDTH + 32;
-        mapBoundaryZ2 = sectorZ * Sector.DEPTH + 32;
+        mapBoundaryX1 = firstX * Sector.WIDTH + LOAD_BOUNDARY;
+        mapBoundaryZ1 = firstZ * Sector.DEPTH + LOAD_BOUNDARY;
+        mapBoundaryX2 = (firstX + SECTORS_X) * Sector.WIDTH - LOAD_BOUNDARY;
+        mapBoundaryZ2 = (firstZ + SECTORS_Z) * Sector.DEPTH - LOAD_BOUNDARY;
 
         // Set the current origin
-        originX = (sectorX * Sector.WIDTH - Sector.WIDTH) - START_X;
-        originZ = (sectorZ * Sector.DEPTH - Sector.DEPTH) - START_Z;
+        originX = firstX * Sector.WIDTH - START_X;
+        originZ = firstZ * Sector.DEPTH - START_Z;
+    }
+
+    /**
+     * Gets the first loaded Sector in the x-axis.
+     *
+     * @return
+     */
+    public int getFirstSectorX() {
+        return sectorX - SECTORS_X / 2;
+    }
+
+    /**
+     * Gets the first loaded Sector in the z-axis.
+     *
+     * @return
+     */
+    public int getFirstSectorZ() {
+        return sectorZ - SECTORS_Z / 2;
     }
 
     public boolean isLoaded() {
@@ -13,11 +13,12 @@ import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.function.BiConsumer;
 
 import javax.imageio.ImageIO;
 
 import org.joml.Vector3f;
-import org.joml.Vector3i;
 
 import client.entityhandling.defs.TileDef;
 import client.game.model.Sector;
@@ -66,6 +67,16 @@ public class WorldLoader {
      */
     private static final int MAX_LAYER = 3;
 
+    /**
+     * Width of each piece of the world models, in world units.
+     */
+    private static final int PIECE_WIDTH = World.PIECE_SIZE * World.TILE_WIDTH;
+
+    /**
+     * Depth of each piece of the world models, in world units.
+     */
+    private static final int PIECE_DEPTH = World.PIECE_SIZE * World.TILE_DEPTH;
+
     static {
         // Initialise ground colours
         for (int i = 0; i < 64; i++) {
@@ -98,10 +109,40 @@ public class WorldLoader {
 
     public World world;
 
+    /**
+     * Models of Sectors that have left the loaded area.
+     */
+    private SectorCache sectorCache = new SectorCache();
+
+    /**
+     * The layer for which the loaded models were built.
+     *
+     * <p>This can differ from the World's current layer while changing
+     * layers.
+     */
+    private int loadedLayer;
+
+    /**
+     * Source of the random variation in terrain lighting.
+     */
+    private Random random = new Random();
+
     public WorldLoader(World world) {
         this.world = world;
     }
 
+    /**
+     * Seeds the random variation in terrain lighting.
+     *
+     * <p>This allows the same Sectors to be built identically every time,
+     * provided they are loaded in the same order.
+     *
+     * @param seed
+     */
+    public void setRandomSeed(long seed) {
+        random.setSeed(seed);
+    }
+
     /**
      * Loads the sector containing the given tile.
      *
@@ -134,6 +175,30 @@ public class WorldLoader {
      * @param sectorZ
      */
     public void loadSector(int sectorX, int sectorZ) {
+        loadSector(sectorX, sectorZ, null);
+    }
+
+    /**
+     * Loads the given sector, using pieces that have already been built
+     * where possible.
+     *
+     * @param sectorX
+     * @param sectorZ
+     * @param prebuilt World into which {@link #buildSlide} has built the
+     *            pieces needed to move to this Sector, or null.
+     */
+    void loadSector(int sectorX, int sectorZ, World prebuilt) {
+
+        int dx = sectorX - world.getSectorX();
+        int dz = sectorZ - world.getSectorZ();
+        if (world.isLoaded() && !exportMode && Math.abs(dx) + Math.abs(dz) == 1) {
+            // Only a single row or column of Sectors needs to be built
+            slideSector(dx, dz, prebuilt);
+            return;
+        }
+
+        // Keep the old models in case we come back
+        storeSectors(0, 0, World.SECTORS_X, World.SECTORS_Z);
 
         // Remove old models
         world.clear();
@@ -142,15 +207,351 @@ public class WorldLoader {
         int prevOriginX = world.getOriginX();
         int prevOriginZ = world.getOriginZ();
         world.setCurrentSector(sectorX, sectorZ);
-        loadRequiredLayers(sectorX, sectorZ, world.getCurrentLayer());
+        if (!restoreSectors(0, 0, World.SECTORS_X, World.SECTORS_Z)) {
+            System.gc();
+            buildSector(sectorX, sectorZ);
+        }
+
+        // Shift objects
+        moveObjects(world.getOriginX() - prevOriginX,
+                world.getOriginZ() - prevOriginZ);
+    }
+
+    /**
+     * Moves the loaded area by a single Sector, building only the pieces
+     * that come into view.
+     *
+     * @param dx
+     * @param dz
+     * @param prebuilt World into which the pieces that come into view have
+     *            already been built, or null.
+     */
+    private void slideSector(int dx, int dz, World prebuilt) {
+
+        int prevOriginX = world.getOriginX();
+        int prevOriginZ = world.getOriginZ();
+
+        // Keep the Sectors that are leaving the loaded area
+        int[] leavingX = getSlideSectors(-dx, World.SECTORS_X);
+        int[] leavingZ = getSlideSectors(-dz, World.SECTORS_Z);
+        storeSectors(leavingX[0], leavingZ[0], leavingX[1], leavingZ[1]);
+
+        world.slide(dx, dz);
+
+        // Reuse the Sectors that are entering the loaded area, if possible
+        int[] enteringX = getSlideSectors(dx, World.SECTORS_X);
+        int[] enteringZ = getSlideSectors(dz, World.SECTORS_Z);
+        if (!isRebuildRequired(dx, dz) &&
+                restoreSectors(enteringX[0], enteringZ[0], enteringX[1], enteringZ[1])) {
+            moveObjects(world.getOriginX() - prevOriginX,
+                    world.getOriginZ() - prevOriginZ);
+            return;
+        }
+
+        setSlideBuildingPieces(dx, dz);
+        if (prebuilt != null) {
+            adoptBuildingPieces(prebuilt);
+        } else {
+            loadRequiredLayers(world.getSectorX(), world.getSectorZ(),
+                    world.getCurrentLayer());
+        }
+        setBuildingPieces(
+                new int[] { 0, World.PIECES_X },
+                new int[] { 0, World.PIECES_Z });
 
         // Shift objects
-        int dx = world.getOriginX() - prevOriginX;
-        int dz = world.getOriginZ() - prevOriginZ;
-        moveObjects(dx, dz);
+        moveObjects(world.getOriginX() - prevOriginX,
+                world.getOriginZ() - prevOriginZ);
+    }
+
+    /**
+     * Sets the range of pieces to build after sliding by the given number of
+     * Sectors.
+     *
+     * <p>This covers the pieces that have come into view, plus the pieces
+     * that used to lie on the edge of the loaded area, since these were
+     * built without knowledge of their neighbours.
+     *
+     * @param dx
+     * @param dz
+     */
+    private void setSlideBuildingPieces(int dx, int dz) {
+        int numPieces = World.PIECES_PER_SECTOR + 1;
+        setBuildingPieces(
+                getBuildingPieces(dx, numPieces, World.PIECES_X),
+                getBuildingPieces(dz, numPieces, World.PIECES_Z));
+    }
+
+    /**
+     * Builds the pieces needed to slide to the given Sector into the World.
+     *
+     * <p>The World should not be the live World, since it is cleared first
+     * and only the pieces that come into view are built. The result can later
+     * be passed to {@link #loadSector(int, int, World)} to complete the slide.
+     *
+     * @param sectorX
+     * @param sectorZ
+     * @param dx Direction of the slide in the x-axis.
+     * @param dz Direction of the slide in the z-axis.
+     * @param layer
+     */
+    void buildSlide(int sectorX, int sectorZ, int dx, int dz, int layer) {
+        // The previous contents may have been adopted by the live World
+        world.clear();
+        world.setCurrentLayer(layer);
+        world.setCurrentSector(sectorX, sectorZ);
+        setSlideBuildingPieces(dx, dz);
+        loadRequiredLayers(sectorX, sectorZ, layer);
+        setBuildingPieces(
+                new int[] { 0, World.PIECES_X },
+                new int[] { 0, World.PIECES_Z });
+    }
+
+    /**
+     * Takes the pieces being built from a World into which they have already
+     * been built by {@link #buildSlide}.
+     *
+     * @param prebuilt
+     */
+    private void adoptBuildingPieces(World prebuilt) {
+
+        int currentLayer = world.getCurrentLayer();
+
+        for (int i = 0; i < World.NUM_PIECES; i++) {
+            if (!isBuildingPiece(i)) {
+                continue;
+            }
+            world.setLandscapeModel(i, prebuilt.getLandscapeModel(i));
+            for (int layer = 0; layer < World.NUM_LAYERS; layer++) {
+                if (isRequiredLayer(layer, currentLayer)) {
+                    world.setWallModel(layer, i, prebuilt.getWallModel(layer, i));
+                    world.setRoofModel(layer, i, prebuilt.getRoofModel(layer, i));
+                }
+            }
+            world.setPieceEdges(i, prebuilt.getPieceEdges(i));
+        }
+
+        // Tile data is still needed for elevation queries
+        world.copyTiles(prebuilt);
+        loadedLayer = currentLayer;
+        world.populateScene();
+    }
+
+    /**
+     * Determines whether the given layer is built when loading a Sector.
+     *
+     * @param layer
+     * @param currentLayer
+     * @return
+     */
+    private static boolean isRequiredLayer(int layer, int currentLayer) {
+        // Upper storeys are visible from the ground floor
+        return layer == currentLayer ||
+                (currentLayer == World.LAYER_GROUND && (layer == 1 || layer == 2));
+    }
+
+    /**
+     * Gets the range of Sectors on one side of the loaded area, along one
+     * axis.
+     *
+     * @param direction Side of the loaded area.
+     * @param numSectors Number of loaded Sectors along the axis.
+     * @return First (inclusive) and last (exclusive) Sector.
+     */
+    private static int[] getSlideSectors(int direction, int numSectors) {
+        if (direction > 0) {
+            return new int[] { numSectors - 1, numSectors };
+        } else if (direction < 0) {
+            return new int[] { 0, 1 };
+        }
+        return new int[] { 0, numSectors };
+    }
+
+    /**
+     * Determines whether any pieces that used to lie on the edge of the
+     * loaded area need to be rebuilt after a slide.
+     *
+     * @param dx
+     * @param dz
+     * @return
+     */
+    private boolean isRebuildRequired(int dx, int dz) {
+        int edgeX = dx > 0
+                ? World.PIECES_X - World.PIECES_PER_SECTOR - 1
+                : World.PIECES_PER_SECTOR;
+        int edgeZ = dz > 0
+                ? World.PIECES_Z - World.PIECES_PER_SECTOR - 1
+                : World.PIECES_PER_SECTOR;
+        for (int i = 0; i < World.NUM_PIECES; i++) {
+            int x = i % World.PIECES_X;
+            int z = i / World.PIECES_X;
+            int edges = world.getPieceEdges(i);
+            if (dx != 0 && x == edgeX && (edges & World.EDGE_X) != 0) {
+                return true;
+            }
+            if (dz != 0 && z == edgeZ && (edges & World.EDGE_Z) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stores the given loaded Sectors in the cache.
+     *
+     * @param minX
+     * @param minZ
+     * @param maxX
+     * @param maxZ
+     */
+    private void storeSectors(int minX, int minZ, int maxX, int maxZ) {
+        if (world.isLoaded() && !exportMode) {
+            sectorCache.store(world, minX, minZ, maxX, maxZ, loadedLayer);
+        }
+    }
+
+    /**
+     * Restores the given Sectors from the cache, if they are all present.
+     *
+     * @param minX
+     * @param minZ
+     * @param maxX
+     * @param maxZ
+     * @return True if the Sectors were restored.
+     */
+    private boolean restoreSectors(int minX, int minZ, int maxX, int maxZ) {
+
+        int layer = world.getCurrentLayer();
+
+        if (exportMode || !sectorCache.restore(world, minX, minZ, maxX, maxZ, layer)) {
+            return false;
+        }
+
+        System.out.println("Restoring sector: " + world.getSectorX() + ", " +
+                world.getSectorZ() + " (" + layer + ")");
+
+        // Tile data is still needed for elevation queries
+        setCurrentSector(world.getSectorX(), world.getSectorZ(), layer);
+        loadedLayer = layer;
+        world.populateScene();
+
+        return true;
+    }
+
+    /**
+     * Gets the range of pieces to build along one axis after a slide.
+     *
+     * @param direction Direction of the slide along the axis.
+     * @param numPieces Number of pieces to build, if the axis has moved.
+     * @param maxPieces Number of pieces along the axis.
+     * @return First (inclusive) and last (exclusive) piece to build.
+     */
+    private static int[] getBuildingPieces(int direction, int numPieces, int maxPieces) {
+        if (direction > 0) {
+            return new int[] { maxPieces - numPieces, maxPieces };
+        } else if (direction < 0) {
+            return new int[] { 0, numPieces };
+        }
+        return new int[] { 0, maxPieces };
+    }
+
+    private void setBuildingPieces(int[] piecesX, int[] piecesZ) {
+        minBuildingPieceX = piecesX[0];
+        maxBuildingPieceX = piecesX[1];
+        minBuildingPieceZ = piecesZ[0];
+        maxBuildingPieceZ = piecesZ[1];
+    }
+
+    /**
+     * Determines whether the given piece is being built.
+     *
+     * @param index
+     * @return
+     */
+    private boolean isBuildingPiece(int index) {
+        int x = index % World.PIECES_X;
+        int z = index / World.PIECES_X;
+        return x >= minBuildingPieceX && x < maxBuildingPieceX &&
+                z >= minBuildingPieceZ && z < maxBuildingPieceZ;
+    }
+
+    /**
+     * Determines whether geometry should be created for the given tile.
+     *
+     * <p>This includes a margin of 1 tile around the pieces being built, so
+     * that their lighting matches that of their neighbours.
+     *
+     * @param x
+     * @param z
+     * @return
+     */
+    private boolean isBuildingTile(int x, int z) {
+        return x >= minBuildingPieceX * World.PIECE_SIZE - 1 &&
+                x < maxBuildingPieceX * World.PIECE_SIZE + 1 &&
+                z >= minBuildingPieceZ * World.PIECE_SIZE - 1 &&
+                z < maxBuildingPieceZ * World.PIECE_SIZE + 1;
+    }
+
+    /**
+     * Stores the pieces being built in the World.
+     *
+     * @param pieces
+     * @param setter
+     */
+    private void storeBuildingPieces(Model[] pieces, BiConsumer<Integer, Model> setter) {
+        for (int i = 0; i < pieces.length; i++) {
+            if (isBuildingPiece(i)) {
+                setter.accept(i, pieces[i]);
+                world.setPieceEdges(i, getPieceEdges(i));
+            }
+        }
+    }
+
+    /**
+     * Gets the edge flags for a piece built at the given position.
+     *
+     * @param index
+     * @return
+     */
+    private static int getPieceEdges(int index) {
+        int x = index % World.PIECES_X;
+        int z = index / World.PIECES_X;
+        int edges = 0;
+        if (x == 0 || x == World.PIECES_X - 1) {
+            edges |= World.EDGE_X;
+        }
+        if (z == 0 || z == World.PIECES_Z - 1) {
+            edges |= World.EDGE_Z;
+        }
+        return edges;
+    }
+
+    /**
+     * Builds the given sector into the World, at the World's current layer.
+     *
+     * <p>Unlike {@link #loadSector}, this does not clear the World first or
+     * move any objects, so it is suitable for building into an empty World.
+     *
+     * @param sectorX
+     * @param sectorZ
+     */
+    void buildSector(int sectorX, int sectorZ) {
+        world.setCurrentSector(sectorX, sectorZ);
+        loadRequiredLayers(sectorX, sectorZ, world.getCurrentLayer());
     }
 
     boolean exportMode = true;
+
+    /**
+     * Range of pieces currently being built, in each axis.
+     *
+     * <p>Ordinarily this covers the whole loaded area, but when sliding to
+     * a neighbouring Sector only the newly-exposed pieces are built.
+     */
+    private int minBuildingPieceX = 0;
+    private int maxBuildingPieceX = World.PIECES_X;
+    private int minBuildingPieceZ = 0;
+    private int maxBuildingPieceZ = World.PIECES_Z;
     
     /**
      * Loads all required layers of the given sector.
@@ -230,6 +631,9 @@ public class WorldLoader {
             // Set the active sectors back to the current layer
             setCurrentSector(sectorX, sectorZ, currentLayer);
         }
+
+        loadedLayer = currentLayer;
+        world.populateScene();
     }
 
     /**
@@ -280,7 +684,7 @@ public class WorldLoader {
                             z * World.TILE_DEPTH);
 
                     // Randomise vertex ambience
-                    int ambience = (int) (Math.random() * 10D) - 5;
+                    int ambience = random.nextInt(10) - 5;
                     tmpModel.setVertexAmbience(vertexId, ambience);
                 }
             }
@@ -289,6 +693,10 @@ public class WorldLoader {
             for (int x = 0; x < World.NUM_TILES_X - 1; x++) {
                 for (int z = 0; z < World.NUM_TILES_Z - 1; z++) {
 
+                    if (!isBuildingTile(x, z)) {
+                        continue;
+                    }
+
                     int groundTexture = world.getGroundTexture(x, z);
                     int groundColour = GROUND_COLOURS[groundTexture];
                     int groundColour1 = groundColour;
@@ -366,48 +774,43 @@ public class WorldLoader {
                         int ai7[] = new int[3];
                         if (triangleIndex == 0) {
                             if (groundColour != 0xbc614e) {
-                                ai[0] = z + x * 96 + 96;
-                                ai[1] = z + x * 96;
-                                ai[2] = z + x * 96 + 1;
+                                ai[0] = z + (x + 1) * World.NUM_TILES_Z;
+                                ai[1] = z + x * World.NUM_TILES_Z;
+                                ai[2] = z + x * World.NUM_TILES_Z + 1;
                                 int l21 = tmpModel.addFace(3, ai, 0xbc614e, groundColour);
-                                world.setTilePosForFace(l21, x, z);
-                                tmpModel.faceTag[l21] = 0x30d40 + l21;
+                                tmpModel.faceTag[l21] = World.TERRAIN_FACE_TAG + World.getFaceIdForTile(x, z);
                             }
                             if (groundColour1 != 0xbc614e) {
-                                ai7[0] = z + x * 96 + 1;
-                                ai7[1] = z + x * 96 + 96 + 1;
-                                ai7[2] = z + x * 96 + 96;
+                                ai7[0] = z + x * World.NUM_TILES_Z + 1;
+                                ai7[1] = z + (x + 1) * World.NUM_TILES_Z + 1;
+                                ai7[2] = z + (x + 1) * World.NUM_TILES_Z;
                                 int i22 = tmpModel.addFace(3, ai7, 0xbc614e, groundColour1);
-                                world.setTilePosForFace(i22, x, z);
-                                tmpModel.faceTag[i22] = 0x30d40 + i22;
+                                tmpModel.faceTag[i22] = World.TERRAIN_FACE_TAG + World.getFaceIdForTile(x, z);
                             }
                         } else {
                             if (groundColour != 0xbc614e) {
-                                ai[0] = z + x * 96 + 1;
-                                ai[1] = z + x * 96 + 96 + 1;
-                                ai[2] = z + x * 96;
+                                ai[0] = z + x * World.NUM_TILES_Z + 1;
+                                ai[1] = z + (x + 1) * World.NUM_TILES_Z + 1;
+                                ai[2] = z + x * World.NUM_TILES_Z;
                                 int j22 = tmpModel.addFace(3, ai, 0xbc614e, groundColour);
-                                world.setTilePosForFace(j22, x, z);
-                                tmpModel.faceTag[j22] = 0x30d40 + j22;
+                                tmpModel.faceTag[j22] = World.TERRAIN_FACE_TAG + World.getFaceIdForTile(x, z);
                             }
                             if (groundColour1 != 0xbc614e) {
-                                ai7[0] = z + x * 96 + 96;
-                                ai7[1] = z + x * 96;
-                                ai7[2] = z + x * 96 + 96 + 1;
+                                ai7[0] = z + (x + 1) * World.NUM_TILES_Z;
+                                ai7[1] = z + x * World.NUM_TILES_Z;
+                                ai7[2] = z + (x + 1) * World.NUM_TILES_Z + 1;
                                 int k22 = tmpModel.addFace(3, ai7, 0xbc614e, groundColour1);
-                                world.setTilePosForFace(k22, x, z);
-                                tmpModel.faceTag[k22] = 0x30d40 + k22;
+                                tmpModel.faceTag[k22] = World.TERRAIN_FACE_TAG + World.getFaceIdForTile(x, z);
                             }
                         }
                     } else if (groundColour != 0xbc614e) {
                         int ai1[] = new int[4];
-                        ai1[0] = z + x * 96 + 96;
-                        ai1[1] = z + x * 96;
-                        ai1[2] = z + x * 96 + 1;
-                        ai1[3] = z + x * 96 + 96 + 1;
+                        ai1[0] = z + (x + 1) * World.NUM_TILES_Z;
+                        ai1[1] = z + x * World.NUM_TILES_Z;
+                        ai1[2] = z + x * World.NUM_TILES_Z + 1;
+                        ai1[3] = z + (x + 1) * World.NUM_TILES_Z + 1;
                         int l19 = tmpModel.addFace(4, ai1, 0xbc614e, groundColour);
-                        world.setTilePosForFace(l19, x, z);
-                        tmpModel.faceTag[l19] = 0x30d40 + l19;
+                        tmpModel.faceTag[l19] = World.TERRAIN_FACE_TAG + World.getFaceIdForTile(x, z);
                     }
                 }
             }
@@ -416,6 +819,10 @@ public class WorldLoader {
             for (int x = 1; x < World.NUM_TILES_X - 1; x++) {
                 for (int z = 1; z < World.NUM_TILES_Z - 1; z++) {
 
+                    if (!isBuildingTile(x, z)) {
+                        continue;
+                    }
+
                     if (world.getGroundTextureOverlay(x, z) > 0
                             && Resources.getTileDef(world.getGroundTextureOverlay(x, z) - 1).getType() == TileDef.TYPE_BRIDGE) {
                         int l7 = Resources.getTileDef(world.getGroundTextureOverlay(x, z) - 1).getColour();
@@ -426,8 +833,7 @@ public class WorldLoader {
                         int j17 = tmpModel.addUniqueVertex(x * 128, -world.getGroundElevation(x, z + 1), (z + 1) * 128);
                         int ai2[] = { j10, l12, i15, j17 };
                         int i20 = tmpModel.addFace(4, ai2, l7, 0xbc614e);
-                        world.setTilePosForFace(i20, x, z);
-                        tmpModel.faceTag[i20] = 0x30d40 + i20;
+                        tmpModel.faceTag[i20] = World.TERRAIN_FACE_TAG + World.getFaceIdForTile(x, z);
 
                     } else if (world.getGroundTextureOverlay(x, z) == 0
                             || Resources.getTileDef(world.getGroundTextureOverlay(x, z) - 1).getType() != 3) {
@@ -441,8 +847,7 @@ public class WorldLoader {
                             int k17 = tmpModel.addUniqueVertex(x * 128, -world.getGroundElevation(x, z + 1), (z + 1) * 128);
                             int ai3[] = { k10, i13, j15, k17 };
                             int j20 = tmpModel.addFace(4, ai3, i8, 0xbc614e);
-                            world.setTilePosForFace(j20, x, z);
-                            tmpModel.faceTag[j20] = 0x30d40 + j20;
+                            tmpModel.faceTag[j20] = World.TERRAIN_FACE_TAG + World.getFaceIdForTile(x, z);
                         }
 
                         if (world.getGroundTextureOverlay(x, z - 1) > 0 && Resources
@@ -455,8 +860,7 @@ public class WorldLoader {
                             int l17 = tmpModel.addUniqueVertex(x * 128, -world.getGroundElevation(x, z + 1), (z + 1) * 128);
                             int ai4[] = { l10, j13, k15, l17 };
                             int k20 = tmpModel.addFace(4, ai4, j8, 0xbc614e);
-                            world.setTilePosForFace(k20, x, z);
-                            tmpModel.faceTag[k20] = 0x30d40 + k20;
+                            tmpModel.faceTag[k20] = World.TERRAIN_FACE_TAG + World.getFaceIdForTile(x, z);
                         }
 
                         if (world.getGroundTextureOverlay(x + 1, z) > 0 && Resources
@@ -469,8 +873,7 @@ public class WorldLoader {
                             int i18 = tmpModel.addUniqueVertex(x * 128, -world.getGroundElevation(x, z + 1), (z + 1) * 128);
                             int ai5[] = { i11, k13, l15, i18 };
                             int l20 = tmpModel.addFace(4, ai5, k8, 0xbc614e);
-                            world.setTilePosForFace(l20, x, z);
-                            tmpModel.faceTag[l20] = 0x30d40 + l20;
+                            tmpModel.faceTag[l20] = World.TERRAIN_FACE_TAG + World.getFaceIdForTile(x, z);
                         }
 
                         if (world.getGroundTextureOverlay(x - 1, z) > 0 && Resources
@@ -483,8 +886,7 @@ public class WorldLoader {
                             int j18 = tmpModel.addUniqueVertex(x * 128, -world.getGroundElevation(x, z + 1), (z + 1) * 128);
                             int ai6[] = { j11, l13, i16, j18 };
                             int i21 = tmpModel.addFace(4, ai6, l8, 0xbc614e);
-                            world.setTilePosForFace(i21, x, z);
-                            tmpModel.faceTag[i21] = 0x30d40 + i21;
+                            tmpModel.faceTag[i21] = World.TERRAIN_FACE_TAG + World.getFaceIdForTile(x, z);
                         }
                     }
                 }
@@ -496,8 +898,9 @@ public class WorldLoader {
             
             tmpModel.setLighting(true, 40, 48, -50, -10, -50);
 
-            Model[] landscapeModels = tmpModel.split(1536, 1536, 8, 64, 233, false);
-            world.setLandscapeModels(landscapeModels);
+            Model[] landscapeModels = tmpModel.split(PIECE_WIDTH, PIECE_DEPTH,
+                    World.PIECES_X, World.NUM_PIECES, 233, false);
+            storeBuildingPieces(landscapeModels, world::setLandscapeModel);
 
             for (int x = 0; x < World.NUM_TILES_X; x++) {
                 for (int z = 0; z < World.NUM_TILES_Z; z++) {
@@ -514,6 +917,9 @@ public class WorldLoader {
 
         for (int x = 0; x < World.NUM_TILES_X - 1; x++) {
             for (int z = 0; z < World.NUM_TILES_Z - 1; z++) {
+                if (!isBuildingTile(x, z)) {
+                    continue;
+                }
                 int k3 = getVerticalWall(x, z);
                 if (k3 > 0 && Resources.getDoorDef(k3 - 1).getUnknown() == 0) {
                     ModelUtils.createWall(world, tmpModel, k3 - 1, x, z, x + 1, z);
@@ -533,8 +939,10 @@ public class WorldLoader {
         }
 
         tmpModel.setLighting(false, 60, 24, -50, -10, -50);
-        Model[] wallModels = tmpModel.split(1536, 1536, 8, 64, 338, true);
-        world.setWallModels(layer, wallModels);
+        Model[] wallModels = tmpModel.split(PIECE_WIDTH, PIECE_DEPTH,
+                World.PIECES_X, World.NUM_PIECES, 338, true);
+        storeBuildingPieces(wallModels,
+                (i, model) -> world.setWallModel(layer, i, model));
 
         // Raise wall heights
         for (int x = 0; x < World.NUM_TILES_X - 1; x++) {
@@ -677,6 +1085,10 @@ public class WorldLoader {
                         i28 += j28 + 0x13880;
                         world.setElevation(k23, i24, i28);
                     }
+                    if (!isBuildingTile(x, z)) {
+                        // Elevation is still needed by neighbouring tiles
+                        continue;
+                    }
                     if (j27 >= 0x13880) {
                         j27 -= 0x13880;
                     }
@@ -835,8 +1247,10 @@ public class WorldLoader {
         }
         
         tmpModel.setLighting(true, 50, 50, -50, -10, -50);
-        Model[] roofModels = tmpModel.split(1536, 1536, 8, 64, 169, true);
-        world.setRoofModels(layer, roofModels);
+        Model[] roofModels = tmpModel.split(PIECE_WIDTH, PIECE_DEPTH,
+                World.PIECES_X, World.NUM_PIECES, 169, true);
+        storeBuildingPieces(roofModels,
+                (i, model) -> world.setRoofModel(layer, i, model));
 
         // Raise heights of upper storeys?
         for (int x = 0; x < World.NUM_TILES_X; x++) {
@@ -852,10 +1266,15 @@ public class WorldLoader {
 
     public void setCurrentSector(int sectorX, int sectorZ, int layer) {
 
-        world.setSector(0, Resources.loadSector(sectorX - 1, sectorZ - 1, layer));
-        world.setSector(1, Resources.loadSector(sectorX, sectorZ - 1, layer));
-        world.setSector(2, Resources.loadSector(sectorX - 1, sectorZ, layer));
-        world.setSector(3, Resources.loadSector(sectorX, sectorZ, layer));
+        int firstX = sectorX - World.SECTORS_X / 2;
+        int firstZ = sectorZ - World.SECTORS_Z / 2;
+
+        for (int j = 0; j < World.SECTORS_Z; j++) {
+            for (int i = 0; i < World.SECTORS_X; i++) {
+                world.setSector(i + j * World.SECTORS_X,
+                        Resources.loadSector(firstX + i, firstZ + j, layer));
+            }
+        }
 
         setGroundTextureOverlays();
     }
@@ -866,20 +1285,7 @@ public class WorldLoader {
             return 0;
         }
 
-        byte byte0 = 0;
-        if (x >= Sector.WIDTH && z < Sector.DEPTH) {
-            byte0 = 1;
-            x -= Sector.WIDTH;
-        } else if (x < Sector.WIDTH && z >= Sector.DEPTH) {
-            byte0 = 2;
-            z -= Sector.DEPTH;
-        } else if (x >= Sector.WIDTH && z >= Sector.DEPTH) {
-            byte0 = 3;
-            x -= Sector.WIDTH;
-            z -= Sector.DEPTH;
-        }
-
-        return world.getSector(byte0).getTile(x, z).roofTexture;
+        return world.getTile(x, z).roofTexture;
     }
 
     private int getVerticalWall(int x, int z) {
@@ -888,20 +1294,7 @@ public class WorldLoader {
             return 0;
         }
 
-        byte sector = 0;
-        if (x >= Sector.WIDTH && z < Sector.DEPTH) {
-            sector = 1;
-            x -= Sector.WIDTH;
-        } else if (x < Sector.WIDTH && z >= Sector.DEPTH) {
-            sector = 2;
-            z -= Sector.DEPTH;
-        } else if (x >= Sector.WIDTH && z >= Sector.DEPTH) {
-            sector = 3;
-            x -= Sector.WIDTH;
-            z -= Sector.DEPTH;
-        }
-
-        return world.getSector(sector).getTile(x, z).verticalWall & 0xff;
+        return world.getTile(x, z).verticalWall & 0xff;
     }
 
     private int getHorizontalWall(int x, int z) {
@@ -910,20 +1303,7 @@ public class WorldLoader {
             return 0;
         }
 
-        byte sector = 0;
-        if (x >= Sector.WIDTH && z < Sector.DEPTH) {
-            sector = 1;
-            x -= Sector.WIDTH;
-        } else if (x < Sector.WIDTH && z >= Sector.DEPTH) {
-            sector = 2;
-            z -= Sector.DEPTH;
-        } else if (x >= Sector.WIDTH && z >= Sector.DEPTH) {
-            sector = 3;
-            x -= Sector.WIDTH;
-            z -= Sector.DEPTH;
-        }
-
-        return world.getSector(sector).getTile(x, z).horizontalWall & 0xff;
+        return world.getTile(x, z).horizontalWall & 0xff;
     }
 
     private int getDiagonalWalls(int x, int z) {
@@ -932,20 +1312,7 @@ public class WorldLoader {
             return 0;
         }
 
-        byte sector = 0;
-        if (x >= Sector.WIDTH && z < Sector.DEPTH) {
-            sector = 1;
-            x -= Sector.WIDTH;
-        } else if (x < Sector.WIDTH && z >= Sector.DEPTH) {
-            sector = 2;
-            z -= Sector.DEPTH;
-        } else if (x >= Sector.WIDTH && z >= Sector.DEPTH) {
-            sector = 3;
-            x -= Sector.WIDTH;
-            z -= Sector.DEPTH;
-        }
-
-        return world.getSector(sector).getTile(x, z).diagonalWalls;
+        return world.getTile(x, z).diagonalWalls;
     }
 
     public int getTileType(int x, int z) {
@@ -998,10 +1365,12 @@ public class WorldLoader {
                     continue;
                 }
 
-                if (x == 47 && world.getGroundTextureOverlay(x + 1, z) != 250
+                if (isSectorEdge(x, Sector.WIDTH, World.NUM_TILES_X)
+                        && world.getGroundTextureOverlay(x + 1, z) != 250
                         && world.getGroundTextureOverlay(x + 1, z) != 2) {
                     world.setGroundTextureOverlay(x, z, 9);
-                } else if (z == 47 && world.getGroundTextureOverlay(x, z + 1) != 250
+                } else if (isSectorEdge(z, Sector.DEPTH, World.NUM_TILES_Z)
+                        && world.getGroundTextureOverlay(x, z + 1) != 250
                         && world.getGroundTextureOverlay(x, z + 1) != 2) {
                     world.setGroundTextureOverlay(x, z, 9);
                 } else {
@@ -1011,6 +1380,19 @@ public class WorldLoader {
         }
     }
 
+    /**
+     * Determines whether a tile lies on the far edge of a Sector, but not on
+     * the edge of the loaded area.
+     *
+     * @param tile Tile position along one axis.
+     * @param sectorSize Size of a Sector along the axis.
+     * @param numTiles Number of loaded tiles along the axis.
+     * @return
+     */
+    private static boolean isSectorEdge(int tile, int sectorSize, int numTiles) {
+        return tile % sectorSize == sectorSize - 1 && tile < numTiles - 1;
+    }
+
     private void moveObjects(int dx, int dz) {
 
         // Move GameObjects
@@ -1031,7 +1413,9 @@ public class WorldLoader {
      * @return
      */
     private int getSectorX(int tileX) {
-        return (tileX + (Sector.WIDTH / 2)) / Sector.WIDTH;
+        // Choose the Sector that keeps the tile closest to the centre
+        int firstX = (tileX + (Sector.WIDTH / 2) - (World.SECTORS_X * Sector.WIDTH / 2)) / Sector.WIDTH;
+        return firstX + World.SECTORS_X / 2;
     }
 
     /**
@@ -1041,7 +1425,25 @@ public class WorldLoader {
      * @return
      */
     private int getSectorZ(int tileZ) {
-        return (tileZ + (Sector.DEPTH / 2)) / Sector.DEPTH;
+        // Choose the Sector that keeps the tile closest to the centre
+        int firstZ = (tileZ + (Sector.DEPTH / 2) - (World.SECTORS_Z * Sector.DEPTH / 2)) / Sector.DEPTH;
+        return firstZ + World.SECTORS_Z / 2;
+    }
+
+    public SectorCache getSectorCache() {
+        return sectorCache;
+    }
+
+    /**
+     * Enables or disables export mode.
+     *
+     * <p>In export mode, loading a Sector exports the models of the entire map
+     * instead of building the Sector for rendering.
+     *
+     * @param exportMode
+     */
+    public void setExportMode(boolean exportMode) {
+        this.exportMode = exportMode;
     }
 
     /**
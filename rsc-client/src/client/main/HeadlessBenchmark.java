@@ -0,0 +1,287 @@
+package client.main;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import client.Canvas;
+import client.game.Game;
+import client.game.model.Sector;
+import client.game.render.SceneBuilder;
+import client.game.render.SoftwareRenderer;
+import client.game.scene.Camera;
+import client.game.scene.Scene;
+import client.game.world.World;
+import client.game.world.WorldLoader;
+import client.loading.LoadingScreen;
+
+/**
+ * Renders the world without a display, following a scripted camera path.
+ *
+ * <p>This is intended for benchmarks and regression tests. Frame times are
+ * reported once all frames have been rendered, and frames can optionally be
+ * saved as images for comparison against known-good output.
+ *
+ * <p>Usage:
+ *
+ * <pre>
+ * HeadlessBenchmark [-sector x,z]... [-frames n] [-size w,h] [-seed n]
+ *         [-depth] [-parallel] [-stats file] [-png dir] [-pngInterval n]
+ * </pre>
+ *
+ * @author Dan Bryce
+ */
+public class HeadlessBenchmark {
+
+    private static final int DEFAULT_WIDTH = 1280;
+    private static final int DEFAULT_HEIGHT = 720;
+
+    private static final int DEFAULT_FRAMES_PER_SECTOR = 300;
+
+    /**
+     * Number of frames rendered at the start of each Sector before timing
+     * begins.
+     */
+    private static final int WARMUP_FRAMES = 10;
+
+    /**
+     * Radius of the camera path, in tiles.
+     */
+    private static final int PATH_RADIUS = 16;
+
+    /**
+     * Number of full circles the camera makes around each Sector.
+     */
+    private static final int PATH_LOOPS = 1;
+
+    private List<int[]> sectors = new ArrayList<>();
+    private int framesPerSector = DEFAULT_FRAMES_PER_SECTOR;
+    private int width = DEFAULT_WIDTH;
+    private int height = DEFAULT_HEIGHT;
+    private long seed;
+    private boolean depthBuffered;
+    private boolean parallel;
+    private File statsFile;
+    private File pngDir;
+    private int pngInterval = 1;
+
+    private Scene scene;
+    private World world;
+    private WorldLoader worldLoader;
+    private SceneBuilder sceneBuilder;
+    private SoftwareRenderer softwareRenderer;
+    private Canvas canvas;
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+
+        HeadlessBenchmark benchmark = new HeadlessBenchmark();
+        benchmark.parseArgs(args);
+        benchmark.load();
+        benchmark.run();
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+            case "-sector":
+                sectors.add(parsePair(args[++i]));
+                break;
+            case "-frames":
+                framesPerSector = Integer.parseInt(args[++i]);
+                break;
+            case "-size":
+                int[] size = parsePair(args[++i]);
+                width = size[0];
+                height = size[1];
+                break;
+            case "-seed":
+                seed = Long.parseLong(args[++i]);
+                break;
+            case "-depth":
+                depthBuffered = true;
+                break;
+            case "-parallel":
+                parallel = true;
+                break;
+            case "-stats":
+                statsFile = new File(args[++i]);
+                break;
+            case "-png":
+                pngDir = new File(args[++i]);
+                break;
+            case "-pngInterval":
+                pngInterval = Integer.parseInt(args[++i]);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        if (sectors.isEmpty()) {
+            sectors.add(new int[] { Game.SPAWN_SECTOR_X, Game.SPAWN_SECTOR_Z });
+        }
+    }
+
+    private static int[] parsePair(String arg) {
+        String[] parts = arg.split(",");
+        return new int[] { Integer.parseInt(parts[0]), Integer.parseInt(parts[1]) };
+    }
+
+    /**
+     * Loads all required resources and builds the renderer.
+     */
+    private void load() {
+
+        // Load everything needed to build the world. The final step of the
+        // loading screen moves on to the login screen, which is not needed.
+        LoadingScreen loadingScreen = new LoadingScreen(null);
+        while (loadingScreen.getProgress() < 90) {
+            loadingScreen.continueLoading();
+        }
+
+        scene = new Scene();
+        world = new World(scene);
+        worldLoader = new WorldLoader(world);
+        worldLoader.setExportMode(false);
+        worldLoader.setRandomSeed(seed);
+        sceneBuilder = new SceneBuilder(scene, world);
+
+        softwareRenderer = new SoftwareRenderer(scene, width, height);
+        softwareRenderer.setDepthBuffered(depthBuffered);
+        softwareRenderer.setParallelProjection(parallel);
+        softwareRenderer.setParallelRaster(parallel);
+
+        canvas = new Canvas(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+
+        if (pngDir != null) {
+            pngDir.mkdirs();
+        }
+    }
+
+    /**
+     * Renders every Sector in turn, and reports the results.
+     *
+     * @throws IOException
+     */
+    private void run() throws IOException {
+
+        PrintWriter statsWriter = null;
+        if (statsFile != null) {
+            statsWriter = new PrintWriter(statsFile);
+            statsWriter.println("sectorX,sectorZ,frame,ms");
+        }
+
+        long[] allFrameTimes = new long[sectors.size() * framesPerSector];
+        int numFrames = 0;
+
+        for (int[] sector : sectors) {
+            worldLoader.loadSector(sector[0], sector[1]);
+
+            for (int frame = -WARMUP_FRAMES; frame < framesPerSector; frame++) {
+                long frameTime = renderFrame(frame);
+
+                if (frame < 0) {
+                    continue;
+                }
+
+                allFrameTimes[numFrames++] = frameTime;
+
+                if (statsWriter != null) {
+                    statsWriter.println(sector[0] + "," + sector[1] + "," + frame + ","
+                            + toMillis(frameTime));
+                }
+
+                if (pngDir != null && frame % pngInterval == 0) {
+                    String filename = String.format("sector_%d_%d_frame_%04d.png",
+                            sector[0], sector[1], frame);
+                    ImageIO.write(canvas.getImage(), "png", new File(pngDir, filename));
+                }
+            }
+
+            System.out.println("Sector " + sector[0] + ", " + sector[1] + ": "
+                    + softwareRenderer.getNumModelsProjected() + " models projected, "
+                    + softwareRenderer.getNumModelsCulled() + " culled (last frame)");
+        }
+
+        if (statsWriter != null) {
+            statsWriter.close();
+        }
+
+        printStatistics(Arrays.copyOf(allFrameTimes, numFrames));
+    }
+
+    /**
+     * Positions the camera for the given frame and renders the world.
+     *
+     * <p>The camera circles the centre of the current Sector, looking along
+     * the direction of travel.
+     *
+     * @param frame
+     * @return The time taken to render the frame, in nanoseconds.
+     */
+    private long renderFrame(int frame) {
+
+        double angle = 2 * Math.PI * PATH_LOOPS * frame / framesPerSector;
+        int centreX = (World.SECTORS_X / 2 * Sector.WIDTH + Sector.WIDTH / 2) * World.TILE_WIDTH;
+        int centreZ = (World.SECTORS_Z / 2 * Sector.DEPTH + Sector.DEPTH / 2) * World.TILE_DEPTH;
+        int radius = PATH_RADIUS * World.TILE_WIDTH;
+        int x = centreX + (int) (Math.cos(angle) * radius);
+        int z = centreZ + (int) (Math.sin(angle) * radius);
+        int y = -world.getAveragedElevation(x, z);
+
+        // Yaw is measured in 1024ths of a full turn
+        int yaw = (int) (angle / (2 * Math.PI) * 1024) & 0x3ff;
+
+        scene.getCamera().set(x, y, z, Camera.DEFAULT_PITCH, yaw, 0, Camera.DEFAULT_HEIGHT * 2);
+        scene.fogZDistance = Camera.DEFAULT_FOG_DISTANCE + Camera.DEFAULT_HEIGHT * 2;
+
+        long before = System.nanoTime();
+
+        canvas.clear();
+        sceneBuilder.build();
+        softwareRenderer.getMousePicker().setMousePos(width / 2, height / 2);
+        softwareRenderer.render(canvas);
+
+        return System.nanoTime() - before;
+    }
+
+    private static void printStatistics(long[] frameTimes) {
+
+        if (frameTimes.length == 0) {
+            System.out.println("No frames rendered");
+            return;
+        }
+
+        long[] sorted = frameTimes.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long frameTime : sorted) {
+            total += frameTime;
+        }
+
+        System.out.println("Frames: " + sorted.length);
+        System.out.println("Mean:   " + toMillis(total / sorted.length) + " ms");
+        System.out.println("Min:    " + toMillis(sorted[0]) + " ms");
+        System.out.println("Median: " + toMillis(getPercentile(sorted, 50)) + " ms");
+        System.out.println("95th:   " + toMillis(getPercentile(sorted, 95)) + " ms");
+        System.out.println("99th:   " + toMillis(getPercentile(sorted, 99)) + " ms");
+        System.out.println("Max:    " + toMillis(sorted[sorted.length - 1]) + " ms");
+    }
+
+    private static long getPercentile(long[] sorted, int percentile) {
+        int index = (sorted.length - 1) * percentile / 100;
+        return sorted[index];
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.3f", nanos / 1000000.0);
+    }
+
+}
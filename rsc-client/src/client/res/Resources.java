@@ -130,9 +130,8 @@ public class Resources {
             return;
         }
 
-        int numPixels = tex.isLarge() ? 65536 : 16384;
-        tex.pixels = new int[numPixels];
-        int textureSize = !tex.isLarge() ? 64 : 128;
+        int textureSize = tex.getSize();
+        int pixels[] = new int[textureSize * textureSize * 4];
         int pixelIndex = 0;
 
         // Produce texture by looking up colours in the palette
@@ -147,26 +146,92 @@ public class Resources {
                     texColour = 0;
                     tex.setHasTransparency(true);
                 }
-                tex.pixels[pixelIndex++] = texColour;
+                pixels[pixelIndex++] = texColour;
             }
         }
+        addDarkerCopies(pixels, pixelIndex);
 
-        /*
-         * Produce 3 additional versions of the texture.
-         *
-         * These seem to be darker versions, which seem to be drawn over the
-         * normal texture during rendering.
-         */
-        for (int i = 0; i < pixelIndex; i++) {
-            int colour = tex.pixels[i];
-            tex.pixels[pixelIndex + i] = colour - (colour >>> 3) & 0xf8f8ff;
-            tex.pixels[pixelIndex * 2 + i] = colour - (colour >>> 2) & 0xf8f8ff;
-            tex.pixels[pixelIndex * 3 + i] = colour - (colour >>> 2) - (colour >>> 3) & 0xf8f8ff;
+        // Produce smaller versions of the texture for distant surfaces
+        int mipmaps[][] = new int[Texture.NUM_MIP_LEVELS][];
+        mipmaps[0] = pixels;
+        for (int level = 1; level < Texture.NUM_MIP_LEVELS; level++) {
+            mipmaps[level] = createMipLevel(mipmaps[level - 1], textureSize >> (level - 1));
         }
 
+        // Set the pixels last, since they mark the texture as loaded
+        tex.setMipmaps(mipmaps);
+        tex.pixels = pixels;
+
         // Not needed unless exporting this later
         //tex.palette = null;
         //tex.colourData = null;
     }
 
+    /**
+     * Produces 3 additional versions of a texture.
+     *
+     * <p>These seem to be darker versions, which seem to be drawn over the
+     * normal texture during rendering.
+     *
+     * @param pixels
+     * @param numPixels Number of pixels in the original texture.
+     */
+    private static void addDarkerCopies(int pixels[], int numPixels) {
+        for (int i = 0; i < numPixels; i++) {
+            int colour = pixels[i];
+            pixels[numPixels + i] = colour - (colour >>> 3) & 0xf8f8ff;
+            pixels[numPixels * 2 + i] = colour - (colour >>> 2) & 0xf8f8ff;
+            pixels[numPixels * 3 + i] = colour - (colour >>> 2) - (colour >>> 3) & 0xf8f8ff;
+        }
+    }
+
+    /**
+     * Produces a texture half the width of another, by averaging each 2x2
+     * block of pixels.
+     *
+     * <p>A block becomes transparent if at least half of its pixels are
+     * transparent; otherwise, only the opaque pixels are averaged.
+     *
+     * @param source
+     * @param sourceSize Width of the source texture.
+     * @return
+     */
+    private static int[] createMipLevel(int source[], int sourceSize) {
+        int size = sourceSize / 2;
+        int pixels[] = new int[size * size * 4];
+        int pixelIndex = 0;
+
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int sourceIndex = x * 2 + y * 2 * sourceSize;
+                int red = 0;
+                int green = 0;
+                int blue = 0;
+                int numOpaque = 0;
+
+                for (int i = 0; i < 4; i++) {
+                    int colour = source[sourceIndex + (i & 1) + (i >> 1) * sourceSize];
+                    if (colour != 0) {
+                        red += colour >> 16 & 0xff;
+                        green += colour >> 8 & 0xff;
+                        blue += colour & 0xff;
+                        numOpaque++;
+                    }
+                }
+
+                int texColour = 0;
+                if (numOpaque > 2) {
+                    texColour = (red / numOpaque << 16 | green / numOpaque << 8 | blue / numOpaque) & 0xf8f8ff;
+                    if (texColour == 0) {
+                        texColour = 1;
+                    }
+                }
+                pixels[pixelIndex++] = texColour;
+            }
+        }
+
+        addDarkerCopies(pixels, pixelIndex);
+        return pixels;
+    }
+
 }
@@ -7,6 +7,12 @@ package client.res;
  */
 public class Texture {
 
+    /**
+     * Number of mip levels generated for each texture, including the full
+     * size texture.
+     */
+    public static final int NUM_MIP_LEVELS = 4;
+
     /**
      * Pixel data linking to the palette array.
      *
@@ -26,6 +32,14 @@ public class Texture {
      */
     public int pixels[];
 
+    /**
+     * Pixel colours of each mip level, each half the width of the last.
+     *
+     * <p>Level 0 is the same as {@link #pixels}. Like the full size texture,
+     * each level is followed by 3 darker copies of itself.
+     */
+    private int mipmaps[][];
+
     /**
      * Whether or not this texture contains any transparent pixels.
      */
@@ -56,4 +70,27 @@ public class Texture {
         return large;
     }
 
+    /**
+     * Gets the width of the full size texture.
+     *
+     * @return
+     */
+    public int getSize() {
+        return large ? 128 : 64;
+    }
+
+    public void setMipmaps(int[][] mipmaps) {
+        this.mipmaps = mipmaps;
+    }
+
+    /**
+     * Gets the pixel colours of a mip level.
+     *
+     * @param level
+     * @return
+     */
+    public int[] getMipmap(int level) {
+        return mipmaps[level];
+    }
+
 }
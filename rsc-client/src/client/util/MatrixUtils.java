@@ -0,0 +1,140 @@
+package client.util;
+
+/**
+ * Operations on fixed-point 3x4 matrices.
+ *
+ * <p>A matrix is stored as 12 ints in row-major order, where the first 3
+ * columns hold a linear transform scaled by {@link #ONE}, and the last column
+ * holds a translation in whole units.
+ *
+ * <p>Each operation is applied after any existing transform, so a matrix can
+ * be built up in the same order that the individual transforms would be
+ * applied to a vertex.
+ *
+ * @author Dan Bryce
+ */
+public class MatrixUtils {
+
+    public static final int FIXED_POINT_SHIFT = 15;
+
+    public static final int ONE = 1 << FIXED_POINT_SHIFT;
+
+    public static final int SIZE = 12;
+
+    public static void setIdentity(int m[]) {
+        for (int i = 0; i < SIZE; i++) {
+            m[i] = 0;
+        }
+        m[0] = ONE;
+        m[5] = ONE;
+        m[10] = ONE;
+    }
+
+    /**
+     * Rotates about one axis, such that:
+     *
+     * <pre>
+     * a' = a * cos + b * sin
+     * b' = b * cos - a * sin
+     * </pre>
+     *
+     * @param m
+     * @param rowA Row of the first co-ordinate affected.
+     * @param rowB Row of the second co-ordinate affected.
+     * @param sin Sine of the angle, scaled by {@link #ONE}.
+     * @param cos Cosine of the angle, scaled by {@link #ONE}.
+     */
+    public static void rotate(int m[], int rowA, int rowB, int sin, int cos) {
+        int a = rowA * 4;
+        int b = rowB * 4;
+        for (int col = 0; col < 4; col++) {
+            long valueA = m[a + col];
+            long valueB = m[b + col];
+            m[a + col] = (int) (valueA * cos + valueB * sin >> FIXED_POINT_SHIFT);
+            m[b + col] = (int) (valueB * cos - valueA * sin >> FIXED_POINT_SHIFT);
+        }
+    }
+
+    /**
+     * Scales every co-ordinate by a whole number.
+     *
+     * @param m
+     * @param factor
+     */
+    public static void scale(int m[], int factor) {
+        for (int i = 0; i < SIZE; i++) {
+            m[i] *= factor;
+        }
+    }
+
+    /**
+     * Shears one co-ordinate by another, such that:
+     *
+     * <pre>
+     * dest' = dest + src * amount / 256
+     * </pre>
+     *
+     * @param m
+     * @param destRow
+     * @param srcRow
+     * @param amount
+     */
+    public static void shear(int m[], int destRow, int srcRow, int amount) {
+        int dest = destRow * 4;
+        int src = srcRow * 4;
+        for (int col = 0; col < 4; col++) {
+            m[dest + col] += m[src + col] * amount >> 8;
+        }
+    }
+
+    /**
+     * Translates by the given amount.
+     *
+     * @param m
+     * @param x
+     * @param y
+     * @param z
+     */
+    public static void translate(int m[], int x, int y, int z) {
+        m[3] += x;
+        m[7] += y;
+        m[11] += z;
+    }
+
+    /**
+     * Transforms a set of vertices by a matrix.
+     *
+     * <p>The source and destination arrays may be the same.
+     *
+     * @param m
+     * @param srcX
+     * @param srcY
+     * @param srcZ
+     * @param destX
+     * @param destY
+     * @param destZ
+     * @param numVertices
+     */
+    public static void transform(int m[],
+            int srcX[], int srcY[], int srcZ[],
+            int destX[], int destY[], int destZ[],
+            int numVertices) {
+
+        long m00 = m[0], m01 = m[1], m02 = m[2];
+        long m10 = m[4], m11 = m[5], m12 = m[6];
+        long m20 = m[8], m21 = m[9], m22 = m[10];
+        int tx = m[3];
+        int ty = m[7];
+        int tz = m[11];
+
+        for (int i = 0; i < numVertices; i++) {
+            int x = srcX[i];
+            int y = srcY[i];
+            int z = srcZ[i];
+            destX[i] = (int) (m00 * x + m01 * y + m02 * z >> FIXED_POINT_SHIFT) + tx;
+            destY[i] = (int) (m10 * x + m11 * y + m12 * z >> FIXED_POINT_SHIFT) + ty;
+            destZ[i] = (int) (m20 * x + m21 * y + m22 * z >> FIXED_POINT_SHIFT) + tz;
+        }
+    }
+
+}
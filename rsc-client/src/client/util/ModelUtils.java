@@ -44,10 +44,10 @@ public class ModelUtils {
     }
 
     private static void setAmbientLighting(World world, int x, int z, int height) {
-        int modelIndex1 = x / 12;
-        int modelIndex2 = z / 12;
-        int otherModelIndex1 = (x - 1) / 12;
-        int otherModelIndex2 = (z - 1) / 12;
+        int modelIndex1 = x / World.PIECE_SIZE;
+        int modelIndex2 = z / World.PIECE_SIZE;
+        int otherModelIndex1 = (x - 1) / World.PIECE_SIZE;
+        int otherModelIndex2 = (z - 1) / World.PIECE_SIZE;
         setAmbientLighting(world, modelIndex1, modelIndex2, x, z, height);
         if (modelIndex1 != otherModelIndex1) {
             setAmbientLighting(world, otherModelIndex1, modelIndex2, x, z, height);
@@ -61,9 +61,13 @@ public class ModelUtils {
     }
 
     private static void setAmbientLighting(World world, int modelIndex1, int modelIndex2, int x, int z, int ambience) {
-        Model gameModel = world.getLandscapeModel(modelIndex1 + modelIndex2 * 8);
+        Model gameModel = world.getLandscapeModel(modelIndex1 + modelIndex2 * World.PIECES_X);
+        if (gameModel == null) {
+            // Only some pieces are built when prefetching a Sector
+            return;
+        }
         for (int vertex = 0; vertex < gameModel.numVertices; vertex++) {
-            if (gameModel.vertices[vertex].x == x * 128 && gameModel.vertices[vertex].z == z * 128) {
+            if (gameModel.vertexX[vertex] == x * 128 && gameModel.vertexZ[vertex] == z * 128) {
                 gameModel.setVertexAmbience(vertex, ambience);
                 return;
             }
@@ -80,15 +84,44 @@ public class ModelUtils {
      */
     public static Model createDoor(Door door, World world, int entityId) {
 
+        int id = door.getId();
+        int frontTex = Resources.getDoorDef(id).getFrontTexture();
+        int backTex = Resources.getDoorDef(id).getBackTexture();
+
+        Model model = new Model(4, 1);
+        int vertices[] = {
+            model.addVertex(0, 0, 0),
+            model.addVertex(0, 0, 0),
+            model.addVertex(0, 0, 0),
+            model.addVertex(0, 0, 0)
+        };
+        model.addFace(4, vertices, frontTex, backTex);
+        positionDoor(door, world, model);
+        model.setLighting(false, 60, 24, -50, -10, -50);
+
+        model.entityId = MIN_DOOR_ID + entityId;
+
+        return model;
+    }
+
+    /**
+     * Moves the vertices of a Door model to the Door's current position.
+     *
+     * <p>Only the ends of the Door depend on its position, so the model can
+     * be reused when the Door moves, rather than creating a new one.
+     *
+     * @param door
+     * @param world
+     * @param model Model created by {@link #createDoor}.
+     */
+    public static void positionDoor(Door door, World world, Model model) {
+
         int modelX1 = door.getX();
         int modelZ1 = door.getZ();
         int modelX2 = modelX1;
         int modelZ2 = modelZ1;
 
-        int id = door.getId();
-        int frontTex = Resources.getDoorDef(id).getFrontTexture();
-        int backTex = Resources.getDoorDef(id).getBackTexture();
-        int height = Resources.getDoorDef(id).getHeight();
+        int height = Resources.getDoorDef(door.getId()).getHeight();
 
         int orientation = door.getOrientation();
         if (orientation == 0) {
@@ -111,19 +144,14 @@ public class ModelUtils {
         modelX2 *= World.TILE_WIDTH;
         modelZ2 *= World.TILE_DEPTH;
 
-        Model model = new Model(4, 1);
-        int vert1 = model.addUniqueVertex(modelX1, -world.getAveragedElevation(modelX1, modelZ1), modelZ1);
-        int vert2 = model.addUniqueVertex(modelX1, -world.getAveragedElevation(modelX1, modelZ1) - height, modelZ1);
-        int vert3 = model.addUniqueVertex(modelX2, -world.getAveragedElevation(modelX2, modelZ2) - height, modelZ2);
-        int vert4 = model.addUniqueVertex(modelX2, -world.getAveragedElevation(modelX2, modelZ2), modelZ2);
-        int vertices[] = { vert1, vert2, vert3, vert4 };
-
-        model.addFace(4, vertices, frontTex, backTex);
-        model.setLighting(false, 60, 24, -50, -10, -50);
+        int elevation1 = -world.getAveragedElevation(modelX1, modelZ1);
+        int elevation2 = -world.getAveragedElevation(modelX2, modelZ2);
 
-        model.entityId = MIN_DOOR_ID + entityId;
-
-        return model;
+        int vertices[] = model.faceVertices[0];
+        model.setVertex(vertices[0], modelX1, elevation1, modelZ1);
+        model.setVertex(vertices[1], modelX1, elevation1 - height, modelZ1);
+        model.setVertex(vertices[2], modelX2, elevation2 - height, modelZ2);
+        model.setVertex(vertices[3], modelX2, elevation2, modelZ2);
     }
 
 }